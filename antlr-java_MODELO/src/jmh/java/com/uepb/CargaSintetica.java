@@ -0,0 +1,74 @@
+package com.uepb;
+
+/**
+ * Programas .lang sintéticos usados pelos benchmarks. Cada forma exercita uma
+ * parte diferente do compilador e o tamanho controla a escala do programa.
+ */
+public enum CargaSintetica {
+    /** Expressões aritméticas e lógicas profundamente aninhadas dentro de um laço. */
+    EXPRESSOES_PROFUNDAS {
+        @Override
+        public String gerar(int tamanho) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("var i = 0;\nvar x = 1;\nvar r = 0;\n");
+            sb.append("while (i < 200) {\n    r = ");
+            for (int d = 0; d < tamanho; d++) {
+                sb.append(d % 2 == 0 ? "(x + " : "(2 * ");
+            }
+            sb.append("i");
+            for (int d = 0; d < tamanho; d++) {
+                sb.append(d % 3 == 0 ? " - 1)" : ")");
+            }
+            sb.append(";\n    if (r > 1000 and not (r < 0) or x == 2) {\n        r = r / 3;\n    }\n");
+            sb.append("    i = i + 1;\n}\nprint(r);\n");
+            return sb.toString();
+        }
+    },
+
+    /** if/while aninhados em profundidade; só os 8 níveis externos repetem, para limitar o tempo. */
+    CONTROLE_ANINHADO {
+        @Override
+        public String gerar(int tamanho) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("var t = 0;\n");
+            for (int d = 0; d < tamanho; d++) {
+                sb.append("var c").append(d).append(" = 0;\n");
+            }
+            for (int d = 0; d < tamanho; d++) {
+                String c = "c" + d;
+                sb.append(d < 8 ? "while (" : "if (").append(c).append(" < 2) {\n");
+                sb.append("if (").append(c).append(" == 0 or t > 5) { t = t + 1; } else { t = t - 1; }\n");
+            }
+            sb.append("t = t + 1;\n");
+            for (int d = tamanho - 1; d >= 0; d--) {
+                String c = "c" + d;
+                sb.append(c).append(" = ").append(c).append(" + 1;\n}\n");
+                if (d > 0) {
+                    sb.append(c).append(" = 0;\n");
+                }
+            }
+            sb.append("print(t);\n");
+            return sb.toString();
+        }
+    },
+
+    /** Muitas variáveis declaradas, atualizadas e somadas. */
+    MUITAS_VARIAVEIS {
+        @Override
+        public String gerar(int tamanho) {
+            StringBuilder sb = new StringBuilder();
+            for (int v = 0; v < tamanho; v++) {
+                sb.append("var v").append(v).append(" = ").append(v).append(";\n");
+            }
+            sb.append("var i = 0;\nwhile (i < 20) {\n");
+            for (int v = 1; v < tamanho; v++) {
+                sb.append("    v").append(v).append(" = v").append(v)
+                        .append(" + v").append(v - 1).append(" - i;\n");
+            }
+            sb.append("    i = i + 1;\n}\nprint(v").append(tamanho - 1).append(");\n");
+            return sb.toString();
+        }
+    };
+
+    public abstract String gerar(int tamanho);
+}
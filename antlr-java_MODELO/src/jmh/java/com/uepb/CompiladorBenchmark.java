@@ -0,0 +1,92 @@
+package com.uepb;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tempo das fases do compilador sobre as cargas sintéticas: análise léxica e
+ * sintática (em dois estágios, como no Main, e só com LL), geração de P-Code
+ * e execução no AnalisadorSemantico, tanto por travessia da árvore quanto
+ * pelo modo compilado em closures.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiladorBenchmark {
+
+    @Param({"EXPRESSOES_PROFUNDAS", "CONTROLE_ANINHADO", "MUITAS_VARIAVEIS"})
+    public CargaSintetica forma;
+
+    @Param({"10", "100"})
+    public int tamanho;
+
+    private String fonte;
+    private ParseTree arvore;
+    private CompiladorClosures.Programa compilado;
+    private PrintStream saidaOriginal;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        fonte = forma.gerar(tamanho);
+        arvore = analisar(fonte);
+        compilado = new AnalisadorSemantico().compilar(arvore);
+        saidaOriginal = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void restaurar() {
+        System.setOut(saidaOriginal);
+    }
+
+    static ParseTree analisar(String fonte) {
+        return Main.analisar(fonte);
+    }
+
+    @Benchmark
+    public ParseTree lexParse() {
+        return analisar(fonte);
+    }
+
+    /** Só a predição LL completa, sem o estágio SLL, para comparação. */
+    @Benchmark
+    public ParseTree lexParseLL() {
+        CompiladoresLexer lexer = new CompiladoresLexer(CharStreams.fromString(fonte));
+        CompiladoresParser parser = new CompiladoresParser(new CommonTokenStream(lexer));
+        return parser.program();
+    }
+
+    @Benchmark
+    public List<String> geracaoPCode() {
+        GeradorPCode gerador = new GeradorPCode();
+        gerador.visit(arvore);
+        return gerador.getPCode();
+    }
+
+    @Benchmark
+    public void analisadorSemantico(Blackhole bh) {
+        AnalisadorSemantico analisador = new AnalisadorSemantico();
+        bh.consume(analisador.visit(arvore));
+    }
+
+    @Benchmark
+    public CompiladorClosures.Programa compilacaoClosures() {
+        return new AnalisadorSemantico().compilar(arvore);
+    }
+
+    @Benchmark
+    public void execucaoClosures() {
+        compilado.executar();
+    }
+}
@@ -0,0 +1,130 @@
+package com.uepb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vazão do PCodeMachine. Além do tempo por execução, o contador auxiliar
+ * "instrucoes" é reportado como instruções despachadas por segundo; dividido
+ * pela vazão de execuções dá os despachos por execução, o que permite comparar
+ * a execução com e sem superinstruções. "executarJit" mede o código compilado
+ * pelo CompiladorJit (a compilação é feita uma vez na preparação); o código
+ * compilado não conta instruções, e o contador recebe as instruções originais
+ * que o interpretador sem superinstruções executa no mesmo programa, medidas
+ * uma vez na preparação. Programas não elegíveis usam o interpretador. "executarEmCamadas" usa a execução em
+ * camadas com limites baixos, incluindo na medida o custo das promoções.
+ * "executarRegistros" executa a tradução para três endereços na
+ * MaquinaRegistros; comparado a "executar" com superinstrucoes=false, mostra
+ * quantos despachos a forma de registradores economiza sobre a pilha.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCodeMachineBenchmark {
+
+    @Param({"EXPRESSOES_PROFUNDAS", "CONTROLE_ANINHADO", "MUITAS_VARIAVEIS"})
+    public CargaSintetica forma;
+
+    @Param({"10", "100"})
+    public int tamanho;
+
+    @Param({"true", "false"})
+    public boolean superinstrucoes;
+
+    private ProgramaCarregado carregado;
+    private CompiladorJit.Resultado compilado;
+    private long instrucoesJit;
+    private ProgramaRegistros.Traducao registros;
+    private CanalES entrada;
+    private PrintStream saidaOriginal;
+
+    @State(org.openjdk.jmh.annotations.Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Contadores {
+        public long instrucoes;
+
+        @Setup(Level.Iteration)
+        public void zerar() {
+            instrucoes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        GeradorPCode gerador = new GeradorPCode();
+        gerador.visit(CompiladorBenchmark.analisar(forma.gerar(tamanho)));
+        ProgramaPCode programa = ProgramaPCode.decodificar(gerador.getPCode());
+        carregado = new ProgramaCarregado(programa, PCodeMachine.DEFAULT_MEM_LIMIT,
+                superinstrucoes ? Superinstrucoes.padrao() : EnumSet.noneOf(Superinstrucoes.Tipo.class));
+        compilado = CompiladorJit.compilar(programa, carregado.getTamanhoMemoria());
+        entrada = CanalES.console();
+        saidaOriginal = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        if (compilado.elegivel()) {
+            PCodeMachine maquina = new PCodeMachine(false, 0);
+            maquina.load(new ProgramaCarregado(programa, PCodeMachine.DEFAULT_MEM_LIMIT,
+                    EnumSet.noneOf(Superinstrucoes.Tipo.class)));
+            try {
+                maquina.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            instrucoesJit = maquina.getExecutedInstructions();
+        }
+        registros = ProgramaRegistros.traduzir(programa, carregado.getTamanhoMemoria());
+    }
+
+    @TearDown(Level.Trial)
+    public void restaurar() {
+        System.setOut(saidaOriginal);
+    }
+
+    @Benchmark
+    public void executar(Contadores contadores) throws IOException {
+        PCodeMachine maquina = new PCodeMachine(false, 0);
+        maquina.load(carregado);
+        maquina.run();
+        contadores.instrucoes += maquina.getExecutedInstructions();
+    }
+
+    @Benchmark
+    public void executarEmCamadas(Contadores contadores) throws IOException {
+        PCodeMachine maquina = new PCodeMachine(false, 0);
+        maquina.load(carregado);
+        maquina.setTiered(true);
+        maquina.setTierThresholds(10, 100);
+        maquina.run();
+        contadores.instrucoes += maquina.getExecutedInstructions();
+    }
+
+    @Benchmark
+    public void executarJit(Contadores contadores) throws IOException {
+        if (compilado.elegivel()) {
+            compilado.executar(entrada);
+            entrada.descarregar();
+            contadores.instrucoes += instrucoesJit;
+        } else {
+            executar(contadores);
+        }
+    }
+
+    @Benchmark
+    public void executarRegistros(Contadores contadores) throws IOException {
+        if (registros.traduzido()) {
+            MaquinaRegistros maquina = new MaquinaRegistros(registros.programa());
+            maquina.executar(entrada);
+            contadores.instrucoes += maquina.getExecutadas();
+        } else {
+            executar(contadores);
+        }
+    }
+}
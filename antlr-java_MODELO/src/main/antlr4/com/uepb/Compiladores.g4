@@ -1,5 +1,14 @@
 grammar Compiladores;
 
+@parser::members {
+    /** Reporta o encadeamento sem parênteses de um operador não associativo. */
+    private void naoAssociativo(ParserRuleContext ctx, Token op, Class<? extends ExprContext> tipo) {
+        if (tipo.isInstance(ctx.getChild(0))) {
+            notifyErrorListeners(op, "operador '" + op.getText() + "' não é associativo; use parênteses", null);
+        }
+    }
+}
+
 // --- Tokens: palavras-chave e operadores ---
 VAR     : 'var';
 PRINT   : 'print';
@@ -68,29 +77,23 @@ ifStatement: IF LPAREN expr RPAREN statement (ELSE statement)?;
 whileStatement: WHILE LPAREN expr RPAREN statement;
 
 // --- Expressões ---
-expr: logicalOrExpr;
-
-logicalOrExpr: logicalAndExpr (OR logicalAndExpr)*;
-
-logicalAndExpr: equalityExpr (AND equalityExpr)*;
-
-equalityExpr: relationalExpr ((EQ | NOTEQ) relationalExpr)?;
-
-relationalExpr: additiveExpr ((LT | GT) additiveExpr)?;
-
-additiveExpr: multiplicativeExpr ((PLUS | MINUS) multiplicativeExpr)*;
-
-multiplicativeExpr: powerExpr ((MULT | DIV) powerExpr)*;
-
-powerExpr: unaryExpr (POW powerExpr)?;
-
-unaryExpr: (PLUS | MINUS | NOT)* primaryExpr;
-
-primaryExpr
-    : NUMBER
-    | ID
-    | STRING
-    | booleanLiteral
-    | LPAREN expr RPAREN;
-
-booleanLiteral: TRUE | FALSE;
+// Uma única regra recursiva à esquerda: a precedência vem da ordem das
+// alternativas, da maior (operadores unários) para a menor (or).
+// Igualdade e relacionais não são associativas: "a < b < c" exige parênteses.
+expr
+    : op=(PLUS | MINUS | NOT) expr                  # UnaryExpr
+    | <assoc=right> expr POW expr                    # PowerExpr
+    | expr op=(MULT | DIV) expr                      # MultiplicativeExpr
+    | expr op=(PLUS | MINUS) expr                    # AdditiveExpr
+    | expr op=(LT | GT) expr
+      {naoAssociativo(_localctx, $op, RelationalExprContext.class);}   # RelationalExpr
+    | expr op=(EQ | NOTEQ) expr
+      {naoAssociativo(_localctx, $op, EqualityExprContext.class);}     # EqualityExpr
+    | expr AND expr                                  # LogicalAndExpr
+    | expr OR expr                                   # LogicalOrExpr
+    | NUMBER                                         # NumberExpr
+    | ID                                             # IdExpr
+    | STRING                                         # StringExpr
+    | (TRUE | FALSE)                                 # BooleanExpr
+    | LPAREN expr RPAREN                             # ParenExpr
+    ;
@@ -1,15 +1,42 @@
 package com.uepb;
 
+import org.antlr.v4.runtime.tree.ParseTree;
+
 import java.util.*;
 
 public class AnalisadorSemantico extends CompiladoresBaseVisitor<Object> {
-    private final Map<String, Object> memory = new HashMap<>();
-    private final Scanner scanner = new Scanner(System.in);
+    // Valores por endereço do ResolvedorEscopos, com os mesmos escopos de bloco do P-Code
+    private final Map<Integer, Object> memory = new HashMap<>();
+    private final CanalES io;
+    private ResolvedorEscopos escopos;
+
+    public AnalisadorSemantico() {
+        this(CanalES.console());
+    }
+
+    /** Executa com o canal de entrada e saída indicado, em vez do console. */
+    public AnalisadorSemantico(CanalES io) {
+        this.io = io;
+    }
+
+    /**
+     * Modo compilado: converte a árvore uma única vez em closures que podem
+     * ser executadas repetidamente, com a mesma semântica da travessia.
+     */
+    public CompiladorClosures.Programa compilar(ParseTree tree) {
+        return new CompiladorClosures(io).compilar(tree);
+    }
 
     @Override
     public Object visitProgram(CompiladoresParser.ProgramContext ctx) {
-        for (var stmt : ctx.statement()) {
-            visit(stmt);
+        escopos = new ResolvedorEscopos();
+        escopos.visit(ctx);
+        try {
+            for (var stmt : ctx.statement()) {
+                visit(stmt);
+            }
+        } finally {
+            io.descarregar();
         }
         return null;
     }
@@ -24,42 +51,42 @@ public class AnalisadorSemantico extends CompiladoresBaseVisitor<Object> {
 
     @Override
     public Object visitVarDeclaration(CompiladoresParser.VarDeclarationContext ctx) {
-        String id = ctx.ID().getText();
         Object value = ctx.expr() != null ? visit(ctx.expr()) : null;
-        memory.put(id, value);
+        memory.put(escopos.endereco(ctx.ID()), value);
         return null;
     }
 
     @Override
     public Object visitAssignment(CompiladoresParser.AssignmentContext ctx) {
-        String id = ctx.ID().getText();
         Object value = visit(ctx.expr());
-        memory.put(id, value);
+        memory.put(escopos.endereco(ctx.ID()), value);
         return null;
     }
 
     @Override
     public Object visitPrintStatement(CompiladoresParser.PrintStatementContext ctx) {
         Object value = visit(ctx.expr());
-        System.out.println(value);
+        io.escrever(String.valueOf(value));
         return null;
     }
 
     @Override
     public Object visitInputStatement(CompiladoresParser.InputStatementContext ctx) {
         String id = ctx.ID().getText();
-        System.out.print(id + ": ");
-        String input = scanner.nextLine();
+        memory.put(escopos.endereco(ctx.ID()), converterEntrada(io.ler(id + ": ")));
+        return null;
+    }
+
+    static Object converterEntrada(String input) {
         try {
             if (input.contains(".")) {
-                memory.put(id, Double.parseDouble(input));
+                return Double.parseDouble(input);
             } else {
-                memory.put(id, Integer.parseInt(input));
+                return Integer.parseInt(input);
             }
         } catch (Exception e) {
-            memory.put(id, input);
+            return input;
         }
-        return null;
     }
 
     @Override
@@ -82,103 +109,84 @@ public class AnalisadorSemantico extends CompiladoresBaseVisitor<Object> {
     }
 
     // Expressões
-    @Override
-    public Object visitExpr(CompiladoresParser.ExprContext ctx) {
-        return visit(ctx.logicalOrExpr());
-    }
-
     @Override
     public Object visitLogicalOrExpr(CompiladoresParser.LogicalOrExprContext ctx) {
-        Object result = visit(ctx.logicalAndExpr(0));
-        for (int i = 1; i < ctx.logicalAndExpr().size(); i++) {
-            result = asBoolean(result) || asBoolean(visit(ctx.logicalAndExpr(i)));
-        }
-        return result;
+        return asBoolean(visit(ctx.expr(0))) || asBoolean(visit(ctx.expr(1)));
     }
 
     @Override
     public Object visitLogicalAndExpr(CompiladoresParser.LogicalAndExprContext ctx) {
-        Object result = visit(ctx.equalityExpr(0));
-        for (int i = 1; i < ctx.equalityExpr().size(); i++) {
-            result = asBoolean(result) && asBoolean(visit(ctx.equalityExpr(i)));
-        }
-        return result;
+        return asBoolean(visit(ctx.expr(0))) && asBoolean(visit(ctx.expr(1)));
     }
 
     @Override
     public Object visitEqualityExpr(CompiladoresParser.EqualityExprContext ctx) {
-        Object left = visit(ctx.relationalExpr(0));
-        if (ctx.relationalExpr().size() == 1) return left;
-        Object right = visit(ctx.relationalExpr(1));
-        return ctx.EQ() != null ? Objects.equals(left, right) : !Objects.equals(left, right);
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        return ctx.op.getType() == CompiladoresParser.EQ ? Objects.equals(left, right) : !Objects.equals(left, right);
     }
 
     @Override
     public Object visitRelationalExpr(CompiladoresParser.RelationalExprContext ctx) {
-        Object left = visit(ctx.additiveExpr(0));
-        if (ctx.additiveExpr().size() == 1) return left;
-        Object right = visit(ctx.additiveExpr(1));
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
         double l = asDouble(left), r = asDouble(right);
-        return ctx.LT() != null ? l < r : l > r;
+        return ctx.op.getType() == CompiladoresParser.LT ? l < r : l > r;
     }
 
     @Override
     public Object visitAdditiveExpr(CompiladoresParser.AdditiveExprContext ctx) {
-        Object result = visit(ctx.multiplicativeExpr(0));
-        for (int i = 1; i < ctx.multiplicativeExpr().size(); i++) {
-            double left = asDouble(result);
-            double right = asDouble(visit(ctx.multiplicativeExpr(i)));
-            result = ctx.PLUS(i - 1) != null ? left + right : left - right;
-        }
-        return result;
+        double left = asDouble(visit(ctx.expr(0)));
+        double right = asDouble(visit(ctx.expr(1)));
+        return ctx.op.getType() == CompiladoresParser.PLUS ? left + right : left - right;
     }
 
     @Override
     public Object visitMultiplicativeExpr(CompiladoresParser.MultiplicativeExprContext ctx) {
-        Object result = visit(ctx.powerExpr(0));
-        for (int i = 1; i < ctx.powerExpr().size(); i++) {
-            double left = asDouble(result);
-            double right = asDouble(visit(ctx.powerExpr(i)));
-            result = ctx.MULT(i - 1) != null ? left * right : left / right;
-        }
-        return result;
+        double left = asDouble(visit(ctx.expr(0)));
+        double right = asDouble(visit(ctx.expr(1)));
+        return ctx.op.getType() == CompiladoresParser.MULT ? left * right : left / right;
     }
 
     @Override
     public Object visitPowerExpr(CompiladoresParser.PowerExprContext ctx) {
-        Object base = visit(ctx.unaryExpr());
-        if (ctx.powerExpr() != null) {
-            return Math.pow(asDouble(base), asDouble(visit(ctx.powerExpr())));
-        }
-        return base;
+        Object base = visit(ctx.expr(0));
+        return Math.pow(asDouble(base), asDouble(visit(ctx.expr(1))));
     }
 
     @Override
     public Object visitUnaryExpr(CompiladoresParser.UnaryExprContext ctx) {
-        Object value = visit(ctx.primaryExpr());
-        for (int i = ctx.getChildCount() - 2; i >= 0; i--) {
-            String op = ctx.getChild(i).getText();
-            if (op.equals("-")) value = -asDouble(value);
-            else if (op.equals("not")) value = !asBoolean(value);
-        }
+        Object value = visit(ctx.expr());
+        if (ctx.op.getType() == CompiladoresParser.MINUS) return -asDouble(value);
+        if (ctx.op.getType() == CompiladoresParser.NOT) return !asBoolean(value);
         return value;
     }
 
     @Override
-    public Object visitPrimaryExpr(CompiladoresParser.PrimaryExprContext ctx) {
-        if (ctx.NUMBER() != null) {
-            return ctx.NUMBER().getText().contains(".") ?
-                    Double.parseDouble(ctx.NUMBER().getText()) :
-                    Integer.parseInt(ctx.NUMBER().getText());
-        } else if (ctx.STRING() != null) {
-            return ctx.STRING().getText().replaceAll("^\"|\"$", "");
-        } else if (ctx.ID() != null) {
-            return memory.getOrDefault(ctx.ID().getText(), 0);
-        } else if (ctx.booleanLiteral() != null) {
-            return ctx.booleanLiteral().getText().equals("true");
-        } else {
-            return visit(ctx.expr());
-        }
+    public Object visitNumberExpr(CompiladoresParser.NumberExprContext ctx) {
+        return ctx.NUMBER().getText().contains(".") ?
+                Double.parseDouble(ctx.NUMBER().getText()) :
+                Integer.parseInt(ctx.NUMBER().getText());
+    }
+
+    @Override
+    public Object visitStringExpr(CompiladoresParser.StringExprContext ctx) {
+        return ctx.STRING().getText().replaceAll("^\"|\"$", "");
+    }
+
+    @Override
+    public Object visitIdExpr(CompiladoresParser.IdExprContext ctx) {
+        return memory.getOrDefault(escopos.endereco(ctx.ID()), 0);
+    }
+
+    @Override
+    public Object visitBooleanExpr(CompiladoresParser.BooleanExprContext ctx) {
+        return ctx.TRUE() != null;
+    }
+
+    @Override
+    public Object visitParenExpr(CompiladoresParser.ParenExprContext ctx) {
+        return visit(ctx.expr());
     }
 
     private boolean asBoolean(Object value) {
@@ -0,0 +1,203 @@
+package com.uepb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Cache em disco do P-Code gerado, endereçado pelo conteúdo: a chave é o
+ * SHA-256 do código-fonte, da versão do compilador (incluindo o instante do
+ * build) e das opções que mudam o código gerado. Num acerto, o compilador não
+ * passa pelo lexer, parser nem geradores.
+ *
+ * Cada entrada é um arquivo "&lt;chave&gt;.entrada" gravado num arquivo temporário
+ * e movido atomicamente para o lugar, o que permite vários compiladores
+ * usando o mesmo diretório ao mesmo tempo. A data de modificação da entrada é
+ * atualizada a cada acerto e serve para descartar as menos usadas quando o
+ * tamanho total passa do limite. Os totais de acertos e falhas ficam no
+ * arquivo "estatisticas", atualizado sob trava.
+ */
+public final class CacheCompilacao {
+    static final long LIMITE_PADRAO = 256L * 1024 * 1024;
+
+    private static final String EXTENSAO = ".entrada";
+    private static final String VERSAO = versaoCompilador();
+
+    private final Path diretorio;
+    private final long limiteBytes;
+    // Contadores desta instância, que pode ser compartilhada pelas threads do lote
+    private final AtomicInteger acertos = new AtomicInteger();
+    private final AtomicInteger falhas = new AtomicInteger();
+    // Tamanho estimado do diretório: medido na abertura e somado a cada gravação
+    private final AtomicLong tamanhoTotal = new AtomicLong();
+
+    public CacheCompilacao(Path diretorio, long limiteBytes) throws IOException {
+        this.diretorio = Files.createDirectories(diretorio);
+        this.limiteBytes = limiteBytes;
+        tamanhoTotal.set(medir().stream().mapToLong(Arquivo::tamanho).sum());
+    }
+
+    /** Diretório usado quando nenhum é indicado: ~/.cache/compilador-uepb. */
+    public static Path diretorioPadrao() {
+        return Paths.get(System.getProperty("user.home"), ".cache", "compilador-uepb");
+    }
+
+    private static String versaoCompilador() {
+        Properties p = new Properties();
+        try (InputStream in = CacheCompilacao.class.getResourceAsStream("versao.properties")) {
+            if (in != null) {
+                p.load(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return p.getProperty("versao", "?") + "+" + p.getProperty("compilacao", "?");
+    }
+
+    /** Chave do código-fonte compilado com as opções indicadas. */
+    public static String chave(String fonte, boolean optimize, String peepholeRules) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            String opcoes = "opt=" + optimize + ";peephole=" + (peepholeRules != null ? peepholeRules : "*");
+            sha.update((VERSAO + "\n" + opcoes + "\n").getBytes(StandardCharsets.UTF_8));
+            sha.update(fonte.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Procura a entrada; a primeira linha guarda as estatísticas mostradas
+     * pelo compilador e as demais, o P-Code em texto. Com "completa", uma
+     * entrada sem a contagem de instruções economizadas conta como falha.
+     */
+    public Optional<Main.Geracao> buscar(String chave, boolean completa) throws IOException {
+        Path entrada = diretorio.resolve(chave + EXTENSAO);
+        List<String> linhas;
+        try {
+            linhas = Files.readAllLines(entrada, StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(entrada, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            falhas.incrementAndGet();
+            return Optional.empty();
+        }
+        String[] cabecalho = linhas.isEmpty() ? new String[0] : linhas.get(0).split(" ");
+        if (cabecalho.length != 3 || completa && cabecalho[0].startsWith("-")) {
+            // Entrada corrompida ou incompleta: tratada como falha e sobrescrita na gravação
+            falhas.incrementAndGet();
+            return Optional.empty();
+        }
+        acertos.incrementAndGet();
+        return Optional.of(new Main.Geracao(new ArrayList<>(linhas.subList(1, linhas.size())),
+                Integer.parseInt(cabecalho[0]), Integer.parseInt(cabecalho[1]), Integer.parseInt(cabecalho[2])));
+    }
+
+    /** Grava a entrada de forma atômica e descarta as menos usadas se passar do limite. */
+    public void gravar(String chave, Main.Geracao geracao) throws IOException {
+        List<String> linhas = new ArrayList<>(geracao.pcode().size() + 1);
+        linhas.add(geracao.economizadas() + " " + geracao.memoria() + " " + geracao.variaveis());
+        linhas.addAll(geracao.pcode());
+        Path temporario = temporario(chave);
+        try {
+            Files.write(temporario, linhas, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            long tamanho = Files.size(temporario);
+            Files.move(temporario, diretorio.resolve(chave + EXTENSAO),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (tamanhoTotal.addAndGet(tamanho) > limiteBytes) {
+                descartarExcesso();
+            }
+        } finally {
+            Files.deleteIfExists(temporario);
+        }
+    }
+
+    /** Nome temporário único entre processos e threads, no mesmo diretório para que a troca seja atômica. */
+    private Path temporario(String prefixo) {
+        return diretorio.resolve(prefixo + "." + ProcessHandle.current().pid() + "."
+                + Thread.currentThread().getId() + ".tmp");
+    }
+
+    private record Arquivo(Path caminho, long tamanho, long acesso) {
+    }
+
+    /** Remeça o diretório, que pode ter sido alterado por outros compiladores, e descarta as entradas mais antigas. */
+    private synchronized void descartarExcesso() throws IOException {
+        List<Arquivo> arquivos = medir();
+        long total = arquivos.stream().mapToLong(Arquivo::tamanho).sum();
+        arquivos.sort(Comparator.comparingLong(Arquivo::acesso));
+        for (Arquivo a : arquivos) {
+            if (total <= limiteBytes) {
+                break;
+            }
+            Files.deleteIfExists(a.caminho());
+            total -= a.tamanho();
+        }
+        tamanhoTotal.set(total);
+    }
+
+    private List<Arquivo> medir() throws IOException {
+        List<Arquivo> arquivos = new ArrayList<>();
+        try (Stream<Path> lista = Files.list(diretorio)) {
+            for (Path p : (Iterable<Path>) lista::iterator) {
+                if (!p.getFileName().toString().endsWith(EXTENSAO)) {
+                    continue;
+                }
+                try {
+                    arquivos.add(new Arquivo(p, Files.size(p), Files.getLastModifiedTime(p).toMillis()));
+                } catch (NoSuchFileException e) {
+                    // Descartada por outro compilador
+                }
+            }
+        }
+        return arquivos;
+    }
+
+    public int getAcertos() {
+        return acertos.get();
+    }
+
+    public int getFalhas() {
+        return falhas.get();
+    }
+
+    /**
+     * Soma os acertos e falhas desta instância aos totais do diretório e
+     * devolve os totais atualizados: {acertos, falhas}.
+     */
+    public long[] registrarEstatisticas() throws IOException {
+        Path arquivo = diretorio.resolve("estatisticas");
+        try (FileChannel trava = FileChannel.open(diretorio.resolve("estatisticas.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = trava.lock();
+            try {
+                Properties p = new Properties();
+                if (Files.exists(arquivo)) {
+                    try (InputStream in = Files.newInputStream(arquivo)) {
+                        p.load(in);
+                    }
+                }
+                long totalAcertos = Long.parseLong(p.getProperty("acertos", "0")) + acertos.getAndSet(0);
+                long totalFalhas = Long.parseLong(p.getProperty("falhas", "0")) + falhas.getAndSet(0);
+                Path temporario = temporario("estatisticas");
+                Files.writeString(temporario, "acertos=" + totalAcertos + "\nfalhas=" + totalFalhas + "\n");
+                Files.move(temporario, arquivo, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return new long[]{totalAcertos, totalFalhas};
+            } finally {
+                lock.release();
+            }
+        }
+    }
+}
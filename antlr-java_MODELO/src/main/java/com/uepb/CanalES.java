@@ -0,0 +1,100 @@
+package com.uepb;
+
+import java.io.ByteArrayInputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+/**
+ * Entrada e saída dos programas executados (wri/rd no P-Code, print/input na
+ * linguagem), usada pelo PCodeMachine, pelo CompiladorJit e pelos dois modos
+ * do AnalisadorSemantico.
+ *
+ * A saída é acumulada e enviada ao destino de uma vez: quando o buffer enche,
+ * antes de cada leitura (para o prompt aparecer antes de bloquear) e ao final
+ * da execução. As entradas vêm do console, com prompt, ou de um conjunto já
+ * fornecido (arquivo ou bytes), uma por linha e sem prompt.
+ */
+public final class CanalES {
+    static final int TAMANHO_BUFFER = 8192;
+
+    private static final String FIM_DE_LINHA = System.lineSeparator();
+
+    private final StringBuilder buffer = new StringBuilder();
+    // Destino da saída; null é o System.out do momento em que o buffer é descarregado
+    private final Appendable destino;
+    private final InputStream origem;
+    private final boolean comPrompt;
+    private Scanner entrada;
+
+    private CanalES(Appendable destino, InputStream origem, boolean comPrompt) {
+        this.destino = destino;
+        this.origem = origem;
+        this.comPrompt = comPrompt;
+    }
+
+    /** Saída no System.out e leitura do System.in, com prompt. */
+    public static CanalES console() {
+        return new CanalES(null, null, true);
+    }
+
+    /** Saída no System.out e entradas lidas do arquivo, uma por linha, sem prompt. */
+    public static CanalES comEntradas(Path arquivo) throws IOException {
+        return comEntradas(Files.readAllBytes(arquivo));
+    }
+
+    /** Saída no System.out e entradas lidas dos bytes (UTF-8), uma por linha, sem prompt. */
+    public static CanalES comEntradas(byte[] entradas) {
+        return new CanalES(null, new ByteArrayInputStream(entradas), false);
+    }
+
+    /** Entradas e saída em memória, para embutir os executores ou testá-los. */
+    public static CanalES memoria(String entradas, StringBuilder saida) {
+        return new CanalES(saida, new ByteArrayInputStream(entradas.getBytes(StandardCharsets.UTF_8)), false);
+    }
+
+    /** Escreve o valor seguido de fim de linha. */
+    public void escrever(String linha) {
+        buffer.append(linha).append(FIM_DE_LINHA);
+        if (buffer.length() >= TAMANHO_BUFFER) {
+            descarregar();
+        }
+    }
+
+    /**
+     * Lê a próxima linha de entrada; no console, mostra o prompt antes. Sem
+     * mais entradas, lança NoSuchElementException como o Scanner.
+     */
+    public String ler(String prompt) {
+        if (comPrompt) {
+            buffer.append(prompt);
+        }
+        descarregar();
+        if (entrada == null) {
+            entrada = origem != null ? new Scanner(origem, StandardCharsets.UTF_8) : new Scanner(System.in);
+        }
+        return entrada.nextLine();
+    }
+
+    /** Envia ao destino o que estiver no buffer. */
+    public void descarregar() {
+        if (buffer.length() == 0) {
+            return;
+        }
+        Appendable saida = destino != null ? destino : System.out;
+        try {
+            saida.append(buffer);
+            if (saida instanceof Flushable f) {
+                f.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.setLength(0);
+    }
+}
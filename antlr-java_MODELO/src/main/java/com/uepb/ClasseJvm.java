@@ -0,0 +1,325 @@
+package com.uepb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Escritor mínimo de arquivos .class, só com o necessário para o CompiladorJit:
+ * constant pool, métodos estáticos com atributo Code e tabela de exceções.
+ *
+ * As classes são geradas na versão 49 do formato, que ainda não exige o
+ * atributo StackMapTable; a verificação fica com o verificador por inferência
+ * de tipos da JVM.
+ */
+final class ClasseJvm {
+    // Opcodes da JVM usados pelo gerador
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, ICONST_1 = 0x04, DCONST_0 = 0x0e, DCONST_1 = 0x0f;
+    static final int ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19, DALOAD = 0x31, AALOAD = 0x32, BALOAD = 0x33;
+    static final int ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a, DASTORE = 0x52, AASTORE = 0x53, BASTORE = 0x54;
+    static final int DMUL = 0x6b, DADD = 0x63, DSUB = 0x67, DDIV = 0x6f;
+    static final int ISHL = 0x78, IAND = 0x7e, I2D = 0x87, D2I = 0x8e, I2B = 0x91, LCMP = 0x94, DCMPL = 0x97, DCMPG = 0x98;
+    static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    static final int IF_ICMPNE = 0xa0, GOTO = 0xa7;
+    static final int IRETURN = 0xac, RETURN = 0xb1, ATHROW = 0xbf;
+    // Usados só pelo próprio escritor
+    private static final int BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14;
+    private static final int INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+    static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    private static final int VERSAO = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entradas = new HashMap<>();
+    private int proximaEntrada = 1;
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> metodos = new ArrayList<>();
+
+    ClasseJvm(String nome) {
+        this.thisClass = classe(nome);
+        this.superClass = classe("java/lang/Object");
+    }
+
+    // --- Constant pool ---
+
+    int utf8(String s) {
+        return entrada("U" + s, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(s);
+        });
+    }
+
+    int classe(String nome) {
+        int n = utf8(nome);
+        return entrada("C" + nome, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(n);
+        });
+    }
+
+    int string(String s) {
+        int n = utf8(s);
+        return entrada("S" + s, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(n);
+        });
+    }
+
+    int inteiro(int v) {
+        return entrada("I" + v, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(v);
+        });
+    }
+
+    int real(double v) {
+        return entrada("D" + Double.doubleToRawLongBits(v), 2, out -> {
+            out.writeByte(6);
+            out.writeDouble(v);
+        });
+    }
+
+    int metodo(String dono, String nome, String descritor) {
+        int c = classe(dono);
+        int n = utf8(nome);
+        int d = utf8(descritor);
+        int nt = entrada("N" + nome + descritor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+        return entrada("M" + dono + "." + nome + descritor, 1, out -> {
+            out.writeByte(10);
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    private interface Escrita {
+        void escrever(DataOutputStream out) throws IOException;
+    }
+
+    private int entrada(String chave, int tamanho, Escrita escrita) {
+        Integer existente = entradas.get(chave);
+        if (existente != null) {
+            return existente;
+        }
+        try {
+            escrita.escrever(poolOut);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int indice = proximaEntrada;
+        proximaEntrada += tamanho;
+        entradas.put(chave, indice);
+        return indice;
+    }
+
+    // --- Métodos ---
+
+    Codigo metodoEstatico(String nome, String descritor) {
+        return new Codigo(nome, descritor);
+    }
+
+    byte[] bytes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSAO);
+            out.writeShort(proximaEntrada);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(metodos.size());
+            for (byte[] m : metodos) {
+                out.write(m);
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Posição no bytecode; saltos para rótulos ainda não marcados são corrigidos em marcar(). */
+    static final class Rotulo {
+        private int posicao = -1;
+        private final List<int[]> pendentes = new ArrayList<>();
+    }
+
+    /** Corpo de um método estático em construção. */
+    final class Codigo {
+        private final String nome;
+        private final String descritor;
+        private byte[] codigo = new byte[256];
+        private int tamanho = 0;
+        private final List<int[]> excecoes = new ArrayList<>();
+        private int maxPilha = 16;
+        private int maxLocais = 0;
+
+        private Codigo(String nome, String descritor) {
+            this.nome = nome;
+            this.descritor = descritor;
+        }
+
+        int tamanho() {
+            return tamanho;
+        }
+
+        void maxPilha(int maxPilha) {
+            this.maxPilha = maxPilha;
+        }
+
+        void maxLocais(int maxLocais) {
+            this.maxLocais = maxLocais;
+        }
+
+        void op(int op) {
+            u1(op);
+        }
+
+        private void u1(int v) {
+            if (tamanho == codigo.length) {
+                codigo = Arrays.copyOf(codigo, tamanho * 2);
+            }
+            codigo[tamanho++] = (byte) v;
+        }
+
+        private void u2(int v) {
+            u1(v >> 8);
+            u1(v);
+        }
+
+        void inteiro(int v) {
+            if (v >= -1 && v <= 5) {
+                op(ICONST_0 + v);
+            } else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                u1(v);
+            } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(v);
+            } else {
+                constante(ClasseJvm.this.inteiro(v));
+            }
+        }
+
+        void real(double v) {
+            if (Double.doubleToRawLongBits(v) == 0L) {
+                op(DCONST_0);
+            } else if (v == 1.0) {
+                op(DCONST_1);
+            } else {
+                op(LDC2_W);
+                u2(ClasseJvm.this.real(v));
+            }
+        }
+
+        void string(String s) {
+            constante(ClasseJvm.this.string(s));
+        }
+
+        private void constante(int indice) {
+            if (indice <= 0xff) {
+                op(LDC);
+                u1(indice);
+            } else {
+                op(LDC_W);
+                u2(indice);
+            }
+        }
+
+        /** Instrução de carga ou gravação de variável local, com prefixo "wide" quando preciso. */
+        void local(int op, int indice) {
+            if (indice > 0xff) {
+                op(WIDE);
+                op(op);
+                u2(indice);
+            } else {
+                op(op);
+                u1(indice);
+            }
+        }
+
+        void invocarEstatico(String dono, String nome, String descritor) {
+            op(INVOKESTATIC);
+            u2(metodo(dono, nome, descritor));
+        }
+
+        void salto(int op, Rotulo destino) {
+            int origem = tamanho;
+            op(op);
+            if (destino.posicao >= 0) {
+                deslocamento(origem, destino.posicao);
+                u2(destino.posicao - origem);
+            } else {
+                destino.pendentes.add(new int[]{origem, tamanho});
+                u2(0);
+            }
+        }
+
+        void marcar(Rotulo rotulo) {
+            rotulo.posicao = tamanho;
+            for (int[] p : rotulo.pendentes) {
+                int desloc = deslocamento(p[0], tamanho);
+                codigo[p[1]] = (byte) (desloc >> 8);
+                codigo[p[1] + 1] = (byte) desloc;
+            }
+            rotulo.pendentes.clear();
+        }
+
+        private int deslocamento(int origem, int destino) {
+            int desloc = destino - origem;
+            if (desloc < Short.MIN_VALUE || desloc > Short.MAX_VALUE) {
+                throw new IllegalStateException("Salto longo demais no bytecode gerado");
+            }
+            return desloc;
+        }
+
+        /** Registra um tratador de exceções para o intervalo [inicio, fim). */
+        void tratador(Rotulo inicio, Rotulo fim, Rotulo tratador, String tipo) {
+            excecoes.add(new int[]{inicio.posicao, fim.posicao, tratador.posicao, classe(tipo)});
+        }
+
+        void concluir() {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeShort(ACC_PUBLIC | ACC_STATIC);
+                out.writeShort(utf8(nome));
+                out.writeShort(utf8(descritor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + tamanho + 8 * excecoes.size());
+                out.writeShort(maxPilha);
+                out.writeShort(maxLocais);
+                out.writeInt(tamanho);
+                out.write(codigo, 0, tamanho);
+                out.writeShort(excecoes.size());
+                for (int[] e : excecoes) {
+                    for (int v : e) {
+                        out.writeShort(v);
+                    }
+                }
+                out.writeShort(0);
+                metodos.add(bytes.toByteArray());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
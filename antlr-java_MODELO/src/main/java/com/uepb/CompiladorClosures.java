@@ -0,0 +1,339 @@
+package com.uepb;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.*;
+
+/**
+ * Modo de execução compilado do AnalisadorSemantico. A árvore sintática é
+ * convertida uma única vez em um grafo de closures já resolvidas: literais
+ * convertidos, operadores escolhidos e variáveis ligadas a posições de um
+ * array. O grafo pode então ser executado várias vezes sem voltar à árvore.
+ * As posições são os endereços do ResolvedorEscopos, com os escopos de bloco
+ * do P-Code.
+ *
+ * A semântica é a mesma da travessia em AnalisadorSemantico, inclusive a
+ * ordem de avaliação e as mensagens de erro.
+ */
+public class CompiladorClosures extends CompiladoresBaseVisitor<Object> {
+
+    /** Expressão compilada. */
+    @FunctionalInterface
+    public interface Expressao {
+        Object avaliar(Object[] memoria);
+    }
+
+    /** Comando compilado. */
+    @FunctionalInterface
+    public interface Comando {
+        void executar(Object[] memoria);
+    }
+
+    /** Programa compilado; cada execução usa uma memória nova e descarrega a saída ao terminar. */
+    public static final class Programa {
+        private final Comando corpo;
+        private final int variaveis;
+        private final CanalES io;
+
+        private Programa(Comando corpo, int variaveis, CanalES io) {
+            this.corpo = corpo;
+            this.variaveis = variaveis;
+            this.io = io;
+        }
+
+        public void executar() {
+            Object[] memoria = new Object[variaveis];
+            Arrays.fill(memoria, AUSENTE);
+            try {
+                corpo.executar(memoria);
+            } finally {
+                io.descarregar();
+            }
+        }
+    }
+
+    /** Variável ainda não atribuída: a leitura devolve 0, como o getOrDefault da travessia. */
+    private static final Object AUSENTE = new Object();
+
+    private final ResolvedorEscopos escopos = new ResolvedorEscopos();
+    private final CanalES io;
+
+    public CompiladorClosures(CanalES io) {
+        this.io = io;
+    }
+
+    public Programa compilar(ParseTree tree) {
+        escopos.visit(tree);
+        Comando corpo = (Comando) visit(tree);
+        return new Programa(corpo, escopos.getTamanhoMemoria(), io);
+    }
+
+    private int slot(TerminalNode id) {
+        return escopos.endereco(id);
+    }
+
+    private Expressao expr(ParseTree tree) {
+        return (Expressao) visit(tree);
+    }
+
+    private Comando comando(ParseTree tree) {
+        Object c = visit(tree);
+        return c != null ? (Comando) c : memoria -> { };
+    }
+
+    // --- Comandos ---
+
+    @Override
+    public Object visitProgram(CompiladoresParser.ProgramContext ctx) {
+        return sequencia(ctx.statement());
+    }
+
+    @Override
+    public Object visitStatement(CompiladoresParser.StatementContext ctx) {
+        if (ctx.getChildCount() == 0 || ctx.SEMICOLON() != null && ctx.getChildCount() == 1) {
+            return null;
+        }
+        return visit(ctx.getChild(0));
+    }
+
+    @Override
+    public Object visitBlock(CompiladoresParser.BlockContext ctx) {
+        return sequencia(ctx.statement());
+    }
+
+    private Comando sequencia(List<CompiladoresParser.StatementContext> statements) {
+        List<Comando> lista = new ArrayList<>();
+        for (var stmt : statements) {
+            Object c = visit(stmt);
+            if (c != null) {
+                lista.add((Comando) c);
+            }
+        }
+        Comando[] comandos = lista.toArray(new Comando[0]);
+        if (comandos.length == 1) {
+            return comandos[0];
+        }
+        return memoria -> {
+            for (Comando c : comandos) {
+                c.executar(memoria);
+            }
+        };
+    }
+
+    @Override
+    public Object visitVarDeclaration(CompiladoresParser.VarDeclarationContext ctx) {
+        int slot = slot(ctx.ID());
+        if (ctx.expr() == null) {
+            return (Comando) memoria -> memoria[slot] = null;
+        }
+        Expressao valor = expr(ctx.expr());
+        return (Comando) memoria -> memoria[slot] = valor.avaliar(memoria);
+    }
+
+    @Override
+    public Object visitAssignment(CompiladoresParser.AssignmentContext ctx) {
+        int slot = slot(ctx.ID());
+        Expressao valor = expr(ctx.expr());
+        return (Comando) memoria -> memoria[slot] = valor.avaliar(memoria);
+    }
+
+    @Override
+    public Object visitPrintStatement(CompiladoresParser.PrintStatementContext ctx) {
+        Expressao valor = expr(ctx.expr());
+        return (Comando) memoria -> io.escrever(String.valueOf(valor.avaliar(memoria)));
+    }
+
+    @Override
+    public Object visitInputStatement(CompiladoresParser.InputStatementContext ctx) {
+        String id = ctx.ID().getText();
+        int slot = slot(ctx.ID());
+        String prompt = id + ": ";
+        return (Comando) memoria -> {
+            memoria[slot] = AnalisadorSemantico.converterEntrada(io.ler(prompt));
+        };
+    }
+
+    @Override
+    public Object visitIfStatement(CompiladoresParser.IfStatementContext ctx) {
+        Expressao cond = expr(ctx.expr());
+        Comando entao = comando(ctx.statement(0));
+        if (ctx.statement().size() > 1) {
+            Comando senao = comando(ctx.statement(1));
+            return (Comando) memoria -> {
+                if (asBoolean(cond.avaliar(memoria))) {
+                    entao.executar(memoria);
+                } else {
+                    senao.executar(memoria);
+                }
+            };
+        }
+        return (Comando) memoria -> {
+            if (asBoolean(cond.avaliar(memoria))) {
+                entao.executar(memoria);
+            }
+        };
+    }
+
+    @Override
+    public Object visitWhileStatement(CompiladoresParser.WhileStatementContext ctx) {
+        Expressao cond = expr(ctx.expr());
+        Comando corpo = comando(ctx.statement());
+        return (Comando) memoria -> {
+            while (asBoolean(cond.avaliar(memoria))) {
+                corpo.executar(memoria);
+            }
+        };
+    }
+
+    // --- Expressões ---
+
+    @Override
+    public Object visitLogicalOrExpr(CompiladoresParser.LogicalOrExprContext ctx) {
+        Expressao left = expr(ctx.expr(0));
+        Expressao right = expr(ctx.expr(1));
+        return (Expressao) memoria -> asBoolean(left.avaliar(memoria)) || asBoolean(right.avaliar(memoria));
+    }
+
+    @Override
+    public Object visitLogicalAndExpr(CompiladoresParser.LogicalAndExprContext ctx) {
+        Expressao left = expr(ctx.expr(0));
+        Expressao right = expr(ctx.expr(1));
+        return (Expressao) memoria -> asBoolean(left.avaliar(memoria)) && asBoolean(right.avaliar(memoria));
+    }
+
+    @Override
+    public Object visitEqualityExpr(CompiladoresParser.EqualityExprContext ctx) {
+        Expressao left = expr(ctx.expr(0));
+        Expressao right = expr(ctx.expr(1));
+        if (ctx.op.getType() == CompiladoresParser.EQ) {
+            return (Expressao) memoria -> Objects.equals(left.avaliar(memoria), right.avaliar(memoria));
+        }
+        return (Expressao) memoria -> !Objects.equals(left.avaliar(memoria), right.avaliar(memoria));
+    }
+
+    @Override
+    public Object visitRelationalExpr(CompiladoresParser.RelationalExprContext ctx) {
+        Expressao left = expr(ctx.expr(0));
+        Expressao right = expr(ctx.expr(1));
+        if (ctx.op.getType() == CompiladoresParser.LT) {
+            return (Expressao) memoria -> {
+                Object l = left.avaliar(memoria);
+                Object r = right.avaliar(memoria);
+                return asDouble(l) < asDouble(r);
+            };
+        }
+        return (Expressao) memoria -> {
+            Object l = left.avaliar(memoria);
+            Object r = right.avaliar(memoria);
+            return asDouble(l) > asDouble(r);
+        };
+    }
+
+    @Override
+    public Object visitAdditiveExpr(CompiladoresParser.AdditiveExprContext ctx) {
+        Expressao a = expr(ctx.expr(0));
+        Expressao b = expr(ctx.expr(1));
+        if (ctx.op.getType() == CompiladoresParser.PLUS) {
+            return (Expressao) memoria -> {
+                double left = asDouble(a.avaliar(memoria));
+                return left + asDouble(b.avaliar(memoria));
+            };
+        }
+        return (Expressao) memoria -> {
+            double left = asDouble(a.avaliar(memoria));
+            return left - asDouble(b.avaliar(memoria));
+        };
+    }
+
+    @Override
+    public Object visitMultiplicativeExpr(CompiladoresParser.MultiplicativeExprContext ctx) {
+        Expressao a = expr(ctx.expr(0));
+        Expressao b = expr(ctx.expr(1));
+        if (ctx.op.getType() == CompiladoresParser.MULT) {
+            return (Expressao) memoria -> {
+                double left = asDouble(a.avaliar(memoria));
+                return left * asDouble(b.avaliar(memoria));
+            };
+        }
+        return (Expressao) memoria -> {
+            double left = asDouble(a.avaliar(memoria));
+            return left / asDouble(b.avaliar(memoria));
+        };
+    }
+
+    @Override
+    public Object visitPowerExpr(CompiladoresParser.PowerExprContext ctx) {
+        Expressao base = expr(ctx.expr(0));
+        Expressao expoente = expr(ctx.expr(1));
+        return (Expressao) memoria -> {
+            Object b = base.avaliar(memoria);
+            return Math.pow(asDouble(b), asDouble(expoente.avaliar(memoria)));
+        };
+    }
+
+    @Override
+    public Object visitUnaryExpr(CompiladoresParser.UnaryExprContext ctx) {
+        Expressao inner = expr(ctx.expr());
+        if (ctx.op.getType() == CompiladoresParser.MINUS) {
+            return (Expressao) memoria -> -asDouble(inner.avaliar(memoria));
+        }
+        if (ctx.op.getType() == CompiladoresParser.NOT) {
+            return (Expressao) memoria -> !asBoolean(inner.avaliar(memoria));
+        }
+        return inner;
+    }
+
+    @Override
+    public Object visitNumberExpr(CompiladoresParser.NumberExprContext ctx) {
+        String text = ctx.NUMBER().getText();
+        double value;
+        try {
+            // Como na travessia, o literal inteiro é promovido a double pelo operador ternário
+            value = text.contains(".") ? Double.parseDouble(text) : Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            // O erro só aparece se o literal for de fato avaliado
+            return (Expressao) memoria -> Integer.parseInt(text);
+        }
+        return constante(value);
+    }
+
+    @Override
+    public Object visitStringExpr(CompiladoresParser.StringExprContext ctx) {
+        return constante(ctx.STRING().getText().replaceAll("^\"|\"$", ""));
+    }
+
+    @Override
+    public Object visitIdExpr(CompiladoresParser.IdExprContext ctx) {
+        int slot = slot(ctx.ID());
+        return (Expressao) memoria -> {
+            Object v = memoria[slot];
+            return v == AUSENTE ? 0 : v;
+        };
+    }
+
+    @Override
+    public Object visitBooleanExpr(CompiladoresParser.BooleanExprContext ctx) {
+        return constante(ctx.TRUE() != null);
+    }
+
+    @Override
+    public Object visitParenExpr(CompiladoresParser.ParenExprContext ctx) {
+        return visit(ctx.expr());
+    }
+
+    private static Expressao constante(Object value) {
+        return memoria -> value;
+    }
+
+    private static boolean asBoolean(Object value) {
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Number) return ((Number) value).doubleValue() != 0;
+        return value != null;
+    }
+
+    private static double asDouble(Object value) {
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        throw new RuntimeException("Esperado número, encontrado: " + value);
+    }
+}
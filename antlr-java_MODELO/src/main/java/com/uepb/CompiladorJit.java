@@ -0,0 +1,885 @@
+package com.uepb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static com.uepb.ClasseJvm.*;
+import static com.uepb.ProgramaPCode.*;
+
+/**
+ * Modo JIT do PCodeMachine: o programa inteiro é traduzido para um método
+ * estático de uma classe oculta (MethodHandles.Lookup.defineHiddenClass), que
+ * o HotSpot compila como qualquer outro código Java.
+ *
+ * Cada posição da pilha e cada endereço de memória usado vira um trio de
+ * variáveis locais (valor numérico, etiqueta de tipo e referência, como no
+ * interpretador), e fjp/tjp/pip viram saltos da JVM. Uma análise prévia
+ * calcula a altura da pilha e os tipos possíveis em cada instrução, o que
+ * elimina as verificações de tipo onde elas não podem falhar.
+ *
+ * Um programa só é elegível quando a altura da pilha é conhecida em todas as
+ * instruções alcançáveis, todo "sto" recebe o endereço de um "lda", todos os
+ * endereços cabem na memória e o método gerado não passa do limite de tamanho
+ * que o HotSpot compila. Nos demais casos o interpretador é usado.
+ *
+ * Também é possível compilar só um laço (do cabeçalho até o salto de volta),
+ * para a execução em camadas: o método gerado lê da memória do interpretador
+ * as células que usa, roda o laço e, ao sair, grava de volta as células
+ * alteradas e devolve a instrução em que o interpretador deve continuar.
+ */
+final class CompiladorJit {
+    // Conjuntos de etiquetas de tipo, um bit por etiqueta
+    private static final int M_NULO = 1 << T_NULO;
+    private static final int M_INT = 1 << T_INT;
+    private static final int M_REAL = 1 << T_REAL;
+    private static final int M_TEXTO = 1 << T_TEXTO;
+    private static final int M_NUM = M_INT | M_REAL;
+
+    /** Métodos maiores que isso não são compilados pelo HotSpot (HugeMethodLimit). */
+    private static final int LIMITE_BYTECODE = 8000;
+
+    private static final String ESTA_CLASSE = "com/uepb/CompiladorJit";
+    private static final String VALOR = "IDLjava/lang/Object;";
+    private static final String CANAL = "Lcom/uepb/CanalES;";
+
+    // Variáveis locais fixas do método gerado; no modo laço, 1 a 3 são os arrays da memória
+    private static final int L_CANAL = 0;
+    private static final int L_MEM_TAGS = 1;
+    private static final int L_MEM_NUMS = 2;
+    private static final int L_MEM_REFS = 3;
+
+    /** Valor devolvido pelo laço compilado quando o programa executa "stp". */
+    static final int PARADA = -1;
+
+    /** Resultado da tentativa de compilação. */
+    static final class Resultado {
+        private final MethodHandle executar;
+        private final String motivo;
+
+        private Resultado(MethodHandle executar, String motivo) {
+            this.executar = executar;
+            this.motivo = motivo;
+        }
+
+        boolean elegivel() {
+            return executar != null;
+        }
+
+        /** Por que o programa não foi compilado; null quando foi. */
+        String motivo() {
+            return motivo;
+        }
+
+        void executar(CanalES io) {
+            try {
+                executar.invokeExact(io);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        /**
+         * Executa um laço compilado sobre a memória do interpretador. Devolve a
+         * instrução em que o interpretador continua, PARADA, ou o próprio
+         * cabeçalho quando a memória tem um tipo que o código não previu.
+         */
+        int executarLaco(CanalES io, byte[] memTags, double[] memNums, Object[] memRefs) {
+            try {
+                return (int) executar.invokeExact(io, memTags, memNums, memRefs);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    /** Erro de execução no código compilado, com a instrução P-Code em que ocorreu. */
+    static final class Falha extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int pc;
+
+        Falha(int pc, Exception causa) {
+            super(causa.getMessage(), causa);
+            this.pc = pc;
+        }
+    }
+
+    private static final class Inelegivel extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Inelegivel(String motivo) {
+            super(motivo);
+        }
+    }
+
+    private final ProgramaPCode p;
+    private final int n;
+    private final int memSize;
+    // Trecho compilado, [inicio, fim]; no programa inteiro, [0, n - 1]
+    private final int inicio;
+    private final int fim;
+    private final boolean laco;
+    private final byte[] tiposIniciais;
+
+    // Resultado da análise: altura e tipos da pilha antes de cada instrução (-1 = inalcançável)
+    private int[] altura;
+    private int[][] tipos;
+    // Endereço vindo de "lda" em cada posição da pilha, ou -1
+    private int[][] enderecos;
+    private int[] memoria;
+    private Deque<Integer> pendentes;
+
+    private CompiladorJit(ProgramaPCode p, int memSize, int inicio, int fim, byte[] tiposIniciais) {
+        this.p = p;
+        this.n = p.tamanho();
+        this.memSize = memSize;
+        this.inicio = inicio;
+        this.fim = fim;
+        this.laco = tiposIniciais != null;
+        this.tiposIniciais = tiposIniciais;
+    }
+
+    static Resultado compilar(ProgramaPCode programa, int memSize) {
+        return compilar(new CompiladorJit(programa, memSize, 0, programa.tamanho() - 1, null),
+                MethodType.methodType(void.class, CanalES.class));
+    }
+
+    /**
+     * Compila o laço [cabecalho, fim]. Os tipos atuais da memória são o ponto de
+     * partida da análise; o código gerado confere esses tipos a cada entrada.
+     */
+    static Resultado compilarLaco(ProgramaPCode programa, byte[] memTags, int cabecalho, int fim) {
+        return compilar(new CompiladorJit(programa, memTags.length, cabecalho, fim, memTags),
+                MethodType.methodType(int.class, CanalES.class, byte[].class, double[].class, Object[].class));
+    }
+
+    private static Resultado compilar(CompiladorJit jit, MethodType tipo) {
+        try {
+            jit.analisar();
+            byte[] classe = jit.gerar();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classe, true);
+            MethodHandle executar = lookup.findStatic(lookup.lookupClass(), "executar", tipo);
+            return new Resultado(executar, null);
+        } catch (Inelegivel e) {
+            return new Resultado(null, e.getMessage());
+        } catch (ReflectiveOperationException | LinkageError | IllegalStateException e) {
+            return new Resultado(null, "bytecode rejeitado: " + e);
+        }
+    }
+
+    // --- Análise ---
+
+    /**
+     * Interpretação abstrata do programa. Os tipos da memória não dependem da
+     * posição no programa; a análise se repete até que eles se estabilizem.
+     */
+    private void analisar() {
+        memoria = new int[memSize];
+        for (int i = 0; i < memSize; i++) {
+            memoria[i] = laco ? 1 << tiposIniciais[i] : M_NULO;
+        }
+        int[] anterior;
+        do {
+            anterior = memoria.clone();
+            altura = new int[n + 1];
+            Arrays.fill(altura, -1);
+            tipos = new int[n + 1][];
+            enderecos = new int[n + 1][];
+            pendentes = new ArrayDeque<>();
+            entrar(inicio, new int[0], new int[0]);
+            while (!pendentes.isEmpty()) {
+                transferir(pendentes.pop());
+            }
+        } while (!Arrays.equals(anterior, memoria));
+    }
+
+    private void entrar(int pc, int[] t, int[] e) {
+        if (pc < 0 || pc > n) {
+            throw new Inelegivel("salto para fora do programa");
+        }
+        if (pc < inicio || pc > fim) {
+            // Saída do trecho compilado; o interpretador só recebe a memória de volta
+            if (laco && t.length != 0) {
+                throw new Inelegivel("pilha não vazia na saída do laço em @" + pc);
+            }
+            altura[pc] = 0;
+            return;
+        }
+        if (altura[pc] < 0) {
+            altura[pc] = t.length;
+            tipos[pc] = t;
+            enderecos[pc] = e;
+            pendentes.push(pc);
+            return;
+        }
+        if (altura[pc] != t.length) {
+            throw new Inelegivel("altura da pilha diferente nos caminhos que chegam a '" + texto(pc) + "'");
+        }
+        boolean mudou = false;
+        for (int i = 0; i < t.length; i++) {
+            if ((tipos[pc][i] | t[i]) != tipos[pc][i]) {
+                tipos[pc][i] |= t[i];
+                mudou = true;
+            }
+            if (enderecos[pc][i] != e[i] && enderecos[pc][i] != -1) {
+                enderecos[pc][i] = -1;
+                mudou = true;
+            }
+        }
+        if (mudou) {
+            pendentes.push(pc);
+        }
+    }
+
+    private void transferir(int pc) {
+        int op = generico(p.codigo[pc]);
+        int arg = p.args[pc];
+        int s = altura[pc];
+        int[] t = tipos[pc];
+        int[] e = enderecos[pc];
+        switch (op) {
+            case LDA -> seguir(pc, t, e, 0, M_INT, arg);
+            case LDC -> seguir(pc, t, e, 0, 1 << p.tiposConst[arg], -1);
+            case LOD -> seguir(pc, t, e, 0, memoria[endereco(pc, arg)], -1);
+            case STO -> {
+                exigir(pc, 2);
+                int destino = e[s - 1];
+                if (destino < 0) {
+                    throw new Inelegivel("'sto' com endereço calculado em tempo de execução");
+                }
+                memoria[endereco(pc, destino)] |= t[s - 2];
+                seguir(pc, t, e, 2, 0, -1);
+            }
+            case STO_DIRETO -> {
+                exigir(pc, 1);
+                memoria[endereco(pc, arg)] |= t[s - 1];
+                seguir(pc, t, e, 1, 0, -1);
+            }
+            case NEG -> {
+                exigir(pc, 1);
+                seguir(pc, t, e, 1, M_REAL, -1);
+            }
+            case ADD, SUB, MUL, DIV, CALL -> {
+                exigir(pc, 2);
+                seguir(pc, t, e, 2, M_REAL, -1);
+            }
+            case EQU, NEQ, AND, OR, LET, GRT, LTE, GTE -> {
+                exigir(pc, 2);
+                seguir(pc, t, e, 2, M_INT, -1);
+            }
+            case NOT -> {
+                exigir(pc, 1);
+                seguir(pc, t, e, 1, M_INT, -1);
+            }
+            case TO -> {
+                exigir(pc, 1);
+                seguir(pc, t, e, 1, arg == TO_FLOAT ? M_REAL : M_INT, -1);
+            }
+            case WRI -> {
+                exigir(pc, 1);
+                seguir(pc, t, e, 1, 0, -1);
+            }
+            case RD -> seguir(pc, t, e, 0, M_INT | M_REAL | M_TEXTO, -1);
+            case FJP, TJP, JLT, JNLT, JGT, JNGT, JEQ, JNE -> {
+                int consome = op == FJP || op == TJP ? 1 : 2;
+                exigir(pc, consome);
+                int[] t2 = Arrays.copyOf(t, s - consome);
+                int[] e2 = Arrays.copyOf(e, s - consome);
+                entrar(arg, t2, e2);
+                entrar(pc + 1, t2.clone(), e2.clone());
+            }
+            case PIP -> entrar(arg, t.clone(), e.clone());
+            case STP -> { }
+            default -> throw new Inelegivel("instrução não suportada '" + texto(pc) + "'");
+        }
+    }
+
+    /** Desempilha "consome" posições e, se "empilha" não for 0, empilha um valor com esses tipos. */
+    private void seguir(int pc, int[] t, int[] e, int consome, int empilha, int endereco) {
+        int s = t.length - consome;
+        int novaAltura = empilha != 0 ? s + 1 : s;
+        int[] t2 = Arrays.copyOf(t, novaAltura);
+        int[] e2 = Arrays.copyOf(e, novaAltura);
+        if (empilha != 0) {
+            t2[s] = empilha;
+            e2[s] = endereco;
+        }
+        entrar(pc + 1, t2, e2);
+    }
+
+    private void exigir(int pc, int posicoes) {
+        if (altura[pc] < posicoes) {
+            throw new Inelegivel("pilha vazia em '" + texto(pc) + "'");
+        }
+    }
+
+    private int endereco(int pc, int endereco) {
+        if (endereco < 0 || endereco >= memSize) {
+            throw new Inelegivel("endereço fora da memória em '" + texto(pc) + "'");
+        }
+        return endereco;
+    }
+
+    private String texto(int pc) {
+        return pc < n ? p.texto(pc) : "fim do programa";
+    }
+
+    // --- Geração ---
+
+    private ClasseJvm.Codigo c;
+    private int[] celulas;
+    private boolean[] gravadas;
+    private int lPc;
+    private int lTempA;
+    private int lTempB;
+    private int lPilha;
+
+    private int pilhaD(int slot) {
+        return lPilha + 4 * slot;
+    }
+
+    private int celulaD(int endereco) {
+        return celulas[endereco];
+    }
+
+    private byte[] gerar() {
+        lPc = laco ? L_MEM_REFS + 1 : L_CANAL + 1;
+        lTempA = lPc + 1;
+        lTempB = lPc + 2;
+        lPilha = lPc + 3;
+        int maxAltura = 0;
+        for (int pc = inicio; pc <= fim; pc++) {
+            maxAltura = Math.max(maxAltura, altura[pc] + 1);
+        }
+        // Só os endereços usados por instruções alcançáveis ganham variáveis locais
+        celulas = new int[memSize];
+        gravadas = new boolean[memSize];
+        int proximo = lPilha + 4 * maxAltura;
+        for (int pc = inicio; pc <= fim; pc++) {
+            if (altura[pc] < 0) {
+                continue;
+            }
+            int op = generico(p.codigo[pc]);
+            int cel = op == LOD || op == STO_DIRETO ? p.args[pc]
+                    : op == STO ? enderecos[pc][altura[pc] - 1] : -1;
+            if (cel >= 0 && celulas[cel] == 0) {
+                celulas[cel] = proximo;
+                proximo += 4;
+            }
+            if (op == STO_DIRETO || op == STO) {
+                gravadas[cel] = true;
+            }
+        }
+        if (proximo > 0xffff) {
+            throw new Inelegivel("variáveis locais demais");
+        }
+
+        ClasseJvm classe = new ClasseJvm(laco ? "com/uepb/LacoJit" : "com/uepb/ProgramaJit");
+        c = classe.metodoEstatico("executar", laco
+                ? "(" + CANAL + "[B[D[Ljava/lang/Object;)I"
+                : "(" + CANAL + ")V");
+        c.maxLocais(proximo);
+
+        // Todas as variáveis começam definidas, como a memória zerada do interpretador
+        c.inteiro(-1);
+        c.local(ISTORE, lPc);
+        for (int base = lPilha; base < proximo; base += 4) {
+            c.op(DCONST_0);
+            c.local(DSTORE, base);
+            c.op(ICONST_0);
+            c.local(ISTORE, base + 2);
+            c.op(ACONST_NULL);
+            c.local(ASTORE, base + 3);
+        }
+        if (laco) {
+            carregarMemoria();
+        }
+
+        ClasseJvm.Rotulo[] rotulos = new ClasseJvm.Rotulo[n + 1];
+        for (int i = 0; i <= n; i++) {
+            rotulos[i] = new ClasseJvm.Rotulo();
+        }
+        ClasseJvm.Rotulo inicioCodigo = new ClasseJvm.Rotulo();
+        ClasseJvm.Rotulo fimCodigo = new ClasseJvm.Rotulo();
+        ClasseJvm.Rotulo tratador = new ClasseJvm.Rotulo();
+        c.marcar(inicioCodigo);
+        for (int pc = inicio; pc <= fim; pc++) {
+            c.marcar(rotulos[pc]);
+            if (altura[pc] >= 0) {
+                instrucao(pc, rotulos);
+            }
+        }
+        // Saídas do trecho: fim do programa ou, no modo laço, volta ao interpretador
+        for (int pc = 0; pc <= n; pc++) {
+            if ((pc < inicio || pc > fim) && altura[pc] >= 0) {
+                c.marcar(rotulos[pc]);
+                if (laco) {
+                    gravarMemoria();
+                    c.inteiro(pc);
+                    c.op(IRETURN);
+                } else {
+                    c.op(RETURN);
+                }
+            }
+        }
+        c.marcar(fimCodigo);
+
+        // Qualquer exceção vira uma Falha com a posição da última instrução que podia falhar
+        c.marcar(tratador);
+        c.local(ILOAD, lPc);
+        c.invocarEstatico(ESTA_CLASSE, "falha", "(Ljava/lang/Exception;I)Ljava/lang/RuntimeException;");
+        c.op(ATHROW);
+        c.tratador(inicioCodigo, fimCodigo, tratador, "java/lang/Exception");
+        c.concluir();
+
+        if (c.tamanho() > LIMITE_BYTECODE) {
+            throw new Inelegivel("programa grande demais para o JIT (" + c.tamanho() + " bytes de bytecode)");
+        }
+        return classe.bytes();
+    }
+
+    private void instrucao(int pc, ClasseJvm.Rotulo[] rotulos) {
+        int op = generico(p.codigo[pc]);
+        int arg = p.args[pc];
+        int s = altura[pc];
+        int[] t = tipos[pc];
+        int topo = s - 1;
+        switch (op) {
+            case LDA -> definir(s, arg, T_INT);
+            case LDC -> {
+                definir(s, p.numConst[arg], p.tiposConst[arg]);
+                if (p.tiposConst[arg] == T_TEXTO) {
+                    c.string((String) p.constantes[arg]);
+                    c.local(ASTORE, pilhaD(s) + 3);
+                }
+            }
+            case LOD -> copiar(celulaD(arg), pilhaD(s), memoria[arg]);
+            case STO -> copiar(pilhaD(topo - 1), celulaD(enderecos[pc][topo]), t[topo - 1]);
+            case STO_DIRETO -> copiar(pilhaD(topo), celulaD(arg), t[topo]);
+            case NEG -> {
+                numerico(pc, topo, t[topo]);
+                c.local(DLOAD, pilhaD(topo));
+                c.real(-1);
+                c.op(DMUL);
+                real(topo);
+            }
+            case ADD, SUB, MUL, DIV, CALL -> {
+                // Mesma ordem do interpretador: o operando da direita é verificado primeiro
+                numerico(pc, topo, t[topo]);
+                numerico(pc, topo - 1, t[topo - 1]);
+                c.local(DLOAD, pilhaD(topo - 1));
+                c.local(DLOAD, pilhaD(topo));
+                switch (op) {
+                    case ADD -> c.op(DADD);
+                    case SUB -> c.op(DSUB);
+                    case MUL -> c.op(DMUL);
+                    case DIV -> c.op(DDIV);
+                    default -> c.invocarEstatico("java/lang/Math", "pow", "(DD)D");
+                }
+                real(topo - 1);
+            }
+            case LET, GRT, LTE, GTE -> {
+                numerico(pc, topo, t[topo]);
+                numerico(pc, topo - 1, t[topo - 1]);
+                c.local(DLOAD, pilhaD(topo - 1));
+                c.local(DLOAD, pilhaD(topo));
+                // dcmpg/dcmpl escolhidos para que NaN dê falso, como em Java
+                ClasseJvm.Rotulo falso = new ClasseJvm.Rotulo();
+                switch (op) {
+                    case LET -> { c.op(DCMPG); c.salto(IFGE, falso); }
+                    case GRT -> { c.op(DCMPL); c.salto(IFLE, falso); }
+                    case LTE -> { c.op(DCMPG); c.salto(IFGT, falso); }
+                    default -> { c.op(DCMPL); c.salto(IFLT, falso); }
+                }
+                logicoComSalto(falso, topo - 1);
+            }
+            case EQU, NEQ -> {
+                int esq = topo - 1;
+                ClasseJvm.Rotulo diferentes = new ClasseJvm.Rotulo();
+                igualdade(pc, esq, topo, t, diferentes);
+                if (op == EQU) {
+                    logicoComSalto(diferentes, esq);
+                } else {
+                    ClasseJvm.Rotulo fimNeq = new ClasseJvm.Rotulo();
+                    c.op(ICONST_0);
+                    c.salto(GOTO, fimNeq);
+                    c.marcar(diferentes);
+                    c.op(ICONST_1);
+                    c.marcar(fimNeq);
+                    inteiro(esq);
+                }
+            }
+            case AND, OR -> {
+                logico(pc, topo, t[topo]);
+                c.local(ISTORE, lTempB);
+                logico(pc, topo - 1, t[topo - 1]);
+                c.local(ISTORE, lTempA);
+                ClasseJvm.Rotulo curto = new ClasseJvm.Rotulo();
+                ClasseJvm.Rotulo fimOp = new ClasseJvm.Rotulo();
+                int salto = op == AND ? IFEQ : IFNE;
+                c.local(ILOAD, lTempA);
+                c.salto(salto, curto);
+                c.local(ILOAD, lTempB);
+                c.salto(salto, curto);
+                c.op(op == AND ? ICONST_1 : ICONST_0);
+                c.salto(GOTO, fimOp);
+                c.marcar(curto);
+                c.op(op == AND ? ICONST_0 : ICONST_1);
+                c.marcar(fimOp);
+                inteiro(topo - 1);
+            }
+            case NOT -> {
+                if ((t[topo] & M_NULO) != 0) {
+                    definirPc(pc);
+                    c.local(ILOAD, pilhaD(topo) + 2);
+                    c.local(DLOAD, pilhaD(topo));
+                    c.invocarEstatico(ESTA_CLASSE, "nao", "(ID)I");
+                    inteiro(topo);
+                } else {
+                    // Só o inteiro 0 vira verdadeiro
+                    ClasseJvm.Rotulo falso = new ClasseJvm.Rotulo();
+                    c.local(ILOAD, pilhaD(topo) + 2);
+                    c.inteiro(T_INT);
+                    c.salto(IF_ICMPNE, falso);
+                    c.local(DLOAD, pilhaD(topo));
+                    c.op(DCONST_0);
+                    c.op(DCMPL);
+                    c.salto(IFNE, falso);
+                    logicoComSalto(falso, topo);
+                }
+            }
+            case TO -> {
+                if ((t[topo] & ~M_NUM) != 0) {
+                    definirPc(pc);
+                }
+                carregar(topo);
+                c.inteiro(arg);
+                c.invocarEstatico(ESTA_CLASSE, "converterTipo", "(" + VALOR + "I)I");
+                c.local(ISTORE, lTempA);
+                c.local(ILOAD, pilhaD(topo) + 2);
+                c.local(DLOAD, pilhaD(topo));
+                c.inteiro(arg);
+                c.invocarEstatico(ESTA_CLASSE, "converterValor", "(IDI)D");
+                c.local(DSTORE, pilhaD(topo));
+                c.local(ILOAD, lTempA);
+                c.local(ISTORE, pilhaD(topo) + 2);
+            }
+            case WRI -> {
+                carregar(topo);
+                c.local(ALOAD, L_CANAL);
+                c.invocarEstatico(ESTA_CLASSE, "escrever", "(" + VALOR + CANAL + ")V");
+            }
+            case RD -> {
+                definirPc(pc);
+                int base = pilhaD(s);
+                c.local(ALOAD, L_CANAL);
+                c.invocarEstatico(ESTA_CLASSE, "ler", "(" + CANAL + ")Ljava/lang/Object;");
+                c.local(ASTORE, base + 3);
+                c.local(ALOAD, base + 3);
+                c.invocarEstatico(ESTA_CLASSE, "tipo", "(Ljava/lang/Object;)I");
+                c.local(ISTORE, base + 2);
+                c.local(ALOAD, base + 3);
+                c.invocarEstatico(ESTA_CLASSE, "numeroDe", "(Ljava/lang/Object;)D");
+                c.local(DSTORE, base);
+            }
+            case FJP, TJP -> {
+                logico(pc, topo, t[topo]);
+                c.salto(op == FJP ? IFEQ : IFNE, rotulos[arg]);
+            }
+            case JLT, JNLT, JGT, JNGT -> {
+                numerico(pc, topo, t[topo]);
+                numerico(pc, topo - 1, t[topo - 1]);
+                c.local(DLOAD, pilhaD(topo - 1));
+                c.local(DLOAD, pilhaD(topo));
+                // Com NaN a comparação é falsa: jlt e jgt seguem adiante, jnlt e jngt saltam
+                switch (op) {
+                    case JLT -> { c.op(DCMPG); c.salto(IFLT, rotulos[arg]); }
+                    case JNLT -> { c.op(DCMPG); c.salto(IFGE, rotulos[arg]); }
+                    case JGT -> { c.op(DCMPL); c.salto(IFGT, rotulos[arg]); }
+                    default -> { c.op(DCMPL); c.salto(IFLE, rotulos[arg]); }
+                }
+            }
+            case JEQ -> {
+                ClasseJvm.Rotulo diferentes = new ClasseJvm.Rotulo();
+                igualdade(pc, topo - 1, topo, t, diferentes);
+                c.salto(GOTO, rotulos[arg]);
+                c.marcar(diferentes);
+            }
+            case JNE -> igualdade(pc, topo - 1, topo, t, rotulos[arg]);
+            case PIP -> c.salto(GOTO, rotulos[arg]);
+            case STP -> {
+                if (laco) {
+                    c.inteiro(PARADA);
+                    c.op(IRETURN);
+                } else {
+                    c.op(RETURN);
+                }
+            }
+            default -> throw new Inelegivel("instrução não suportada '" + texto(pc) + "'");
+        }
+    }
+
+    /** Compara as posições com a semântica do equ: segue adiante se forem iguais, senão salta para "diferentes". */
+    private void igualdade(int pc, int esq, int dir, int[] t, ClasseJvm.Rotulo diferentes) {
+        if (((t[esq] | t[dir]) & ~M_INT) == 0) {
+            c.local(DLOAD, pilhaD(esq));
+            c.local(DLOAD, pilhaD(dir));
+            c.op(DCMPL);
+            c.salto(IFNE, diferentes);
+        } else if (t[esq] == M_REAL && t[dir] == M_REAL) {
+            // Mesma semântica de Double.equals
+            c.local(DLOAD, pilhaD(esq));
+            c.invocarEstatico("java/lang/Double", "doubleToLongBits", "(D)J");
+            c.local(DLOAD, pilhaD(dir));
+            c.invocarEstatico("java/lang/Double", "doubleToLongBits", "(D)J");
+            c.op(LCMP);
+            c.salto(IFNE, diferentes);
+        } else {
+            if ((t[esq] & M_NULO) != 0) {
+                definirPc(pc);
+            }
+            carregar(esq);
+            carregar(dir);
+            c.invocarEstatico(ESTA_CLASSE, "iguais", "(" + VALOR + VALOR + ")Z");
+            c.salto(IFEQ, diferentes);
+        }
+    }
+
+    private void definirPc(int pc) {
+        c.inteiro(pc);
+        c.local(ISTORE, lPc);
+    }
+
+    /**
+     * Entrada do laço: lê as células usadas e confere se o tipo de cada uma é
+     * um dos previstos na compilação; se não for, devolve o cabeçalho sem
+     * executar nada e o interpretador segue com o laço.
+     */
+    private void carregarMemoria() {
+        ClasseJvm.Rotulo desotimizar = new ClasseJvm.Rotulo();
+        ClasseJvm.Rotulo entrada = new ClasseJvm.Rotulo();
+        for (int cel = 0; cel < memSize; cel++) {
+            if (celulas[cel] == 0) {
+                continue;
+            }
+            int base = celulas[cel];
+            c.local(ALOAD, L_MEM_TAGS);
+            c.inteiro(cel);
+            c.op(BALOAD);
+            c.local(ISTORE, base + 2);
+            c.op(ICONST_1);
+            c.local(ILOAD, base + 2);
+            c.op(ISHL);
+            c.inteiro(memoria[cel]);
+            c.op(IAND);
+            c.salto(IFEQ, desotimizar);
+            c.local(ALOAD, L_MEM_NUMS);
+            c.inteiro(cel);
+            c.op(DALOAD);
+            c.local(DSTORE, base);
+            c.local(ALOAD, L_MEM_REFS);
+            c.inteiro(cel);
+            c.op(AALOAD);
+            c.local(ASTORE, base + 3);
+        }
+        c.salto(GOTO, entrada);
+        c.marcar(desotimizar);
+        c.inteiro(inicio);
+        c.op(IRETURN);
+        c.marcar(entrada);
+    }
+
+    /** Saída do laço: grava na memória do interpretador as células alteradas. */
+    private void gravarMemoria() {
+        for (int cel = 0; cel < memSize; cel++) {
+            if (!gravadas[cel]) {
+                continue;
+            }
+            int base = celulas[cel];
+            c.local(ALOAD, L_MEM_TAGS);
+            c.inteiro(cel);
+            c.local(ILOAD, base + 2);
+            c.op(I2B);
+            c.op(BASTORE);
+            c.local(ALOAD, L_MEM_NUMS);
+            c.inteiro(cel);
+            c.local(DLOAD, base);
+            c.op(DASTORE);
+            c.local(ALOAD, L_MEM_REFS);
+            c.inteiro(cel);
+            c.local(ALOAD, base + 3);
+            c.op(AASTORE);
+        }
+    }
+
+    private void definir(int slot, double valor, int tipo) {
+        c.real(valor);
+        c.local(DSTORE, pilhaD(slot));
+        c.inteiro(tipo);
+        c.local(ISTORE, pilhaD(slot) + 2);
+    }
+
+    private void copiar(int origem, int destino, int tiposOrigem) {
+        c.local(DLOAD, origem);
+        c.local(DSTORE, destino);
+        c.local(ILOAD, origem + 2);
+        c.local(ISTORE, destino + 2);
+        if ((tiposOrigem & M_TEXTO) != 0) {
+            c.local(ALOAD, origem + 3);
+            c.local(ASTORE, destino + 3);
+        }
+    }
+
+    private void carregar(int slot) {
+        c.local(ILOAD, pilhaD(slot) + 2);
+        c.local(DLOAD, pilhaD(slot));
+        c.local(ALOAD, pilhaD(slot) + 3);
+    }
+
+    /** Garante que a posição é numérica; o valor verificado fica no próprio lugar. */
+    private void numerico(int pc, int slot, int tiposSlot) {
+        if ((tiposSlot & ~M_NUM) != 0) {
+            definirPc(pc);
+            carregar(slot);
+            c.invocarEstatico(ESTA_CLASSE, "numero", "(" + VALOR + ")D");
+            c.local(DSTORE, pilhaD(slot));
+        }
+    }
+
+    /** Deixa na pilha da JVM um int que é zero exatamente quando o fjp saltaria. */
+    private void logico(int pc, int slot, int tiposSlot) {
+        if ((tiposSlot & ~M_NUM) != 0) {
+            definirPc(pc);
+            carregar(slot);
+            c.invocarEstatico(ESTA_CLASSE, "logico", "(" + VALOR + ")I");
+        } else {
+            c.local(DLOAD, pilhaD(slot));
+            c.op(D2I);
+        }
+    }
+
+    /** Grava 1 na posição se o fluxo chegar aqui, ou 0 se vier do salto para "falso". */
+    private void logicoComSalto(ClasseJvm.Rotulo falso, int slot) {
+        ClasseJvm.Rotulo fimOp = new ClasseJvm.Rotulo();
+        c.op(ICONST_1);
+        c.salto(GOTO, fimOp);
+        c.marcar(falso);
+        c.op(ICONST_0);
+        c.marcar(fimOp);
+        inteiro(slot);
+    }
+
+    /** Grava o int do topo da pilha da JVM como valor inteiro na posição. */
+    private void inteiro(int slot) {
+        c.op(I2D);
+        c.local(DSTORE, pilhaD(slot));
+        c.inteiro(T_INT);
+        c.local(ISTORE, pilhaD(slot) + 2);
+    }
+
+    /** Grava o double do topo da pilha da JVM como valor real na posição. */
+    private void real(int slot) {
+        c.local(DSTORE, pilhaD(slot));
+        c.inteiro(T_REAL);
+        c.local(ISTORE, pilhaD(slot) + 2);
+    }
+
+    // --- Rotinas chamadas pelo código gerado; mesma semântica do PCodeMachine ---
+
+    static Object valor(int tipo, double num, Object ref) {
+        switch (tipo) {
+            case T_INT: return (int) num;
+            case T_REAL: return num;
+            case T_TEXTO: return ref;
+            default: return null;
+        }
+    }
+
+    static double numero(int tipo, double num, Object ref) {
+        if (tipo == T_INT || tipo == T_REAL) {
+            return num;
+        }
+        throw new RuntimeException("Valor não numérico: " + valor(tipo, num, ref));
+    }
+
+    static int logico(int tipo, double num, Object ref) {
+        if (tipo == T_INT || tipo == T_REAL) {
+            return (int) num != 0 ? 1 : 0;
+        }
+        throw new RuntimeException("Valor não booleano: " + valor(tipo, num, ref));
+    }
+
+    static boolean iguais(int tipoEsq, double numEsq, Object refEsq, int tipoDir, double numDir, Object refDir) {
+        if (tipoEsq == T_NULO) {
+            throw PCodeMachine.nullEquals();
+        }
+        if (tipoEsq != tipoDir) {
+            return false;
+        }
+        switch (tipoEsq) {
+            case T_INT: return numEsq == numDir;
+            case T_REAL: return Double.doubleToLongBits(numEsq) == Double.doubleToLongBits(numDir);
+            default: return refEsq.equals(refDir);
+        }
+    }
+
+    static int nao(int tipo, double num) {
+        if (tipo == T_NULO) {
+            throw PCodeMachine.nullEquals();
+        }
+        return tipo == T_INT && num == 0 ? 1 : 0;
+    }
+
+    static void escrever(int tipo, double num, Object ref, CanalES io) {
+        if (tipo == T_INT && (num == 0 || num == 1)) {
+            io.escrever(num == 1 ? "true" : "false");
+        } else {
+            io.escrever(String.valueOf(valor(tipo, num, ref)));
+        }
+    }
+
+    static Object ler(CanalES io) {
+        return ProgramaPCode.parseValue(io.ler("Input: "));
+    }
+
+    static int tipo(Object valor) {
+        return tipoDe(valor);
+    }
+
+    static double numeroDe(Object valor) {
+        return valor instanceof Number ? ((Number) valor).doubleValue() : 0;
+    }
+
+    static int converterTipo(int tipo, double num, Object ref, int alvo) {
+        if (tipo == T_INT || tipo == T_REAL) {
+            switch (alvo) {
+                case TO_INT:
+                case TO_BOOL:
+                    return T_INT;
+                case TO_FLOAT:
+                    return T_REAL;
+            }
+        }
+        throw new RuntimeException("Não é possível converter " + valor(tipo, num, ref) + " para " + PCodeMachine.TIPOS[alvo]);
+    }
+
+    static double converterValor(int tipo, double num, int alvo) {
+        switch (alvo) {
+            case TO_INT: return tipo == T_REAL ? (int) num : num;
+            case TO_BOOL: return (int) num != 0 ? 1 : 0;
+            default: return num;
+        }
+    }
+
+    static RuntimeException falha(Exception causa, int pc) {
+        return new Falha(pc, causa);
+    }
+}
@@ -0,0 +1,275 @@
+package com.uepb;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Compilação em lote: vários arquivos .lang compilados em paralelo numa única
+ * JVM, cada um gerando a sua saída. Os lexers e parsers gerados pelo ANTLR
+ * compartilham entre instâncias os DFAs e o cache de contextos da ATN, de modo
+ * que o aquecimento feito por um arquivo aproveita aos seguintes, em qualquer
+ * thread.
+ *
+ * As entradas são ordenadas antes da compilação e o relatório segue essa
+ * ordem; o conteúdo das saídas não depende da quantidade de threads.
+ */
+public final class CompiladorLote {
+    private static final PathMatcher FONTES = FileSystems.getDefault().getPathMatcher("glob:**.lang");
+
+    private final int threads;
+    private final Path outdir;
+    private final boolean binary;
+    private final boolean optimize;
+    private final String peepholeRules;
+    private final CacheCompilacao cache;
+
+    /** Arquivo a compilar e o caminho da saída relativo ao diretório de saída. */
+    record Entrada(Path fonte, Path relativo) {
+    }
+
+    /** Resultado de um arquivo; erro é null quando a compilação deu certo. */
+    record Resultado(Path fonte, Path saida, int instrucoes, long nanosAnalise, long nanosGeracao,
+                     boolean cache, String erro) {
+        boolean ok() {
+            return erro == null;
+        }
+    }
+
+    CompiladorLote(int threads, Path outdir, boolean binary, boolean optimize, String peepholeRules,
+                   CacheCompilacao cache) {
+        this.threads = threads;
+        this.outdir = outdir;
+        this.binary = binary;
+        this.optimize = optimize;
+        this.peepholeRules = peepholeRules;
+        this.cache = cache;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> padroes = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path outdir = null;
+        boolean binary = false;
+        boolean optimize = true;
+        String peepholeRules = null;
+        Path relatorio = null;
+        Path cacheDir = null;
+        long cacheMax = CacheCompilacao.LIMITE_PADRAO;
+
+        for (String arg : args) {
+            if (arg.startsWith("-threads=")) {
+                threads = Integer.parseInt(arg.substring("-threads=".length()));
+            } else if (arg.startsWith("-outdir=")) {
+                outdir = Paths.get(arg.substring("-outdir=".length()));
+            } else if (arg.equals("-binary")) {
+                binary = true;
+            } else if (arg.equals("-noopt")) {
+                optimize = false;
+            } else if (arg.startsWith("-peephole=")) {
+                peepholeRules = arg.substring("-peephole=".length());
+            } else if (arg.startsWith("-relatorio=")) {
+                relatorio = Paths.get(arg.substring("-relatorio=".length()));
+            } else if (arg.equals("-cache")) {
+                cacheDir = CacheCompilacao.diretorioPadrao();
+            } else if (arg.startsWith("-cache=")) {
+                cacheDir = Paths.get(arg.substring("-cache=".length()));
+            } else if (arg.startsWith("-cachemax=")) {
+                cacheMax = Long.parseLong(arg.substring("-cachemax=".length())) * 1024 * 1024;
+            } else {
+                padroes.add(arg);
+            }
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Quantidade de threads inválida: " + threads);
+        }
+
+        List<Entrada> entradas = expandir(padroes);
+        CacheCompilacao cache = cacheDir != null ? new CacheCompilacao(cacheDir, cacheMax) : null;
+        CompiladorLote lote = new CompiladorLote(threads, outdir, binary, optimize, peepholeRules, cache);
+        long inicio = System.nanoTime();
+        List<Resultado> resultados = lote.compilar(entradas);
+        long parede = System.nanoTime() - inicio;
+
+        imprimir(resultados, System.out);
+        if (relatorio != null) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(relatorio), false, "UTF-8")) {
+                imprimir(resultados, out);
+            }
+        }
+        long falhas = resultados.stream().filter(r -> !r.ok()).count();
+        long soma = resultados.stream().mapToLong(r -> r.nanosAnalise() + r.nanosGeracao()).sum();
+        System.out.printf(Locale.ROOT,
+                "Lote: %d arquivos, %d compilados, %d com erro; %.1f ms de compilação somados, %.1f ms de parede com %d threads%n",
+                resultados.size(), resultados.size() - falhas, falhas, soma / 1e6, parede / 1e6, threads);
+        if (cache != null) {
+            int acertos = cache.getAcertos();
+            int faltas = cache.getFalhas();
+            long[] totais = cache.registrarEstatisticas();
+            System.out.println("Cache: " + acertos + " acertos e " + faltas + " falhas; total de "
+                    + totais[0] + " acertos e " + totais[1] + " falhas.");
+        }
+        if (falhas > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Expande os argumentos em arquivos: diretórios são percorridos em busca
+     * de .lang, argumentos com *, ?, [ ou { são globs relativos ao trecho
+     * inicial sem curingas e os demais são arquivos.
+     */
+    static List<Entrada> expandir(List<String> padroes) throws IOException {
+        List<Entrada> entradas = new ArrayList<>();
+        for (String padrao : padroes) {
+            int curinga = indiceCuringa(padrao);
+            if (curinga >= 0) {
+                int barra = padrao.lastIndexOf('/', curinga);
+                Path base = Paths.get(barra < 0 ? "." : barra == 0 ? "/" : padrao.substring(0, barra));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + padrao.substring(barra + 1));
+                percorrer(base, p -> matcher.matches(base.relativize(p)), entradas);
+            } else {
+                Path caminho = Paths.get(padrao);
+                if (Files.isDirectory(caminho)) {
+                    percorrer(caminho, FONTES::matches, entradas);
+                } else if (Files.isRegularFile(caminho)) {
+                    entradas.add(new Entrada(caminho, caminho.getFileName()));
+                } else {
+                    throw new NoSuchFileException(padrao);
+                }
+            }
+        }
+        entradas.sort(Comparator.comparing((Entrada e) -> e.relativo().toString())
+                .thenComparing(e -> e.fonte().toString()));
+        return entradas;
+    }
+
+    private static int indiceCuringa(String padrao) {
+        for (int i = 0; i < padrao.length(); i++) {
+            if ("*?[{".indexOf(padrao.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void percorrer(Path base, Predicate<Path> filtro, List<Entrada> entradas)
+            throws IOException {
+        try (Stream<Path> arquivos = Files.walk(base)) {
+            arquivos.filter(Files::isRegularFile)
+                    .filter(filtro)
+                    .forEach(p -> entradas.add(new Entrada(p, base.relativize(p))));
+        }
+    }
+
+    /** Compila as entradas em paralelo; os resultados ficam na ordem das entradas. */
+    List<Resultado> compilar(List<Entrada> entradas) throws InterruptedException {
+        // Duas entradas com a mesma saída: só a primeira, na ordem das entradas, é compilada
+        Set<Path> saidas = new HashSet<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Resultado>> futuros = new ArrayList<>();
+            for (Entrada entrada : entradas) {
+                Path saida = saida(entrada);
+                if (!saidas.add(saida.toAbsolutePath().normalize())) {
+                    futuros.add(CompletableFuture.completedFuture(new Resultado(entrada.fonte(), saida, 0, 0, 0, false,
+                            "saída repetida: " + saida)));
+                } else {
+                    futuros.add(pool.submit(() -> compilar(entrada.fonte(), saida)));
+                }
+            }
+            List<Resultado> resultados = new ArrayList<>();
+            for (Future<Resultado> futuro : futuros) {
+                try {
+                    resultados.add(futuro.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return resultados;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Path saida(Entrada entrada) {
+        String nome = entrada.relativo().toString();
+        int ponto = nome.lastIndexOf('.');
+        if (ponto > nome.lastIndexOf('/')) {
+            nome = nome.substring(0, ponto);
+        }
+        nome += binary ? ".pbin" : ".pcode";
+        if (outdir != null) {
+            return outdir.resolve(nome);
+        }
+        Path pasta = entrada.fonte().getParent();
+        Path arquivo = Paths.get(nome).getFileName();
+        return pasta != null ? pasta.resolve(arquivo) : arquivo;
+    }
+
+    private Resultado compilar(Path fonte, Path saida) {
+        long inicio = System.nanoTime();
+        long fimAnalise = inicio;
+        try {
+            String codigo = Files.readString(fonte);
+            String chave = cache != null ? CacheCompilacao.chave(codigo, optimize, peepholeRules) : null;
+            Main.Geracao geracao = cache != null ? cache.buscar(chave, false).orElse(null) : null;
+            boolean acerto = geracao != null;
+            if (geracao == null) {
+                List<String> erros = new ArrayList<>();
+                BaseErrorListener ouvinte = new BaseErrorListener() {
+                    @Override
+                    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                            int charPositionInLine, String msg, RecognitionException e) {
+                        erros.add("linha " + line + ":" + charPositionInLine + " " + msg);
+                    }
+                };
+                ParseTree tree = Main.analisar(codigo, ouvinte);
+                fimAnalise = System.nanoTime();
+                if (!erros.isEmpty()) {
+                    return new Resultado(fonte, saida, 0, fimAnalise - inicio, 0, false,
+                            erros.size() + " erro(s) de sintaxe; " + erros.get(0));
+                }
+                geracao = Main.gerar(tree, optimize, peepholeRules, false);
+                if (cache != null) {
+                    cache.gravar(chave, geracao);
+                }
+            } else {
+                fimAnalise = System.nanoTime();
+            }
+
+            List<String> pcode = geracao.pcode();
+            if (saida.getParent() != null) {
+                Files.createDirectories(saida.getParent());
+            }
+            if (binary) {
+                PCodeBinario.escrever(ProgramaPCode.decodificar(pcode), saida);
+            } else {
+                Files.write(saida, pcode);
+            }
+            return new Resultado(fonte, saida, Main.countInstructions(pcode), fimAnalise - inicio,
+                    System.nanoTime() - fimAnalise, acerto, null);
+        } catch (IOException | RuntimeException e) {
+            String mensagem = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            long agora = System.nanoTime();
+            return new Resultado(fonte, saida, 0, fimAnalise - inicio, agora - fimAnalise, false, mensagem);
+        }
+    }
+
+    /** Uma linha por arquivo, separada por tabulações, na ordem das entradas. */
+    static void imprimir(List<Resultado> resultados, PrintStream out) {
+        out.println("arquivo\tsaida\tstatus\tinstrucoes\tanalise_ms\tgeracao_ms\tdetalhe");
+        for (Resultado r : resultados) {
+            out.printf(Locale.ROOT, "%s\t%s\t%s\t%d\t%.2f\t%.2f\t%s%n", r.fonte(), r.saida(),
+                    r.ok() ? (r.cache() ? "cache" : "ok") : "erro", r.instrucoes(),
+                    r.nanosAnalise() / 1e6, r.nanosGeracao() / 1e6, r.ok() ? "" : r.erro());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.uepb;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.IntervalSet;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Compilação em streaming, com memória constante: o código-fonte é lido em
+ * blocos, os tokens não ficam guardados e cada comando de nível superior é
+ * analisado, gerado, escrito na saída e descartado antes do próximo. Só a
+ * tabela de símbolos, os valores conhecidos pelo propagador de constantes e
+ * os tipos inferidos das variáveis crescem, com o número de variáveis.
+ *
+ * O P-Code tem o mesmo comportamento do gerado pelo Main, mas não é idêntico:
+ * os endereços de escopos aninhados não são reaproveitados entre comandos e
+ * o peephole vê um comando por vez. Só há saída em texto, já que o formato
+ * binário precisa do programa inteiro. O cabeçalho com a memória e a altura
+ * da pilha só é conhecido no fim e vai depois do "stp".
+ */
+public final class CompiladorStreaming {
+    static final int TAMANHO_BLOCO = 64 * 1024;
+    private static final int TAMANHO_BUFFER_TOKENS = 256;
+
+    /** Estatísticas mostradas pelo Main ao final da compilação. */
+    record Resumo(int comandos, int instrucoes, int memoria, int variaveis) {
+    }
+
+    private CompiladorStreaming() {
+    }
+
+    public static Resumo compilar(Path fonte, Path saida, boolean optimize, String peepholeRules)
+            throws IOException {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(fonte), StandardCharsets.UTF_8), TAMANHO_BLOCO);
+             BufferedWriter out = new BufferedWriter(
+                     new OutputStreamWriter(Files.newOutputStream(saida), StandardCharsets.UTF_8), TAMANHO_BLOCO)) {
+            CompiladoresLexer lexer = new CompiladoresLexer(new UnbufferedCharStream(in, TAMANHO_BLOCO));
+            // Sem o texto no token, ele se perderia junto com o trecho já descartado da entrada
+            lexer.setTokenFactory(new CommonTokenFactory(true));
+            UnbufferedTokenStream<Token> tokens = new UnbufferedTokenStream<>(lexer, TAMANHO_BUFFER_TOKENS);
+            CompiladoresParser parser = new CompiladoresParser(tokens);
+            IntervalSet inicioComando = parser.getATN().nextTokens(
+                    parser.getATN().ruleToStartState[CompiladoresParser.RULE_statement]);
+            IntervalSet esperados = new IntervalSet(inicioComando);
+            esperados.add(Token.EOF);
+            BailErrorStrategy desistencia = new BailErrorStrategy();
+            DefaultErrorStrategy recuperacao = new DefaultErrorStrategy();
+
+            ResolvedorEscopos escopos = ResolvedorEscopos.incremental();
+            PropagadorConstantes propagador = optimize ? new PropagadorConstantes(escopos) : null;
+            InferidorTipos tipos = optimize ? new InferidorTipos(escopos) : null;
+            GeradorPCode gerador = new GeradorPCode(propagador, escopos, tipos);
+            OtimizadorPeephole peephole = !optimize ? null
+                    : peepholeRules != null ? OtimizadorPeephole.comRegras(peepholeRules) : new OtimizadorPeephole();
+
+            int comandos = 0;
+            int instrucoes = 0;
+            // Cada comando começa e termina com a pilha vazia: a altura máxima é a do pior comando
+            int pilha = 0;
+            while (tokens.LA(1) != Token.EOF) {
+                if (!inicioComando.contains(tokens.LA(1))) {
+                    // Mesma recuperação do "statement*" da regra program: o token é descartado
+                    Token t = tokens.LT(1);
+                    parser.notifyErrorListeners(t, "extraneous input '" + t.getText() + "' expecting "
+                            + esperados.toString(parser.getVocabulary()), null);
+                    tokens.consume();
+                    continue;
+                }
+                int antes = tokens.index();
+                CompiladoresParser.StatementContext comando = analisar(parser, tokens, desistencia, recuperacao);
+                if (tokens.index() == antes) {
+                    // A recuperação de erros não avançou: o token é descartado para não repetir o erro
+                    tokens.consume();
+                }
+                escopos.resolverComando(comando);
+                if (propagador != null) {
+                    propagador.analisarComando(comando);
+                    tipos.analisarComando(comando);
+                }
+                gerador.visit(comando);
+                List<String> codigo = gerador.retirarPCode();
+                if (peephole != null) {
+                    codigo = peephole.otimizar(codigo);
+                }
+                instrucoes += escrever(out, codigo);
+                int altura = pilha < 0 ? -1 : ProgramaPCode.decodificar(codigo).alturaMaxima();
+                pilha = altura < 0 ? -1 : Math.max(pilha, altura);
+                comandos++;
+            }
+            instrucoes += escrever(out, List.of("stp"));
+            escrever(out, List.of(".memoria " + escopos.getTamanhoMemoria()));
+            if (pilha >= 0) {
+                escrever(out, List.of(".pilha " + pilha));
+            }
+            return new Resumo(comandos, instrucoes, escopos.getTamanhoMemoria(), escopos.getVariaveis());
+        }
+    }
+
+    /**
+     * Analisa um comando em dois estágios, como Main.analisar: SLL desistindo
+     * no primeiro erro e, se falhar, LL com a recuperação padrão. A marca
+     * mantém no buffer os tokens do comando para a segunda tentativa.
+     */
+    private static CompiladoresParser.StatementContext analisar(CompiladoresParser parser,
+                                                                UnbufferedTokenStream<Token> tokens,
+                                                                BailErrorStrategy desistencia,
+                                                                DefaultErrorStrategy recuperacao) {
+        List<? extends ANTLRErrorListener> ouvintes = List.copyOf(parser.getErrorListeners());
+        int marca = tokens.mark();
+        int inicio = tokens.index();
+        try {
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            parser.removeErrorListeners();
+            parser.addErrorListener(Main.DESISTENCIA);
+            parser.setErrorHandler(desistencia);
+            try {
+                return parser.statement();
+            } catch (ParseCancellationException e) {
+                tokens.seek(inicio);
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                parser.removeErrorListeners();
+                ouvintes.forEach(parser::addErrorListener);
+                parser.setErrorHandler(recuperacao);
+                return parser.statement();
+            }
+        } finally {
+            parser.removeErrorListeners();
+            ouvintes.forEach(parser::addErrorListener);
+            tokens.release(marca);
+        }
+    }
+
+    private static int escrever(BufferedWriter out, List<String> codigo) throws IOException {
+        int instrucoes = 0;
+        for (String linha : codigo) {
+            out.write(linha);
+            out.newLine();
+            if (!linha.endsWith(":") && !ProgramaPCode.ehDiretiva(linha)) {
+                instrucoes++;
+            }
+        }
+        return instrucoes;
+    }
+}
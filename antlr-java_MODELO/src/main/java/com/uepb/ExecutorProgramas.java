@@ -0,0 +1,297 @@
+package com.uepb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Executa muitos programas P-Code, e muitas execuções do mesmo programa com
+ * entradas diferentes, numa única JVM. Cada programa é carregado uma vez e
+ * compartilhado; cada execução tem o seu PCodeMachine, com a saída em memória.
+ *
+ * As execuções rodam em threads virtuais quando a JVM as oferece (Java 21, ou
+ * 19 e 20 com --enable-preview) e, caso contrário, num pool de threads de
+ * plataforma. Nos dois casos um semáforo limita quantas executam ao mesmo
+ * tempo. O relatório traz, por execução, o tempo de espera por uma vaga e a
+ * latência da execução, e ao final a vazão do conjunto.
+ */
+public final class ExecutorProgramas {
+    private final int concorrencia;
+    private final boolean virtuais;
+    private final boolean jit;
+    private final boolean tiered;
+    private final boolean registros;
+    private final Path saidas;
+
+    /** Uma execução: o programa, as entradas (uma por linha) e a repetição. */
+    record Tarefa(Path arquivo, ProgramaCarregado programa, Path arquivoEntradas, String entradas, int repeticao) {
+    }
+
+    /** Resultado de uma execução; erro é null quando ela terminou normalmente. */
+    record Resultado(Tarefa tarefa, String estado, long instrucoes, long nanosEspera, long nanosExecucao,
+                     int tamanhoSaida, String erro) {
+        boolean ok() {
+            return erro == null;
+        }
+    }
+
+    ExecutorProgramas(int concorrencia, boolean virtuais, boolean jit, boolean tiered, boolean registros,
+                      Path saidas) {
+        if (concorrencia < 1) {
+            throw new IllegalArgumentException("Limite de concorrência inválido: " + concorrencia);
+        }
+        this.concorrencia = concorrencia;
+        this.virtuais = virtuais;
+        this.jit = jit;
+        this.tiered = tiered;
+        this.registros = registros;
+        this.saidas = saidas;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<Path> arquivos = new ArrayList<>();
+        int memSize = PCodeMachine.DEFAULT_MEM_LIMIT;
+        String superArg = null;
+        boolean jit = false;
+        boolean tiered = false;
+        boolean registros = false;
+        int concorrencia = Runtime.getRuntime().availableProcessors();
+        boolean virtuais = true;
+        int repeticoes = 1;
+        Path entradas = null;
+        Path saidas = null;
+        Path relatorio = null;
+
+        for (String arg : args) {
+            if (arg.startsWith("-MemSize=") || arg.startsWith("-m=")) {
+                memSize = Integer.parseInt(arg.split("=")[1]);
+            } else if (arg.startsWith("-Super=") || arg.startsWith("-s=")) {
+                superArg = arg.split("=")[1];
+            } else if (arg.startsWith("-Jit=") || arg.startsWith("-j=")) {
+                jit = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-Tiered=") || arg.startsWith("-t=")) {
+                tiered = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-Registers=")) {
+                registros = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-Concorrencia=") || arg.startsWith("-c=")) {
+                concorrencia = Integer.parseInt(arg.split("=")[1]);
+            } else if (arg.startsWith("-Virtuais=")) {
+                virtuais = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-Repeticoes=") || arg.startsWith("-r=")) {
+                repeticoes = Integer.parseInt(arg.split("=")[1]);
+            } else if (arg.startsWith("-Entradas=") || arg.startsWith("-e=")) {
+                entradas = Paths.get(arg.split("=")[1]);
+            } else if (arg.startsWith("-Saidas=")) {
+                saidas = Paths.get(arg.split("=")[1]);
+            } else if (arg.startsWith("-Relatorio=")) {
+                relatorio = Paths.get(arg.split("=")[1]);
+            } else {
+                arquivos.add(Paths.get(arg));
+            }
+        }
+
+        if (arquivos.isEmpty()) {
+            System.err.println("Uso: java -cp pcode.jar com.uepb.ExecutorProgramas arquivo.pcode|arquivo.pbin... [-Entradas=arquivo|diretório] [-Repeticoes=n] [-Concorrencia=n] [-Virtuais=true|false] [-Saidas=diretório] [-Relatorio=arquivo.tsv] [-MemSize=limite] [-Super=padrao|nenhuma|perfil.txt] [-Jit=true|false] [-Tiered=true|false] [-Registers=true|false]");
+            return;
+        }
+        if (repeticoes < 1) {
+            throw new IllegalArgumentException("Quantidade de repetições inválida: " + repeticoes);
+        }
+
+        List<Tarefa> tarefas = tarefas(arquivos, entradas, repeticoes, memSize,
+                PCodeMachine.superinstructions(superArg));
+        ExecutorProgramas executor = new ExecutorProgramas(concorrencia, virtuais, jit, tiered, registros, saidas);
+        if (saidas != null) {
+            Files.createDirectories(saidas);
+        }
+        long inicio = System.nanoTime();
+        List<Resultado> resultados = executor.executar(tarefas);
+        long parede = System.nanoTime() - inicio;
+
+        imprimir(resultados, System.out);
+        if (relatorio != null) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(relatorio), false, "UTF-8")) {
+                imprimir(resultados, out);
+            }
+        }
+        System.out.println(resumo(resultados, parede, concorrencia, executor.usaThreadsVirtuais()));
+        if (resultados.stream().anyMatch(r -> !r.ok())) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Carrega cada programa uma vez e combina com cada arquivo de entradas (os
+     * arquivos de um diretório, em ordem); sem entradas, o programa executa
+     * sem nenhuma.
+     */
+    static List<Tarefa> tarefas(List<Path> arquivos, Path entradas, int repeticoes, int memSize,
+                                Set<Superinstrucoes.Tipo> superinstrucoes) throws IOException {
+        List<Path> arquivosEntradas = new ArrayList<>();
+        if (entradas == null) {
+            arquivosEntradas.add(null);
+        } else if (Files.isDirectory(entradas)) {
+            try (Stream<Path> lista = Files.list(entradas)) {
+                lista.filter(Files::isRegularFile).sorted().forEach(arquivosEntradas::add);
+            }
+        } else {
+            arquivosEntradas.add(entradas);
+        }
+        Map<Path, String> conteudos = new HashMap<>();
+        for (Path a : arquivosEntradas) {
+            if (a != null) {
+                conteudos.put(a, Files.readString(a, StandardCharsets.UTF_8));
+            }
+        }
+
+        List<Tarefa> tarefas = new ArrayList<>();
+        for (Path arquivo : arquivos) {
+            ProgramaCarregado programa = ProgramaCarregado.carregar(arquivo, memSize, superinstrucoes);
+            for (Path a : arquivosEntradas) {
+                for (int r = 1; r <= repeticoes; r++) {
+                    tarefas.add(new Tarefa(arquivo, programa, a, a != null ? conteudos.get(a) : "", r));
+                }
+            }
+        }
+        return tarefas;
+    }
+
+    boolean usaThreadsVirtuais() {
+        if (!virtuais) {
+            return false;
+        }
+        ExecutorService teste = threadsVirtuais();
+        if (teste == null) {
+            return false;
+        }
+        teste.shutdown();
+        return true;
+    }
+
+    /**
+     * Executor com uma thread virtual por tarefa, obtido por reflexão para
+     * compilar no Java 17; null quando a JVM não tem threads virtuais ou elas
+     * ainda são preview e não foram habilitadas.
+     */
+    static ExecutorService threadsVirtuais() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /** Executa as tarefas respeitando o limite de concorrência; os resultados ficam na ordem das tarefas. */
+    List<Resultado> executar(List<Tarefa> tarefas) throws InterruptedException {
+        ExecutorService threads = virtuais ? threadsVirtuais() : null;
+        if (threads == null) {
+            threads = Executors.newFixedThreadPool(concorrencia);
+        }
+        Semaphore vagas = new Semaphore(concorrencia);
+        try {
+            List<Future<Resultado>> futuros = new ArrayList<>();
+            for (Tarefa tarefa : tarefas) {
+                long pedido = System.nanoTime();
+                futuros.add(threads.submit(() -> {
+                    vagas.acquire();
+                    try {
+                        return executar(tarefa, System.nanoTime() - pedido);
+                    } finally {
+                        vagas.release();
+                    }
+                }));
+            }
+            List<Resultado> resultados = new ArrayList<>();
+            for (Future<Resultado> futuro : futuros) {
+                try {
+                    resultados.add(futuro.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return resultados;
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private Resultado executar(Tarefa tarefa, long espera) {
+        StringBuilder saida = new StringBuilder();
+        PCodeMachine maquina = new PCodeMachine(tarefa.programa(), CanalES.memoria(tarefa.entradas(), saida));
+        maquina.setErrors(new PrintStream(OutputStream.nullOutputStream()));
+        maquina.setJit(jit);
+        maquina.setTiered(tiered);
+        maquina.setRegisters(registros);
+        long inicio = System.nanoTime();
+        String erro;
+        try {
+            maquina.run();
+            erro = maquina.getError();
+        } catch (IOException | RuntimeException e) {
+            erro = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        long duracao = System.nanoTime() - inicio;
+        if (saidas != null) {
+            try {
+                Files.writeString(saidas.resolve(nomeSaida(tarefa)), saida, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                erro = erro != null ? erro : "saída não gravada: " + e.getMessage();
+            }
+        }
+        String estado = erro != null ? "erro" : maquina.getEndState();
+        return new Resultado(tarefa, estado, maquina.getExecutedInstructions(), espera, duracao, saida.length(), erro);
+    }
+
+    private static String nomeSaida(Tarefa tarefa) {
+        String nome = semExtensao(tarefa.arquivo());
+        if (tarefa.arquivoEntradas() != null) {
+            nome += "." + semExtensao(tarefa.arquivoEntradas());
+        }
+        return nome + "." + tarefa.repeticao() + ".out";
+    }
+
+    private static String semExtensao(Path arquivo) {
+        String nome = arquivo.getFileName().toString();
+        int ponto = nome.lastIndexOf('.');
+        return ponto > 0 ? nome.substring(0, ponto) : nome;
+    }
+
+    /** Uma linha por execução, separada por tabulações, na ordem das tarefas. */
+    static void imprimir(List<Resultado> resultados, PrintStream out) {
+        out.println("programa\tentradas\trepeticao\testado\tinstrucoes\tespera_ms\tlatencia_ms\tsaida_chars\tdetalhe");
+        for (Resultado r : resultados) {
+            Tarefa t = r.tarefa();
+            out.printf(Locale.ROOT, "%s\t%s\t%d\t%s\t%d\t%.3f\t%.3f\t%d\t%s%n", t.arquivo(),
+                    t.arquivoEntradas() != null ? t.arquivoEntradas() : "-", t.repeticao(), r.estado(),
+                    r.instrucoes(), r.nanosEspera() / 1e6, r.nanosExecucao() / 1e6, r.tamanhoSaida(),
+                    r.ok() ? "" : r.erro());
+        }
+    }
+
+    /** Vazão do conjunto e percentis da latência das execuções. */
+    static String resumo(List<Resultado> resultados, long parede, int concorrencia, boolean virtuais) {
+        long[] latencias = resultados.stream().mapToLong(Resultado::nanosExecucao).sorted().toArray();
+        long erros = resultados.stream().filter(r -> !r.ok()).count();
+        long instrucoes = resultados.stream().mapToLong(Resultado::instrucoes).sum();
+        double segundos = parede / 1e9;
+        return String.format(Locale.ROOT,
+                "Execuções: %d, %d com erro, até %d ao mesmo tempo em threads %s; %.1f ms de parede, "
+                        + "%.1f execuções/s, %.0f instruções/s; latência p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, máxima %.3f ms",
+                resultados.size(), erros, concorrencia, virtuais ? "virtuais" : "de plataforma", parede / 1e6,
+                resultados.size() / segundos, instrucoes / segundos, percentil(latencias, 50) / 1e6,
+                percentil(latencias, 90) / 1e6, percentil(latencias, 99) / 1e6, percentil(latencias, 100) / 1e6);
+    }
+
+    private static long percentil(long[] ordenados, int p) {
+        if (ordenados.length == 0) {
+            return 0;
+        }
+        int i = (int) Math.ceil(p / 100.0 * ordenados.length) - 1;
+        return ordenados[Math.max(0, Math.min(i, ordenados.length - 1))];
+    }
+}
@@ -1,23 +1,127 @@
 package com.uepb;
 
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
 import java.util.*;
 
 public class GeradorPCode extends CompiladoresBaseVisitor<Void> {
     private final List<String> pcode = new ArrayList<>();
-    private final Map<String, Integer> variables = new HashMap<>();
-    private int nextAddress = 0;
+    private final PropagadorConstantes constantes;
+    private ResolvedorEscopos escopos;
+    private InferidorTipos tipos;
     private int labelCounter = 0;
+    // Subexpressões calculadas antes do laço, com o endereço do temporário que guarda o valor
+    private final ParseTreeProperty<Integer> invariantes = new ParseTreeProperty<>();
+
+    public GeradorPCode() {
+        this(null);
+    }
+
+    /** Gera o código usando os valores já dobrados pelo propagador de constantes. */
+    public GeradorPCode(PropagadorConstantes constantes) {
+        this.constantes = constantes;
+    }
+
+    /** Gera comando a comando, com a resolução de nomes feita por ResolvedorEscopos.resolverComando. */
+    public GeradorPCode(PropagadorConstantes constantes, ResolvedorEscopos escopos) {
+        this(constantes, escopos, null);
+    }
+
+    /** Gera comando a comando, especializando as instruções com os tipos já inferidos (ou sem, com null). */
+    public GeradorPCode(PropagadorConstantes constantes, ResolvedorEscopos escopos, InferidorTipos tipos) {
+        this.constantes = constantes;
+        this.escopos = escopos;
+        this.tipos = tipos;
+    }
 
     public List<String> getPCode() {
         return pcode;
     }
 
+    /** Devolve o código gerado desde a última chamada e esvazia a lista. */
+    public List<String> retirarPCode() {
+        List<String> codigo = new ArrayList<>(pcode);
+        pcode.clear();
+        return codigo;
+    }
+
+    public ResolvedorEscopos getEscopos() {
+        return escopos;
+    }
+
+    /**
+     * Cabeçalho do programa já otimizado, para a máquina alocar exatamente o
+     * necessário: as células de memória e, quando a altura for a mesma em
+     * todos os caminhos, a altura máxima da pilha de operandos.
+     */
+    public static List<String> cabecalho(List<String> pcode, int memoria) {
+        List<String> linhas = new ArrayList<>();
+        linhas.add(".memoria " + memoria);
+        int pilha = ProgramaPCode.decodificar(pcode).alturaMaxima();
+        if (pilha >= 0) {
+            linhas.add(".pilha " + pilha);
+        }
+        return linhas;
+    }
+
     private void add(String instr) {
         pcode.add(instr);
     }
 
+    /** Mapa de fonte: as instruções seguintes vêm do comando que começa neste ponto do código-fonte. */
+    private void fonte(ParserRuleContext ctx) {
+        add(".fonte " + ctx.getStart().getLine() + " " + (ctx.getStart().getCharPositionInLine() + 1));
+    }
+
+    @Override
+    public Void visit(ParseTree tree) {
+        if (constantes != null) {
+            Object valor = constantes.constante(tree);
+            String ldc = valor != null ? PropagadorConstantes.instrucaoLdc(valor) : null;
+            if (ldc != null) {
+                add(ldc);
+                return null;
+            }
+            Integer temporario = invariantes.get(tree);
+            if (temporario != null) {
+                add("lod #" + temporario);
+                return null;
+            }
+        }
+        return super.visit(tree);
+    }
+
+    private Boolean condicaoConstante(ParseTree expr) {
+        return constantes != null ? constantes.valorLogico(expr) : null;
+    }
+
+    // Especialização pelos tipos inferidos: só quando a otimização está ativa
+
+    private boolean numericos(ParseTree a, ParseTree b) {
+        return tipos != null && tipos.numerico(a) && tipos.numerico(b);
+    }
+
+    private boolean inteiros(ParseTree a, ParseTree b) {
+        return tipos != null && tipos.inteiro(a) && tipos.inteiro(b);
+    }
+
+    /** fjp/tjp sobre a condição; com um inteiro provado, o salto não confere o tipo. */
+    private void saltar(String op, ParseTree condicao, String label) {
+        add(op + (tipos != null && tipos.inteiro(condicao) ? "b " : " ") + label);
+    }
+
     @Override
     public Void visitProgram(CompiladoresParser.ProgramContext ctx) {
+        if (constantes != null) {
+            escopos = constantes.getEscopos();
+            tipos = new InferidorTipos(escopos);
+            tipos.visit(ctx);
+        } else {
+            escopos = new ResolvedorEscopos();
+            escopos.visit(ctx);
+        }
         for (var stmt : ctx.statement()) {
             visit(stmt);
         }
@@ -35,13 +139,15 @@ public class GeradorPCode extends CompiladoresBaseVisitor<Void> {
 
     @Override
     public Void visitVarDeclaration(CompiladoresParser.VarDeclarationContext ctx) {
-        String id = ctx.ID().getText();
-        if (!variables.containsKey(id)) {
-            variables.put(id, nextAddress++);
-        }
+        fonte(ctx);
         if (ctx.expr() != null) {
             visit(ctx.expr());
-            add("lda #" + variables.get(id));
+            add("lda #" + escopos.endereco(ctx.ID()));
+            add("sto");
+        } else if (escopos.reinicia(ctx)) {
+            // Variável nova em um bloco: o endereço pode ter sido usado antes
+            add("lod #" + escopos.enderecoNulo());
+            add("lda #" + escopos.endereco(ctx.ID()));
             add("sto");
         }
         return null;
@@ -49,18 +155,16 @@ public class GeradorPCode extends CompiladoresBaseVisitor<Void> {
 
     @Override
     public Void visitAssignment(CompiladoresParser.AssignmentContext ctx) {
+        fonte(ctx);
         visit(ctx.expr());
-        String id = ctx.ID().getText();
-        if (!variables.containsKey(id)) {
-            variables.put(id, nextAddress++);
-        }
-        add("lda #" + variables.get(id));
+        add("lda #" + escopos.endereco(ctx.ID()));
         add("sto");
         return null;
     }
 
     @Override
     public Void visitPrintStatement(CompiladoresParser.PrintStatementContext ctx) {
+        fonte(ctx);
         visit(ctx.expr());
         add("wri");
         return null;
@@ -68,24 +172,33 @@ public class GeradorPCode extends CompiladoresBaseVisitor<Void> {
 
     @Override
     public Void visitInputStatement(CompiladoresParser.InputStatementContext ctx) {
-        String id = ctx.ID().getText();
-        if (!variables.containsKey(id)) {
-            variables.put(id, nextAddress++);
-        }
+        fonte(ctx);
         add("rd");
-        add("lda #" + variables.get(id));
+        add("lda #" + escopos.endereco(ctx.ID()));
         add("sto");
         return null;
     }
 
     @Override
     public Void visitIfStatement(CompiladoresParser.IfStatementContext ctx) {
+        Boolean cond = condicaoConstante(ctx.expr());
+        if (cond != null) {
+            // Ramo morto não é gerado
+            if (cond) {
+                visit(ctx.statement(0));
+            } else if (ctx.ELSE() != null) {
+                visit(ctx.statement(1));
+            }
+            return null;
+        }
+
         String elseLabel = "L" + labelCounter++;
         String endLabel = "L" + labelCounter++;
-        visit(ctx.expr());
-        add("fjp " + elseLabel);
+        fonte(ctx);
+        condicao(ctx.expr(), false, elseLabel, "fjp");
         visit(ctx.statement(0));
         if (ctx.ELSE() != null) {
+            fonte(ctx);
             add("pip " + endLabel);
             add(elseLabel + ":");
             visit(ctx.statement(1));
@@ -98,31 +211,123 @@ public class GeradorPCode extends CompiladoresBaseVisitor<Void> {
 
     @Override
     public Void visitWhileStatement(CompiladoresParser.WhileStatementContext ctx) {
+        Boolean cond = condicaoConstante(ctx.expr());
+        if (Boolean.FALSE.equals(cond)) {
+            return null;
+        }
+
         String startLabel = "L" + labelCounter++;
         String endLabel = "L" + labelCounter++;
+        fonte(ctx);
+        int marca = escopos.marcaTemporarios();
+        if (tipos != null) {
+            // Invariantes calculadas uma vez, antes do label de início
+            for (var expr : new InvariantesLaco(escopos, constantes, tipos, invariantes).encontrar(ctx)) {
+                int temporario = escopos.reservarTemporario();
+                visit(expr);
+                add("lda #" + temporario);
+                add("sto");
+                invariantes.put(expr, temporario);
+            }
+        }
         add(startLabel + ":");
-        visit(ctx.expr());
-        add("fjp " + endLabel);
+        if (cond == null) {
+            condicao(ctx.expr(), false, endLabel, "fjp");
+        }
         visit(ctx.statement());
+        // O salto de volta conta para o próprio while
+        fonte(ctx);
         add("pip " + startLabel);
         add(endLabel + ":");
+        escopos.liberarTemporarios(marca);
         return null;
     }
 
-    @Override
-    public Void visitLogicalOrExpr(CompiladoresParser.LogicalOrExprContext ctx) {
-        int count = ctx.logicalAndExpr().size();
-        if (count == 1) {
-            return visit(ctx.logicalAndExpr(0));
+    /**
+     * Código de salto da condição: desvia para "label" quando o valor lógico
+     * dela é "quando" e segue adiante no outro caso, sem empilhar o resultado.
+     * As cadeias de and/or saltam direto para o destino final, o not troca os
+     * destinos e as comparações terminam em um fjp/tjp que o peephole funde
+     * com elas. O not só troca os destinos de um inteiro da máquina: "not 0.0"
+     * é falso, mas o fjp trata 0.0 como falso. Os operandos são testados na
+     * mesma ordem e pelos mesmos saltos que no valor materializado, então os
+     * erros são os mesmos: "salto" é o fjp/tjp que testaria este operando lá,
+     * e um valor que pode falhar nele não é testado pelo salto oposto.
+     */
+    private void condicao(CompiladoresParser.ExprContext expr, boolean quando, String label, String salto) {
+        Boolean valor = condicaoConstante(expr);
+        if (valor != null && PropagadorConstantes.instrucaoLdc(constantes.constante(expr)) != null) {
+            if (valor == quando) {
+                add("pip " + label);
+            }
+            return;
         }
+        if (invariantes.get(expr) == null) {
+            if (expr instanceof CompiladoresParser.ParenExprContext p) {
+                condicao(p.expr(), quando, label, salto);
+                return;
+            }
+            if (expr instanceof CompiladoresParser.UnaryExprContext u && (u.op.getType() == CompiladoresParser.PLUS
+                    || u.op.getType() == CompiladoresParser.NOT && logico(u.expr()))) {
+                condicao(u.expr(), u.op.getType() == CompiladoresParser.PLUS ? quando : !quando, label, salto);
+                return;
+            }
+            boolean e = expr instanceof CompiladoresParser.LogicalAndExprContext;
+            if (e || expr instanceof CompiladoresParser.LogicalOrExprContext) {
+                // and salta quando um operando é falso; or, quando um é verdadeiro
+                List<CompiladoresParser.ExprContext> operandos = cadeia(expr, e
+                        ? CompiladoresParser.LogicalAndExprContext.class : CompiladoresParser.LogicalOrExprContext.class);
+                String curto = label;
+                if (quando == e) {
+                    curto = "L" + labelCounter++;
+                }
+                String materializado = e ? "fjp" : "tjp";
+                for (int i = 0; i < operandos.size() - 1; i++) {
+                    condicao(operandos.get(i), !e, curto, materializado);
+                }
+                condicao(operandos.get(operandos.size() - 1), quando, label, materializado);
+                if (quando == e) {
+                    add(curto + ":");
+                }
+                return;
+            }
+        }
+        visit(expr);
+        String op = quando ? "tjp" : "fjp";
+        if (op.equals(salto) || logico(expr)) {
+            saltar(op, expr, label);
+        } else {
+            // "a or s" desviando no falso: s é testado pelo tjp do or, e o pip leva ao destino
+            String seguinte = "L" + labelCounter++;
+            add(salto + " " + seguinte);
+            add("pip " + label);
+            add(seguinte + ":");
+        }
+    }
+
+    /** Valor sempre 0 ou 1: resultado de comparação, and/or, not ou literal lógico, ou um inteiro provado. */
+    private boolean logico(CompiladoresParser.ExprContext expr) {
+        if (expr instanceof CompiladoresParser.ParenExprContext p) {
+            return logico(p.expr());
+        }
+        return expr instanceof CompiladoresParser.RelationalExprContext
+                || expr instanceof CompiladoresParser.EqualityExprContext
+                || expr instanceof CompiladoresParser.LogicalAndExprContext
+                || expr instanceof CompiladoresParser.LogicalOrExprContext
+                || expr instanceof CompiladoresParser.BooleanExprContext
+                || expr instanceof CompiladoresParser.UnaryExprContext u && u.op.getType() == CompiladoresParser.NOT
+                || tipos != null && tipos.inteiro(expr);
+    }
 
+    @Override
+    public Void visitLogicalOrExpr(CompiladoresParser.LogicalOrExprContext ctx) {
         int label = labelCounter++;
         String trueLabel = "LOR_TRUE_" + label;
         String endLabel = "LOR_END_" + label;
 
-        for (int i = 0; i < count; i++) {
-            visit(ctx.logicalAndExpr(i));
-            add("tjp " + trueLabel);
+        for (var operando : cadeia(ctx, CompiladoresParser.LogicalOrExprContext.class)) {
+            visit(operando);
+            saltar("tjp", operando, trueLabel);
         }
 
         add("ldc false");
@@ -137,18 +342,13 @@ public class GeradorPCode extends CompiladoresBaseVisitor<Void> {
 
     @Override
     public Void visitLogicalAndExpr(CompiladoresParser.LogicalAndExprContext ctx) {
-        int count = ctx.equalityExpr().size();
-        if (count == 1) {
-            return visit(ctx.equalityExpr(0));
-        }
-
         int label = labelCounter++;
         String falseLabel = "LAND_FALSE_" + label;
         String endLabel = "LAND_END_" + label;
 
-        for (int i = 0; i < count; i++) {
-            visit(ctx.equalityExpr(i));
-            add("fjp " + falseLabel);
+        for (var operando : cadeia(ctx, CompiladoresParser.LogicalAndExprContext.class)) {
+            visit(operando);
+            saltar("fjp", operando, falseLabel);
         }
 
         add("ldc true");
@@ -161,107 +361,155 @@ public class GeradorPCode extends CompiladoresBaseVisitor<Void> {
         return null;
     }
 
+    /**
+     * Operandos de "a or b or c" (ou de and), que a gramática aninha à
+     * esquerda, para gerar uma única sequência de saltos. Um trecho já dobrado
+     * pelo propagador fica como operando.
+     */
+    private List<CompiladoresParser.ExprContext> cadeia(CompiladoresParser.ExprContext ctx,
+                                                        Class<? extends CompiladoresParser.ExprContext> tipo) {
+        LinkedList<CompiladoresParser.ExprContext> operandos = new LinkedList<>();
+        CompiladoresParser.ExprContext atual = ctx;
+        while (tipo.isInstance(atual) && (atual == ctx || constantes == null || constantes.constante(atual) == null)) {
+            operandos.addFirst((CompiladoresParser.ExprContext) atual.getChild(2));
+            atual = (CompiladoresParser.ExprContext) atual.getChild(0);
+        }
+        operandos.addFirst(atual);
+        return operandos;
+    }
+
     @Override
     public Void visitEqualityExpr(CompiladoresParser.EqualityExprContext ctx) {
-        visit(ctx.relationalExpr(0));
-        if (ctx.relationalExpr().size() > 1) {
-            visit(ctx.relationalExpr(1));
-            if (ctx.EQ() != null) {
-                add("equ");
-            } else {
-                add("neq");
-            }
-        }
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        String op = ctx.op.getType() == CompiladoresParser.EQ ? "equ" : "neq";
+        add(inteiros(ctx.expr(0), ctx.expr(1)) ? op + "i" : op);
         return null;
     }
 
     @Override
     public Void visitRelationalExpr(CompiladoresParser.RelationalExprContext ctx) {
-        visit(ctx.additiveExpr(0));
-        if (ctx.additiveExpr().size() > 1) {
-            visit(ctx.additiveExpr(1));
-            if (ctx.LT() != null) {
-                add("let");
-            } else if (ctx.GT() != null) {
-                add("grt");
-            }
-        }
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        String op = ctx.op.getType() == CompiladoresParser.LT ? "let" : "grt";
+        add(numericos(ctx.expr(0), ctx.expr(1)) ? op + "n" : op);
         return null;
     }
 
     @Override
     public Void visitAdditiveExpr(CompiladoresParser.AdditiveExprContext ctx) {
-        visit(ctx.multiplicativeExpr(0));
-        for (int i = 1; i < ctx.multiplicativeExpr().size(); i++) {
-            visit(ctx.multiplicativeExpr(i));
-            if (ctx.getChild(2 * i - 1).getText().equals("+")) {
-                add("add");
-            } else {
-                add("sub");
-            }
-        }
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        String op = ctx.op.getType() == CompiladoresParser.PLUS ? "add" : "sub";
+        add(numericos(ctx.expr(0), ctx.expr(1)) ? op + "n" : op);
         return null;
     }
 
     @Override
     public Void visitMultiplicativeExpr(CompiladoresParser.MultiplicativeExprContext ctx) {
-        visit(ctx.powerExpr(0));
-        for (int i = 1; i < ctx.powerExpr().size(); i++) {
-            visit(ctx.powerExpr(i));
-            if (ctx.getChild(2 * i - 1).getText().equals("*")) {
-                add("mul");
-            } else {
-                add("div");
-            }
+        Object divisor = constantes != null && ctx.op.getType() == CompiladoresParser.DIV
+                ? constantes.constante(ctx.expr(1)) : null;
+        if (divisor instanceof Number d && inversoExato(d.doubleValue()) && numericos(ctx.expr(0), ctx.expr(1))) {
+            // Com um número provado, x / 2^k é exatamente x * 2^-k e nenhum dos dois falha
+            visit(ctx.expr(0));
+            add(PropagadorConstantes.instrucaoLdc(1 / d.doubleValue()));
+            add("muln");
+            return null;
         }
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        String op = ctx.op.getType() == CompiladoresParser.MULT ? "mul" : "div";
+        add(numericos(ctx.expr(0), ctx.expr(1)) ? op + "n" : op);
         return null;
     }
 
+    /** Potência de dois (positiva ou negativa) cujo inverso também é um double normal. */
+    private static boolean inversoExato(double d) {
+        int expoente = Math.getExponent(d);
+        return expoente >= -1022 && expoente <= 1022 && Math.abs(d) == Math.scalb(1.0, expoente);
+    }
+
+    /** Expressão emitida em uma única instrução, que pode ser repetida. */
+    private boolean simples(CompiladoresParser.ExprContext expr) {
+        if (expr instanceof CompiladoresParser.ParenExprContext p) {
+            return simples(p.expr());
+        }
+        return expr instanceof CompiladoresParser.IdExprContext || invariantes.get(expr) != null;
+    }
+
     @Override
     public Void visitPowerExpr(CompiladoresParser.PowerExprContext ctx) {
-        visit(ctx.unaryExpr());
-        if (ctx.powerExpr() != null) {
-            visit(ctx.powerExpr());
+        Object expoente = constantes != null ? constantes.constante(ctx.expr(1)) : null;
+        if (expoente instanceof Number e && e.doubleValue() == 2 && numericos(ctx.expr(0), ctx.expr(1))) {
+            // Com a base numérica provada, Math.pow(x, 2) é exatamente x * x e nenhum dos dois falha;
+            // uma base composta é guardada em um temporário
+            CompiladoresParser.ExprContext base = ctx.expr(0);
+            if (simples(base)) {
+                visit(base);
+                visit(base);
+            } else {
+                int marca = escopos.marcaTemporarios();
+                int temporario = escopos.reservarTemporario();
+                visit(base);
+                add("lda #" + temporario);
+                add("sto");
+                add("lod #" + temporario);
+                add("lod #" + temporario);
+                escopos.liberarTemporarios(marca);
+            }
+            add("muln");
+            return null;
+        }
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        // As duas conversões agem sobre o expoente; o call já converte um número
+        if (tipos == null || !tipos.numerico(ctx.expr(1))) {
             add("to float");
             add("to float");
-            add("call POW_FUNCTION");
         }
+        add("call POW_FUNCTION");
         return null;
     }
 
     @Override
     public Void visitUnaryExpr(CompiladoresParser.UnaryExprContext ctx) {
-        visit(ctx.primaryExpr());
-        for (int i = ctx.getChildCount() - 2; i >= 0; i--) {
-            String op = ctx.getChild(i).getText();
-            if (op.equals("-")) {
-                add("ldc -1");
-                add("mul");
-            } else if (op.equals("not")) {
-                add("ldc false");
-                add("equ");
-            }
+        visit(ctx.expr());
+        if (ctx.op.getType() == CompiladoresParser.MINUS) {
+            add("ldc -1");
+            add(tipos != null && tipos.numerico(ctx.expr()) ? "muln" : "mul");
+        } else if (ctx.op.getType() == CompiladoresParser.NOT) {
+            add("ldc false");
+            add(tipos != null && tipos.inteiro(ctx.expr()) ? "equi" : "equ");
         }
         return null;
     }
 
     @Override
-    public Void visitPrimaryExpr(CompiladoresParser.PrimaryExprContext ctx) {
-        if (ctx.NUMBER() != null) {
-            add("ldc " + ctx.NUMBER().getText());
-        } else if (ctx.STRING() != null) {
-            add("ldc " + ctx.STRING().getText());
-        } else if (ctx.ID() != null) {
-            String id = ctx.ID().getText();
-            if (!variables.containsKey(id)) {
-                variables.put(id, nextAddress++);
-            }
-            add("lod #" + variables.get(id));
-        } else if (ctx.booleanLiteral() != null) {
-            add("ldc " + ctx.booleanLiteral().getText());
-        } else if (ctx.expr() != null) {
-            visit(ctx.expr());
-        }
+    public Void visitNumberExpr(CompiladoresParser.NumberExprContext ctx) {
+        add("ldc " + ctx.NUMBER().getText());
+        return null;
+    }
+
+    @Override
+    public Void visitStringExpr(CompiladoresParser.StringExprContext ctx) {
+        add("ldc " + ctx.STRING().getText());
         return null;
     }
+
+    @Override
+    public Void visitIdExpr(CompiladoresParser.IdExprContext ctx) {
+        add("lod #" + escopos.endereco(ctx.ID()));
+        return null;
+    }
+
+    @Override
+    public Void visitBooleanExpr(CompiladoresParser.BooleanExprContext ctx) {
+        add("ldc " + ctx.getText());
+        return null;
+    }
+
+    @Override
+    public Void visitParenExpr(CompiladoresParser.ParenExprContext ctx) {
+        return visit(ctx.expr());
+    }
 }
@@ -0,0 +1,240 @@
+package com.uepb;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.*;
+
+/**
+ * Inferência estática de tipos, executada depois da resolução de nomes e
+ * antes do GeradorPCode. Cada expressão recebe o conjunto de tipos que pode
+ * ter na execução (uma máscara de NULO, INT, BOOL, FLOAT e STRING), e os
+ * tipos das variáveis são acompanhados pelo fluxo do programa, como os
+ * valores no PropagadorConstantes: junção dos dois ramos do if e ponto fixo
+ * nos laços. Os tipos que cada variável assume ficam também na sua entrada
+ * da tabela de símbolos.
+ *
+ * O gerador usa os tipos provados para emitir as instruções especializadas,
+ * que a máquina executa sem conferir os operandos; por isso a análise só
+ * pode errar para mais. Na máquina, bool e int são o mesmo inteiro, e toda
+ * operação aritmética produz um real.
+ */
+public class InferidorTipos extends CompiladoresBaseVisitor<Integer> {
+    public static final int NULO = 1;
+    public static final int INT = 2;
+    public static final int BOOL = 4;
+    public static final int FLOAT = 8;
+    public static final int STRING = 16;
+    /** O que "input" pode produzir. */
+    private static final int LIDO = INT | FLOAT | STRING;
+
+    private ParseTreeProperty<Integer> tipos = new ParseTreeProperty<>();
+    // Tipos das variáveis, indexados pelo endereço; endereço ausente ainda vale nulo
+    private Map<Integer, Integer> ambiente = new HashMap<>();
+    private final ResolvedorEscopos escopos;
+
+    public InferidorTipos(ResolvedorEscopos escopos) {
+        this.escopos = escopos;
+    }
+
+    /**
+     * Analisa um comando de nível superior; os tipos das variáveis continuam
+     * valendo para os comandos seguintes, que só executam depois dele.
+     */
+    public void analisarComando(CompiladoresParser.StatementContext ctx) {
+        tipos = new ParseTreeProperty<>();
+        visit(ctx);
+    }
+
+    /** Tipos que a expressão pode ter, ou 0 se ela não foi analisada. */
+    public int tipo(ParseTree expr) {
+        Integer t = tipos.get(expr);
+        return t != null ? t : 0;
+    }
+
+    /** A expressão é sempre um número (inteiro, lógico ou real). */
+    public boolean numerico(ParseTree expr) {
+        int t = tipo(expr);
+        return t != 0 && (t & ~(INT | BOOL | FLOAT)) == 0;
+    }
+
+    /** A expressão é sempre um inteiro da máquina (int ou bool). */
+    public boolean inteiro(ParseTree expr) {
+        int t = tipo(expr);
+        return t != 0 && (t & ~(INT | BOOL)) == 0;
+    }
+
+    private int registrar(ParseTree ctx, int tipo) {
+        tipos.put(ctx, tipo);
+        return tipo;
+    }
+
+    private void atribuir(TerminalNode id, int tipo) {
+        ambiente.put(escopos.endereco(id), tipo);
+        escopos.tabela(id).tipar(id.getText(), tipo);
+    }
+
+    private int tipoVariavel(TerminalNode id) {
+        return ambiente.getOrDefault(escopos.endereco(id), NULO);
+    }
+
+    /** Junção de dois caminhos: cada variável pode ter os tipos de qualquer um. */
+    private static Map<Integer, Integer> juntar(Map<Integer, Integer> a, Map<Integer, Integer> b) {
+        Map<Integer, Integer> r = new HashMap<>();
+        Set<Integer> enderecos = new HashSet<>(a.keySet());
+        enderecos.addAll(b.keySet());
+        for (int e : enderecos) {
+            r.put(e, a.getOrDefault(e, NULO) | b.getOrDefault(e, NULO));
+        }
+        return r;
+    }
+
+    // --- Comandos ---
+
+    @Override
+    public Integer visitVarDeclaration(CompiladoresParser.VarDeclarationContext ctx) {
+        if (ctx.expr() != null) {
+            atribuir(ctx.ID(), visit(ctx.expr()));
+        } else if (escopos.reinicia(ctx)) {
+            atribuir(ctx.ID(), NULO);
+        } else {
+            escopos.tabela(ctx.ID()).tipar(ctx.ID().getText(), tipoVariavel(ctx.ID()));
+        }
+        return null;
+    }
+
+    @Override
+    public Integer visitAssignment(CompiladoresParser.AssignmentContext ctx) {
+        atribuir(ctx.ID(), visit(ctx.expr()));
+        return null;
+    }
+
+    @Override
+    public Integer visitInputStatement(CompiladoresParser.InputStatementContext ctx) {
+        atribuir(ctx.ID(), LIDO);
+        return null;
+    }
+
+    @Override
+    public Integer visitIfStatement(CompiladoresParser.IfStatementContext ctx) {
+        visit(ctx.expr());
+        Map<Integer, Integer> antes = ambiente;
+        ambiente = new HashMap<>(antes);
+        visit(ctx.statement(0));
+        Map<Integer, Integer> ramoEntao = ambiente;
+        ambiente = new HashMap<>(antes);
+        if (ctx.statement().size() > 1) {
+            visit(ctx.statement(1));
+        }
+        ambiente = juntar(ramoEntao, ambiente);
+        return null;
+    }
+
+    @Override
+    public Integer visitWhileStatement(CompiladoresParser.WhileStatementContext ctx) {
+        // Os tipos só crescem, então o ponto fixo chega em poucas voltas; os
+        // tipos das expressões ficam os da última, feita já com ele
+        Map<Integer, Integer> entrada = ambiente;
+        while (true) {
+            ambiente = new HashMap<>(entrada);
+            visit(ctx.expr());
+            visit(ctx.statement());
+            Map<Integer, Integer> proxima = juntar(entrada, ambiente);
+            if (proxima.equals(entrada)) {
+                break;
+            }
+            entrada = proxima;
+        }
+        ambiente = entrada;
+        return null;
+    }
+
+    // --- Expressões ---
+
+    @Override
+    public Integer visitLogicalOrExpr(CompiladoresParser.LogicalOrExprContext ctx) {
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        return registrar(ctx, BOOL);
+    }
+
+    @Override
+    public Integer visitLogicalAndExpr(CompiladoresParser.LogicalAndExprContext ctx) {
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        return registrar(ctx, BOOL);
+    }
+
+    @Override
+    public Integer visitEqualityExpr(CompiladoresParser.EqualityExprContext ctx) {
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        return registrar(ctx, BOOL);
+    }
+
+    @Override
+    public Integer visitRelationalExpr(CompiladoresParser.RelationalExprContext ctx) {
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        return registrar(ctx, BOOL);
+    }
+
+    @Override
+    public Integer visitAdditiveExpr(CompiladoresParser.AdditiveExprContext ctx) {
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        return registrar(ctx, FLOAT);
+    }
+
+    @Override
+    public Integer visitMultiplicativeExpr(CompiladoresParser.MultiplicativeExprContext ctx) {
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        return registrar(ctx, FLOAT);
+    }
+
+    @Override
+    public Integer visitPowerExpr(CompiladoresParser.PowerExprContext ctx) {
+        visit(ctx.expr(0));
+        visit(ctx.expr(1));
+        return registrar(ctx, FLOAT);
+    }
+
+    @Override
+    public Integer visitUnaryExpr(CompiladoresParser.UnaryExprContext ctx) {
+        int operando = visit(ctx.expr());
+        return registrar(ctx, switch (ctx.op.getType()) {
+            case CompiladoresParser.MINUS -> FLOAT;
+            case CompiladoresParser.NOT -> BOOL;
+            default -> operando;
+        });
+    }
+
+    @Override
+    public Integer visitNumberExpr(CompiladoresParser.NumberExprContext ctx) {
+        // Mesma leitura do "ldc": um inteiro grande demais vira texto
+        Object valor = ProgramaPCode.parseValue(ctx.NUMBER().getText());
+        return registrar(ctx, valor instanceof Integer ? INT : valor instanceof Double ? FLOAT : STRING);
+    }
+
+    @Override
+    public Integer visitStringExpr(CompiladoresParser.StringExprContext ctx) {
+        return registrar(ctx, STRING);
+    }
+
+    @Override
+    public Integer visitBooleanExpr(CompiladoresParser.BooleanExprContext ctx) {
+        return registrar(ctx, BOOL);
+    }
+
+    @Override
+    public Integer visitIdExpr(CompiladoresParser.IdExprContext ctx) {
+        return registrar(ctx, tipoVariavel(ctx.ID()));
+    }
+
+    @Override
+    public Integer visitParenExpr(CompiladoresParser.ParenExprContext ctx) {
+        return registrar(ctx, visit(ctx.expr()));
+    }
+}
@@ -0,0 +1,145 @@
+package com.uepb;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import java.util.*;
+
+/**
+ * Subexpressões invariantes de um laço, que o GeradorPCode calcula uma única
+ * vez antes dele e guarda em temporários. Uma expressão é invariante quando
+ * nenhuma das variáveis que ela lê é escrita no laço (atribuição, declaração
+ * ou input, em qualquer ramo) e é segura quando os tipos inferidos garantem
+ * que ela não dá erro: calculada antes do laço, ela executa mesmo que o laço
+ * não dê nenhuma volta ou que o ramo em que ela aparece nunca seja tomado.
+ *
+ * São escolhidas as maiores subexpressões invariantes que ainda fazem alguma
+ * conta; variáveis e constantes sozinhas já custam uma instrução. As já
+ * calculadas por um laço externo valem como variáveis.
+ */
+final class InvariantesLaco {
+    private final ResolvedorEscopos escopos;
+    private final PropagadorConstantes constantes;
+    private final InferidorTipos tipos;
+    private final ParseTreeProperty<Integer> calculadas;
+    private final Set<Integer> escritos = new HashSet<>();
+
+    InvariantesLaco(ResolvedorEscopos escopos, PropagadorConstantes constantes, InferidorTipos tipos,
+                    ParseTreeProperty<Integer> calculadas) {
+        this.escopos = escopos;
+        this.constantes = constantes;
+        this.tipos = tipos;
+        this.calculadas = calculadas;
+    }
+
+    /** Subexpressões a calcular antes do laço, na ordem em que aparecem nele. */
+    List<CompiladoresParser.ExprContext> encontrar(CompiladoresParser.WhileStatementContext laco) {
+        escritos.clear();
+        coletarEscritos(laco);
+        List<CompiladoresParser.ExprContext> encontradas = new ArrayList<>();
+        procurar(laco.expr(), encontradas);
+        procurar(laco.statement(), encontradas);
+        return encontradas;
+    }
+
+    private void coletarEscritos(ParseTree no) {
+        if (no instanceof CompiladoresParser.AssignmentContext a) {
+            escritos.add(escopos.endereco(a.ID()));
+        } else if (no instanceof CompiladoresParser.VarDeclarationContext v) {
+            escritos.add(escopos.endereco(v.ID()));
+        } else if (no instanceof CompiladoresParser.InputStatementContext i) {
+            escritos.add(escopos.endereco(i.ID()));
+        }
+        for (int i = 0; i < no.getChildCount(); i++) {
+            coletarEscritos(no.getChild(i));
+        }
+    }
+
+    private void procurar(ParseTree no, List<CompiladoresParser.ExprContext> encontradas) {
+        if (no instanceof CompiladoresParser.ExprContext expr) {
+            if (folha(expr)) {
+                return;
+            }
+            if (invariante(expr)) {
+                encontradas.add(expr);
+                return;
+            }
+        }
+        // Ramos que o gerador não emite ficam de fora
+        if (no instanceof CompiladoresParser.IfStatementContext se) {
+            Boolean cond = constantes.valorLogico(se.expr());
+            if (cond != null) {
+                if (cond) {
+                    procurar(se.statement(0), encontradas);
+                } else if (se.ELSE() != null) {
+                    procurar(se.statement(1), encontradas);
+                }
+                return;
+            }
+        }
+        if (no instanceof CompiladoresParser.WhileStatementContext w
+                && Boolean.FALSE.equals(constantes.valorLogico(w.expr()))) {
+            return;
+        }
+        for (int i = 0; i < no.getChildCount(); i++) {
+            procurar(no.getChild(i), encontradas);
+        }
+    }
+
+    /** Expressão que já custa uma única instrução. */
+    private boolean folha(CompiladoresParser.ExprContext expr) {
+        if (constante(expr) || calculadas.get(expr) != null || expr instanceof CompiladoresParser.IdExprContext) {
+            return true;
+        }
+        if (expr instanceof CompiladoresParser.UnaryExprContext u && u.op.getType() == CompiladoresParser.PLUS) {
+            return folha(u.expr());
+        }
+        return expr instanceof CompiladoresParser.ParenExprContext p && folha(p.expr());
+    }
+
+    private boolean constante(ParseTree expr) {
+        Object valor = constantes.constante(expr);
+        return valor != null && PropagadorConstantes.instrucaoLdc(valor) != null;
+    }
+
+    private boolean invariante(CompiladoresParser.ExprContext expr) {
+        if (constante(expr) || calculadas.get(expr) != null) {
+            return true;
+        }
+        if (expr instanceof CompiladoresParser.IdExprContext id) {
+            return !escritos.contains(escopos.endereco(id.ID()));
+        }
+        if (expr instanceof CompiladoresParser.ParenExprContext p) {
+            return invariante(p.expr());
+        }
+        if (expr instanceof CompiladoresParser.UnaryExprContext u) {
+            // not é "x; ldc false; equ", que só falha com x nulo; o + unário não gera nada
+            boolean seguro = switch (u.op.getType()) {
+                case CompiladoresParser.MINUS -> tipos.numerico(u.expr());
+                case CompiladoresParser.NOT -> semNulo(u.expr());
+                default -> true;
+            };
+            return seguro && invariante(u.expr());
+        }
+        if (expr instanceof CompiladoresParser.EqualityExprContext e) {
+            return semNulo(e.expr(0)) && invariante(e.expr(0)) && invariante(e.expr(1));
+        }
+        if (expr instanceof CompiladoresParser.AdditiveExprContext
+                || expr instanceof CompiladoresParser.MultiplicativeExprContext
+                || expr instanceof CompiladoresParser.PowerExprContext
+                || expr instanceof CompiladoresParser.RelationalExprContext
+                || expr instanceof CompiladoresParser.LogicalAndExprContext
+                || expr instanceof CompiladoresParser.LogicalOrExprContext) {
+            // Contas, comparações e saltos do and/or só não falham com números
+            CompiladoresParser.ExprContext a = (CompiladoresParser.ExprContext) expr.getChild(0);
+            CompiladoresParser.ExprContext b = (CompiladoresParser.ExprContext) expr.getChild(2);
+            return tipos.numerico(a) && tipos.numerico(b) && invariante(a) && invariante(b);
+        }
+        return false;
+    }
+
+    private boolean semNulo(ParseTree expr) {
+        int t = tipos.tipo(expr);
+        return t != 0 && (t & InferidorTipos.NULO) == 0;
+    }
+}
@@ -1,15 +1,19 @@
 package com.uepb;
 
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.*;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 //public class Main {
-//    public static void main(String[] args) throws IOException {
+//    public static void main(String[] args) throws IOException, InterruptedException {
 //        // Verifica se o arquivo foi passado como argumento
 //        if (args.length == 0) {
 //            System.err.println("Uso: java -jar compiler.jar <arquivo.lang>");
@@ -38,59 +42,258 @@ import java.util.List;
 //}
 
 public class Main {
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         // Verifica se o arquivo foi passado como argumento
         if (args.length == 0) {
-            System.err.println("Uso: java -jar compiler.jar <arquivo.lang> [-output=<arquivo.pcode>] [-run]");
+            System.err.println("Uso: java -jar compiler.jar <arquivo.lang> [-output=<arquivo.pcode>] [-binary] [-noopt] [-peephole=REGRA,...] [-run[=pilha|registros]] [-interpret[=arvore]] [-entradas=<arquivo>] [-cache[=<diretório>]] [-cachemax=<MB>] [-cachestats] [-streaming]");
+            System.err.println("       java -jar compiler.jar -lote <diretório|glob|arquivo>... [-threads=N] [-outdir=<diretório>] [-binary] [-noopt] [-peephole=REGRA,...] [-relatorio=<arquivo.tsv>] [-cache[=<diretório>]] [-cachemax=<MB>]");
+            return;
+        }
+        if (args[0].equals("-lote")) {
+            CompiladorLote.main(Arrays.copyOfRange(args, 1, args.length));
             return;
         }
 
-        // Lê o conteúdo do arquivo de entrada
         String inputFile = args[0];
-        String code = Files.readString(Paths.get(inputFile));
-
-        // Cria lexer, parser e analisa o código
-        CharStream input = CharStreams.fromString(code);
-        CompiladoresLexer lexer = new CompiladoresLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        CompiladoresParser parser = new CompiladoresParser(tokens);
-        AnalisadorSemantico analisador = new AnalisadorSemantico();
-
-        // Obtém a árvore de parsing
-        ParseTree tree = parser.program();
-
-        // Gera o código P-Code
-        GeradorPCode gerador = new GeradorPCode();
-        gerador.visit(tree);
-        List<String> pcode = gerador.getPCode();
 
         // Define o nome do arquivo de saída
-        String outputFile = "output.pcode";
-        boolean shouldRun = false;
+        String outputFile = null;
+        String runMode = null;
+        boolean binary = false;
+        boolean optimize = true;
+        String peepholeRules = null;
+        String interpretMode = null;
+        String inputsFile = null;
+        Path cacheDir = null;
+        long cacheMax = CacheCompilacao.LIMITE_PADRAO;
+        boolean cacheStats = false;
+        boolean streaming = false;
 
         for (String arg : args) {
             if (arg.startsWith("-output=")) {
                 outputFile = arg.substring("-output=".length());
             } else if (arg.equals("-run")) {
-                shouldRun = true;
+                runMode = "pilha";
+            } else if (arg.startsWith("-run=")) {
+                runMode = arg.substring("-run=".length());
+            } else if (arg.equals("-binary")) {
+                binary = true;
+            } else if (arg.equals("-noopt")) {
+                optimize = false;
+            } else if (arg.startsWith("-peephole=")) {
+                peepholeRules = arg.substring("-peephole=".length());
+            } else if (arg.equals("-interpret")) {
+                interpretMode = "closures";
+            } else if (arg.startsWith("-interpret=")) {
+                interpretMode = arg.substring("-interpret=".length());
+            } else if (arg.startsWith("-entradas=")) {
+                inputsFile = arg.substring("-entradas=".length());
+            } else if (arg.equals("-cache")) {
+                cacheDir = CacheCompilacao.diretorioPadrao();
+            } else if (arg.startsWith("-cache=")) {
+                cacheDir = Paths.get(arg.substring("-cache=".length()));
+            } else if (arg.startsWith("-cachemax=")) {
+                cacheMax = Long.parseLong(arg.substring("-cachemax=".length())) * 1024 * 1024;
+            } else if (arg.equals("-cachestats")) {
+                cacheStats = true;
+            } else if (arg.equals("-streaming")) {
+                streaming = true;
+            }
+        }
+
+        // Compilação comando a comando, sem carregar o arquivo nem a árvore inteira
+        if (streaming) {
+            if (binary || interpretMode != null || cacheDir != null) {
+                System.err.println("O modo -streaming gera apenas P-Code em texto; não combina com -binary, -interpret ou -cache.");
+                return;
+            }
+            if (outputFile == null) {
+                outputFile = "output.pcode";
+            }
+            CompiladorStreaming.Resumo resumo = CompiladorStreaming.compilar(Paths.get(inputFile),
+                    Paths.get(outputFile), optimize, peepholeRules);
+            System.out.println("Memória: " + resumo.memoria() + " endereços para "
+                    + resumo.variaveis() + " variáveis.");
+            System.out.println("Compilação concluída. " + resumo.comandos() + " comandos, "
+                    + resumo.instrucoes() + " instruções geradas em: " + outputFile);
+            return;
+        }
+
+        // Lê o conteúdo do arquivo de entrada
+        String code = Files.readString(Paths.get(inputFile));
+
+        // Execução direta do código-fonte, sem passar pelo P-Code
+        if (interpretMode != null) {
+            AnalisadorSemantico analisador = new AnalisadorSemantico(inputsFile != null
+                    ? CanalES.comEntradas(Paths.get(inputsFile))
+                    : CanalES.console());
+            ParseTree tree = analisar(code);
+            if (interpretMode.equals("arvore")) {
+                analisador.visit(tree);
+            } else {
+                analisador.compilar(tree).executar();
+            }
+            return;
+        }
+
+        // Com o cache, um acerto dispensa a análise e a geração
+        CacheCompilacao cache = cacheDir != null ? new CacheCompilacao(cacheDir, cacheMax) : null;
+        String chave = cache != null ? CacheCompilacao.chave(code, optimize, peepholeRules) : null;
+        // Entradas gravadas pelo modo lote não têm a contagem mostrada aqui e são geradas de novo
+        Geracao geracao = cache != null ? cache.buscar(chave, optimize).orElse(null) : null;
+        boolean acerto = geracao != null;
+        if (geracao == null) {
+            geracao = gerar(analisar(code), optimize, peepholeRules, true);
+            if (cache != null) {
+                cache.gravar(chave, geracao);
             }
         }
+        if (optimize) {
+            System.out.println("Propagação de constantes: " + geracao.economizadas() + " instruções economizadas.");
+        }
+        System.out.println("Memória: " + geracao.memoria() + " endereços para "
+                + geracao.variaveis() + " variáveis.");
+        List<String> pcode = geracao.pcode();
+        if (outputFile == null) {
+            outputFile = binary ? "output.pbin" : "output.pcode";
+        }
 
-        // Escreve o código P-Code no arquivo
-        Files.write(Paths.get(outputFile), pcode);
+        // Escreve o código P-Code no arquivo (texto ou binário)
+        if (binary) {
+            PCodeBinario.escrever(ProgramaPCode.decodificar(pcode), Paths.get(outputFile));
+        } else {
+            Files.write(Paths.get(outputFile), pcode);
+        }
         System.out.println("Compilação concluída. Código P-Code gerado em: " + outputFile);
+        if (cache != null) {
+            long[] totais = cache.registrarEstatisticas();
+            if (cacheStats) {
+                System.out.println("Cache: " + (acerto ? "acerto" : "falha") + " (" + chave.substring(0, 12)
+                        + "); total de " + totais[0] + " acertos e " + totais[1] + " falhas.");
+            }
+        }
 
         // Executa o P-Code se a flag -run estiver presente
-        if (shouldRun) {
-            executePCode(pcode);
+        if (runMode != null) {
+            executePCode(pcode, runMode, inputsFile);
         }
     }
 
-    private static void executePCode(List<String> pcode) {
-        System.out.println("\nExecutando P-Code:");
+    static ParseTree analisar(String code) {
+        return analisar(code, ConsoleErrorListener.INSTANCE);
+    }
+
+    /** Interrompe o primeiro estágio no primeiro erro, inclusive os reportados pelas ações da gramática. */
+    static final BaseErrorListener DESISTENCIA = new BaseErrorListener() {
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                int charPositionInLine, String msg, RecognitionException e) {
+            throw new ParseCancellationException(msg, e);
+        }
+    };
+
+    /**
+     * Análise sintática em dois estágios. O primeiro usa a predição SLL, que
+     * ignora o contexto completo da pilha de regras e basta para quase todos
+     * os programas, com a BailErrorStrategy, que desiste no primeiro erro. Só
+     * quando ele falha os tokens são analisados de novo com a predição LL
+     * completa e a recuperação de erros padrão, que reporta os erros ao ouvinte.
+     */
+    static CompiladoresParser.ProgramContext analisar(String code, ANTLRErrorListener ouvinte) {
+        CompiladoresLexer lexer = new CompiladoresLexer(CharStreams.fromString(code));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(ouvinte);
+        CompiladoresParser parser = new CompiladoresParser(new CommonTokenStream(lexer));
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.addErrorListener(DESISTENCIA);
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.program();
+        } catch (ParseCancellationException e) {
+            // Os tokens já lidos ficam no buffer: o lexer não reporta os mesmos erros duas vezes
+            parser.reset();
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            parser.removeErrorListeners();
+            parser.addErrorListener(ouvinte);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            return parser.program();
+        }
+    }
+
+    /**
+     * P-Code gerado para um programa, com as estatísticas mostradas pelo
+     * compilador; economizadas é -1 quando não foi calculada.
+     */
+    record Geracao(List<String> pcode, int economizadas, int memoria, int variaveis) {
+    }
+
+    /**
+     * Gera o P-Code da árvore: com otimização, dobramento e propagação de
+     * constantes seguidos do peephole (todas as regras ou as indicadas). A
+     * contagem de instruções economizadas exige gerar o código uma segunda vez
+     * sem as constantes.
+     */
+    static Geracao gerar(ParseTree tree, boolean optimize, String peepholeRules, boolean countSaved) {
+        if (!optimize) {
+            GeradorPCode gerador = new GeradorPCode();
+            gerador.visit(tree);
+            return new Geracao(comCabecalho(gerador.getPCode(), gerador.getEscopos().getTamanhoMemoria()), 0,
+                    gerador.getEscopos().getTamanhoMemoria(), gerador.getEscopos().getVariaveis());
+        }
+        PropagadorConstantes propagador = new PropagadorConstantes();
+        propagador.visit(tree);
+        GeradorPCode gerador = new GeradorPCode(propagador);
+        gerador.visit(tree);
+        List<String> pcode = gerador.getPCode();
+
+        int economizadas = -1;
+        if (countSaved) {
+            GeradorPCode semConstantes = new GeradorPCode();
+            semConstantes.visit(tree);
+            economizadas = countInstructions(semConstantes.getPCode()) - countInstructions(pcode);
+        }
+
+        OtimizadorPeephole peephole = peepholeRules != null
+                ? OtimizadorPeephole.comRegras(peepholeRules)
+                : new OtimizadorPeephole();
+        return new Geracao(comCabecalho(peephole.otimizar(pcode), gerador.getEscopos().getTamanhoMemoria()),
+                economizadas, gerador.getEscopos().getTamanhoMemoria(), gerador.getEscopos().getVariaveis());
+    }
+
+    private static List<String> comCabecalho(List<String> pcode, int memoria) {
+        List<String> linhas = GeradorPCode.cabecalho(pcode, memoria);
+        linhas.addAll(pcode);
+        return linhas;
+    }
+
+    static int countInstructions(List<String> pcode) {
+        int count = 0;
         for (String instruction : pcode) {
-            System.out.println(">>> " + instruction);
-            // Aqui entraria a lógica de execução da instrução
+            if (!instruction.endsWith(":") && !ProgramaPCode.ehDiretiva(instruction)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Executa o P-Code gerado na máquina de pilha ou, com o modo "registros",
+     * traduzido para a forma de três endereços e executado na MaquinaRegistros.
+     */
+    private static void executePCode(List<String> pcode, String mode, String inputsFile)
+            throws IOException {
+        if (!mode.equals("pilha") && !mode.equals("registros")) {
+            System.err.println("Modo de execução desconhecido: " + mode + " (use pilha ou registros)");
+            return;
         }
+        System.out.println("\nExecutando P-Code:");
+        ProgramaCarregado programa = new ProgramaCarregado(ProgramaPCode.decodificar(pcode),
+                PCodeMachine.DEFAULT_MEM_LIMIT, Superinstrucoes.padrao());
+        PCodeMachine machine = new PCodeMachine(programa, inputsFile != null
+                ? CanalES.comEntradas(Paths.get(inputsFile))
+                : CanalES.console());
+        machine.setRegisters(mode.equals("registros"));
+        machine.run();
     }
 }
@@ -0,0 +1,331 @@
+package com.uepb;
+
+import java.io.PrintStream;
+
+import static com.uepb.ProgramaPCode.*;
+import static com.uepb.ProgramaRegistros.*;
+
+/**
+ * Execução do ProgramaRegistros, com a mesma semântica do PCodeMachine: as
+ * operações aritméticas produzem reais, comparações e operações lógicas
+ * produzem os inteiros 0 e 1, e os erros têm as mesmas mensagens, com o texto
+ * da instrução P-Code de origem.
+ *
+ * Cada instância é um contexto de execução: o banco de registradores (que
+ * inclui a memória) é dela e o programa pode ser compartilhado.
+ */
+final class MaquinaRegistros {
+    private final ProgramaRegistros programa;
+    private final byte[] tags;
+    private final double[] nums;
+    private final Object[] refs;
+    private PrintStream erros = System.err;
+    private long executadas;
+    private String estado;
+    private String erro;
+
+    MaquinaRegistros(ProgramaRegistros programa) {
+        this.programa = programa;
+        int n = programa.registros();
+        this.tags = new byte[n];
+        this.nums = new double[n];
+        this.refs = new Object[n];
+        int k = programa.primeiraConstante();
+        System.arraycopy(programa.tiposConst, 0, tags, k, programa.constantes.length);
+        System.arraycopy(programa.numConst, 0, nums, k, programa.constantes.length);
+        for (int i = 0; i < programa.constantes.length; i++) {
+            if (programa.tiposConst[i] == T_TEXTO) {
+                refs[k + i] = programa.constantes[i];
+            }
+        }
+    }
+
+    void setErros(PrintStream erros) {
+        this.erros = erros;
+    }
+
+    /** Instruções despachadas na última execução. */
+    long getExecutadas() {
+        return executadas;
+    }
+
+    /** Estado final da última execução: "stp", "fim" ou "erro". */
+    String getEstado() {
+        return estado;
+    }
+
+    /** Mensagem do erro da última execução, ou null. */
+    String getErro() {
+        return erro;
+    }
+
+    void executar(CanalES io) {
+        estado = "fim";
+        erro = null;
+        try {
+            executarInstrucoes(io);
+        } finally {
+            io.descarregar();
+        }
+    }
+
+    private void executarInstrucoes(CanalES io) {
+        final int[] codigo = programa.codigo;
+        final int[] d = programa.d;
+        final int[] a = programa.a;
+        final int[] b = programa.b;
+        final byte[] tags = this.tags;
+        final double[] nums = this.nums;
+        final Object[] refs = this.refs;
+        final int n = codigo.length;
+
+        int i = 0;
+        long passos = 0;
+        try {
+            while (i < n) {
+                passos++;
+                int op = codigo[i];
+                try {
+                    switch (op) {
+                        case R_MOV: {
+                            int x = a[i], r = d[i];
+                            tags[r] = tags[x];
+                            nums[r] = nums[x];
+                            refs[r] = refs[x];
+                            break;
+                        }
+
+                        case R_ADD: {
+                            double y = numero(b[i]);
+                            real(d[i], numero(a[i]) + y);
+                            break;
+                        }
+
+                        case R_SUB: {
+                            double y = numero(b[i]);
+                            real(d[i], numero(a[i]) - y);
+                            break;
+                        }
+
+                        case R_MUL: {
+                            double y = numero(b[i]);
+                            real(d[i], numero(a[i]) * y);
+                            break;
+                        }
+
+                        case R_DIV: {
+                            double y = numero(b[i]);
+                            real(d[i], numero(a[i]) / y);
+                            break;
+                        }
+
+                        case R_POW: {
+                            double y = numero(b[i]);
+                            real(d[i], Math.pow(numero(a[i]), y));
+                            break;
+                        }
+
+                        case R_NEG:
+                            real(d[i], numero(a[i]) * -1);
+                            break;
+
+                        case R_NOT: {
+                            int x = a[i];
+                            if (tags[x] == T_NULO) {
+                                throw PCodeMachine.nullEquals();
+                            }
+                            inteiro(d[i], tags[x] == T_INT && nums[x] == 0 ? 1 : 0);
+                            break;
+                        }
+
+                        case R_EQU:
+                            inteiro(d[i], iguais(a[i], b[i]) ? 1 : 0);
+                            break;
+
+                        case R_NEQ:
+                            inteiro(d[i], iguais(a[i], b[i]) ? 0 : 1);
+                            break;
+
+                        case R_AND: {
+                            int y = booleano(b[i]);
+                            int x = booleano(a[i]);
+                            inteiro(d[i], x != 0 && y != 0 ? 1 : 0);
+                            break;
+                        }
+
+                        case R_OR: {
+                            int y = booleano(b[i]);
+                            int x = booleano(a[i]);
+                            inteiro(d[i], x != 0 || y != 0 ? 1 : 0);
+                            break;
+                        }
+
+                        case R_LET: {
+                            double y = numero(b[i]);
+                            inteiro(d[i], numero(a[i]) < y ? 1 : 0);
+                            break;
+                        }
+
+                        case R_GRT: {
+                            double y = numero(b[i]);
+                            inteiro(d[i], numero(a[i]) > y ? 1 : 0);
+                            break;
+                        }
+
+                        case R_LTE: {
+                            double y = numero(b[i]);
+                            inteiro(d[i], numero(a[i]) <= y ? 1 : 0);
+                            break;
+                        }
+
+                        case R_GTE: {
+                            double y = numero(b[i]);
+                            inteiro(d[i], numero(a[i]) >= y ? 1 : 0);
+                            break;
+                        }
+
+                        case R_TO:
+                            converter(d[i], a[i], b[i]);
+                            break;
+
+                        case R_WRI: {
+                            int x = a[i];
+                            if (tags[x] == T_INT && (nums[x] == 0 || nums[x] == 1)) {
+                                io.escrever(nums[x] == 1 ? "true" : "false");
+                            } else {
+                                io.escrever(String.valueOf(valor(x)));
+                            }
+                            break;
+                        }
+
+                        case R_RD: {
+                            Object valor = ProgramaPCode.parseValue(io.ler("Input: "));
+                            int r = d[i];
+                            tags[r] = tipoDe(valor);
+                            nums[r] = valor instanceof Number ? ((Number) valor).doubleValue() : 0;
+                            refs[r] = tags[r] == T_TEXTO ? valor : null;
+                            break;
+                        }
+
+                        case R_JMP:
+                            i = b[i];
+                            continue;
+
+                        case R_JF:
+                            if (booleano(a[i]) == 0) {
+                                i = b[i];
+                                continue;
+                            }
+                            break;
+
+                        case R_JT:
+                            if (booleano(a[i]) != 0) {
+                                i = b[i];
+                                continue;
+                            }
+                            break;
+
+                        case R_STP:
+                            estado = "stp";
+                            return;
+
+                        default:
+                            falhar(io, String.valueOf(refs[a[i]]));
+                            return;
+                    }
+                } catch (Exception e) {
+                    falhar(io, "Erro ao executar instrução '" + programa.pcode.textoErro(programa.origem[i]) + "': "
+                            + e.getMessage());
+                    return;
+                }
+                i++;
+            }
+        } finally {
+            executadas = passos;
+        }
+    }
+
+    private void falhar(CanalES io, String mensagem) {
+        io.descarregar();
+        erros.println(mensagem);
+        estado = "erro";
+        erro = mensagem;
+    }
+
+    private void real(int r, double valor) {
+        tags[r] = T_REAL;
+        nums[r] = valor;
+        refs[r] = null;
+    }
+
+    private void inteiro(int r, int valor) {
+        tags[r] = T_INT;
+        nums[r] = valor;
+        refs[r] = null;
+    }
+
+    private Object valor(int r) {
+        switch (tags[r]) {
+            case T_INT: return (int) nums[r];
+            case T_REAL: return nums[r];
+            case T_TEXTO: return refs[r];
+            default: return null;
+        }
+    }
+
+    private double numero(int r) {
+        byte tag = tags[r];
+        if (tag == T_INT || tag == T_REAL) {
+            return nums[r];
+        }
+        throw new RuntimeException("Valor não numérico: " + valor(r));
+    }
+
+    private int booleano(int r) {
+        byte tag = tags[r];
+        if (tag == T_INT || tag == T_REAL) {
+            return (int) nums[r] != 0 ? 1 : 0;
+        }
+        throw new RuntimeException("Valor não booleano: " + valor(r));
+    }
+
+    private boolean iguais(int x, int y) {
+        byte tag = tags[x];
+        if (tag == T_NULO) {
+            throw PCodeMachine.nullEquals();
+        }
+        if (tag != tags[y]) {
+            return false;
+        }
+        switch (tag) {
+            case T_INT: return nums[x] == nums[y];
+            case T_REAL: return Double.doubleToLongBits(nums[x]) == Double.doubleToLongBits(nums[y]);
+            default: return refs[x].equals(refs[y]);
+        }
+    }
+
+    private void converter(int r, int x, int tipo) {
+        byte tag = tags[x];
+        switch (tipo) {
+            case TO_INT:
+                if (tag == T_REAL || tag == T_INT) {
+                    inteiro(r, (int) nums[x]);
+                    return;
+                }
+                break;
+            case TO_FLOAT:
+                if (tag == T_INT || tag == T_REAL) {
+                    real(r, nums[x]);
+                    return;
+                }
+                break;
+            case TO_BOOL:
+                if (tag == T_INT || tag == T_REAL) {
+                    inteiro(r, (int) nums[x] != 0 ? 1 : 0);
+                    return;
+                }
+                break;
+        }
+        throw new RuntimeException("Não é possível converter " + valor(x) + " para " + PCodeMachine.TIPOS[tipo]);
+    }
+}
@@ -0,0 +1,245 @@
+package com.uepb;
+
+import java.util.*;
+
+/**
+ * Otimizador peephole executado entre a geração do P-Code e a escrita da saída.
+ * Uma janela percorre a lista de instruções e cada regra configurada tenta
+ * reescrever o trecho a partir da posição atual; o processo se repete até que
+ * nenhuma regra altere mais o código.
+ *
+ * As diretivas ".fonte" do mapa de fonte não aparecem para as regras: cada
+ * linha guarda a posição no código-fonte que vale para ela, as linhas criadas
+ * por uma regra herdam a da primeira linha substituída, e as diretivas são
+ * escritas de novo no resultado onde a posição muda.
+ */
+public class OtimizadorPeephole {
+    private final List<RegraPeephole> regras;
+    // Compartilhado pelas chamadas de otimizar: trechos do mesmo programa não repetem labels
+    private int proximoLabel;
+
+    public OtimizadorPeephole() {
+        this(List.of(RegrasPeephole.values()));
+    }
+
+    public OtimizadorPeephole(List<? extends RegraPeephole> regras) {
+        this.regras = List.copyOf(regras);
+    }
+
+    /** Cria o otimizador a partir de nomes de regras separados por vírgula (ex.: "NEG,NOT"). */
+    public static OtimizadorPeephole comRegras(String nomes) {
+        List<RegraPeephole> selecionadas = new ArrayList<>();
+        for (String nome : nomes.split(",")) {
+            if (!nome.isBlank()) {
+                selecionadas.add(RegrasPeephole.valueOf(nome.trim().toUpperCase()));
+            }
+        }
+        return new OtimizadorPeephole(selecionadas);
+    }
+
+    public List<String> otimizar(List<String> pcode) {
+        Janela janela = new Janela(pcode);
+        janela.proximoLabel = proximoLabel;
+        boolean mudou = true;
+        while (mudou) {
+            mudou = false;
+            for (janela.pos = 0; janela.pos < janela.codigo.size(); janela.pos++) {
+                for (RegraPeephole regra : regras) {
+                    if (janela.pos < janela.codigo.size() && regra.aplicar(janela)) {
+                        mudou = true;
+                    }
+                }
+            }
+        }
+        proximoLabel = janela.proximoLabel;
+        return janela.resultado();
+    }
+
+    /**
+     * Visão do código a partir de uma posição. Os índices passados aos métodos
+     * são relativos à posição atual da janela; as posições de labels e a
+     * contagem de referências são recalculadas a cada alteração.
+     */
+    public static final class Janela {
+        private final List<String> codigo = new ArrayList<>();
+        // Diretiva ".fonte" de cada linha do código; null se o trecho não tem mapa de fonte
+        private List<String> fontes;
+        private int pos;
+        private Map<String, Integer> posicoesLabels;
+        private Map<String, Integer> referencias;
+        private int proximoLabel;
+
+        private Janela(List<String> linhas) {
+            String fonte = null;
+            for (String linha : linhas) {
+                if (linha.startsWith(".fonte ")) {
+                    if (fontes == null) {
+                        fontes = new ArrayList<>(Collections.nCopies(codigo.size(), null));
+                    }
+                    fonte = linha;
+                    continue;
+                }
+                codigo.add(linha);
+                if (fontes != null) {
+                    fontes.add(fonte);
+                }
+            }
+        }
+
+        /** Código otimizado, com a diretiva ".fonte" antes de cada instrução em que a posição muda. */
+        private List<String> resultado() {
+            if (fontes == null) {
+                return codigo;
+            }
+            List<String> linhas = new ArrayList<>(codigo.size() + codigo.size() / 4);
+            String escrita = null;
+            for (int i = 0; i < codigo.size(); i++) {
+                String fonte = fontes.get(i);
+                if (fonte != null && !fonte.equals(escrita) && !ehLabel(codigo.get(i))) {
+                    linhas.add(fonte);
+                    escrita = fonte;
+                }
+                linhas.add(codigo.get(i));
+            }
+            return linhas;
+        }
+
+        /** Posição no código-fonte herdada por uma linha inserida no índice absoluto idx. */
+        private String fonteEm(int idx) {
+            if (idx < fontes.size()) {
+                return fontes.get(idx);
+            }
+            return idx > 0 ? fontes.get(idx - 1) : null;
+        }
+
+        /** Linha na posição relativa i, ou null fora do código. */
+        public String get(int i) {
+            int idx = pos + i;
+            return idx >= 0 && idx < codigo.size() ? codigo.get(idx) : null;
+        }
+
+        /** Troca n linhas a partir da posição relativa i pelas novas linhas. */
+        public void substituir(int i, int n, String... novas) {
+            int inicio = pos + i;
+            String fonte = fontes != null ? fonteEm(inicio) : null;
+            for (int k = 0; k < n; k++) {
+                codigo.remove(inicio);
+                if (fontes != null) {
+                    fontes.remove(inicio);
+                }
+            }
+            codigo.addAll(inicio, Arrays.asList(novas));
+            if (fontes != null) {
+                fontes.addAll(inicio, Collections.nCopies(novas.length, fonte));
+            }
+            invalidar();
+        }
+
+        /** Posição relativa da linha do label, ou null se ele não existir. */
+        public Integer posicaoDoLabel(String label) {
+            if (posicoesLabels == null) {
+                indexar();
+            }
+            Integer abs = posicoesLabels.get(label);
+            return abs == null ? null : abs - pos;
+        }
+
+        /** Primeira posição relativa, a partir de i, que não é um label. */
+        public int pularLabels(int i) {
+            while (ehLabel(get(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        /** Verifica se o label aparece na sequência de labels que começa em i. */
+        public boolean labelNaSequencia(String label, int i) {
+            while (ehLabel(get(i))) {
+                if (nomeLabel(get(i)).equals(label)) {
+                    return true;
+                }
+                i++;
+            }
+            return false;
+        }
+
+        public int referencias(String label) {
+            if (referencias == null) {
+                indexar();
+            }
+            return referencias.getOrDefault(label, 0);
+        }
+
+        /**
+         * Garante que há um label na posição relativa i e devolve o seu nome,
+         * criando um novo label quando necessário.
+         */
+        public String labelEm(int i) {
+            String linha = get(i);
+            if (ehLabel(linha)) {
+                return nomeLabel(linha);
+            }
+            if (posicoesLabels == null) {
+                indexar();
+            }
+            String novo;
+            do {
+                novo = "LP_" + proximoLabel++;
+            } while (posicoesLabels.containsKey(novo));
+            if (fontes != null) {
+                fontes.add(pos + i, fonteEm(pos + i));
+            }
+            codigo.add(pos + i, novo + ":");
+            if (i <= 0) {
+                // A inserção empurrou a própria janela uma linha para frente
+                pos++;
+            }
+            invalidar();
+            return novo;
+        }
+
+        private void invalidar() {
+            posicoesLabels = null;
+            referencias = null;
+        }
+
+        private void indexar() {
+            posicoesLabels = new HashMap<>();
+            referencias = new HashMap<>();
+            for (int i = 0; i < codigo.size(); i++) {
+                String linha = codigo.get(i);
+                if (ehLabel(linha)) {
+                    posicoesLabels.put(nomeLabel(linha), i);
+                } else if (ehSalto(linha)) {
+                    referencias.merge(operando(linha), 1, Integer::sum);
+                }
+            }
+        }
+
+        public static boolean ehLabel(String linha) {
+            return linha != null && linha.endsWith(":");
+        }
+
+        public static String nomeLabel(String linha) {
+            return linha.substring(0, linha.length() - 1);
+        }
+
+        public static boolean ehSalto(String linha) {
+            Integer opcode = ProgramaPCode.opcode(op(linha));
+            return opcode != null && ProgramaPCode.salta(opcode);
+        }
+
+        public static String op(String linha) {
+            if (linha == null) {
+                return "";
+            }
+            int espaco = linha.indexOf(' ');
+            return espaco < 0 ? linha : linha.substring(0, espaco);
+        }
+
+        public static String operando(String linha) {
+            int espaco = linha.indexOf(' ');
+            return espaco < 0 ? "" : linha.substring(espaco + 1).trim();
+        }
+    }
+}
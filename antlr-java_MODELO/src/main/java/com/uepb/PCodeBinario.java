@@ -0,0 +1,145 @@
+package com.uepb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Formato binário do P-Code:
+ *
+ * <pre>
+ * cabeçalho   : magic "PCOD" (int), versão (int), células de memória (int) e
+ *               altura máxima da pilha (int), -1 quando não conhecidas
+ * constantes  : quantidade (int), e para cada uma: tipo (byte) + valor
+ *               (int para T_INT, double para T_REAL, tamanho + UTF-8 para T_TEXTO)
+ * instruções  : quantidade (int), e para cada uma: opcode (int) + operando (int)
+ * mapa fonte  : 1 (int) seguido da linha e da coluna (int) de cada instrução,
+ *               ou 0 quando o programa não tem mapa de fonte
+ * </pre>
+ *
+ * Os operandos de salto já são índices absolutos de instrução, então a máquina
+ * começa a executar sem resolver labels nem interpretar texto. Arquivos das
+ * versões 1 (sem memória e pilha no cabeçalho) e 2 (sem o mapa de fonte)
+ * continuam sendo lidos.
+ */
+public final class PCodeBinario {
+    public static final int MAGIC = 0x50434F44;
+    public static final int VERSAO = 3;
+
+    private PCodeBinario() {
+    }
+
+    public static void escrever(ProgramaPCode programa, Path arquivo) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(arquivo)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSAO);
+            out.writeInt(programa.memoria);
+            out.writeInt(programa.pilha);
+
+            Object[] constantes = programa.constantes;
+            out.writeInt(constantes.length);
+            for (Object c : constantes) {
+                byte tipo = ProgramaPCode.tipoDe(c);
+                out.writeByte(tipo);
+                switch (tipo) {
+                    case ProgramaPCode.T_INT -> out.writeInt((Integer) c);
+                    case ProgramaPCode.T_REAL -> out.writeDouble((Double) c);
+                    case ProgramaPCode.T_TEXTO -> {
+                        byte[] bytes = ((String) c).getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                    default -> { }
+                }
+            }
+
+            int tamanho = programa.tamanho();
+            out.writeInt(tamanho);
+            for (int i = 0; i < tamanho; i++) {
+                out.writeInt(programa.codigo[i]);
+                out.writeInt(programa.args[i]);
+            }
+            out.writeInt(programa.temMapaFonte() ? 1 : 0);
+            if (programa.temMapaFonte()) {
+                for (int i = 0; i < tamanho; i++) {
+                    out.writeInt(programa.linhasFonte[i]);
+                    out.writeInt(programa.colunasFonte[i]);
+                }
+            }
+        }
+    }
+
+    public static boolean ehBinario(Path arquivo) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(arquivo))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    public static ProgramaPCode ler(Path arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            return ler(buffer);
+        }
+    }
+
+    public static ProgramaPCode ler(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Arquivo não está no formato P-Code binário");
+        }
+        int versao = buffer.getInt();
+        if (versao < 1 || versao > VERSAO) {
+            throw new IOException("Versão de P-Code binário não suportada: " + versao);
+        }
+        int memoria = versao >= 2 ? buffer.getInt() : -1;
+        int pilha = versao >= 2 ? buffer.getInt() : -1;
+
+        Object[] constantes = new Object[buffer.getInt()];
+        for (int i = 0; i < constantes.length; i++) {
+            byte tipo = buffer.get();
+            switch (tipo) {
+                case ProgramaPCode.T_INT -> constantes[i] = buffer.getInt();
+                case ProgramaPCode.T_REAL -> constantes[i] = buffer.getDouble();
+                case ProgramaPCode.T_TEXTO -> {
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    constantes[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                default -> constantes[i] = null;
+            }
+        }
+
+        int tamanho = buffer.getInt();
+        int[] instrucoes = new int[tamanho * 2];
+        IntBuffer ints = buffer.slice().asIntBuffer();
+        ints.get(instrucoes);
+
+        int[] codigo = new int[tamanho];
+        int[] args = new int[tamanho];
+        for (int i = 0; i < tamanho; i++) {
+            codigo[i] = instrucoes[2 * i];
+            args[i] = instrucoes[2 * i + 1];
+        }
+        int[] linhas = null;
+        int[] colunas = null;
+        if (versao >= 3 && ints.get() == 1) {
+            int[] mapa = new int[tamanho * 2];
+            ints.get(mapa);
+            linhas = new int[tamanho];
+            colunas = new int[tamanho];
+            for (int i = 0; i < tamanho; i++) {
+                linhas[i] = mapa[2 * i];
+                colunas[i] = mapa[2 * i + 1];
+            }
+        }
+        return new ProgramaPCode(codigo, args, constantes, null, memoria, pilha, linhas, colunas);
+    }
+}
@@ -1,28 +1,123 @@
 package com.uepb;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
+import static com.uepb.ProgramaPCode.*;
+
+/**
+ * Contexto de execução de um programa P-Code: pilha, memória, pc e E/S de uma
+ * execução. O programa em si fica no ProgramaCarregado, que não muda e pode
+ * ser compartilhado por várias máquinas, inclusive em threads diferentes.
+ */
 public class PCodeMachine {
-    private final Stack<Object> stack = new Stack<>();
-    private final Object[] memory;
-    private final Map<String, Integer> labels = new HashMap<>();
-    private final List<String> instructions = new ArrayList<>();
+    static final String[] TIPOS = {"int", "float", "bool"};
+    /** Limite padrão da memória dos programas sem cabeçalho. */
+    static final int DEFAULT_MEM_LIMIT = 1 << 20;
+
+    /** Operandos que cada instrução desempilha; fora dos programas verificados, conferidos antes dela. */
+    private static final byte[] OPERANDS = new byte[NOMES.length];
+
+    static {
+        for (int op = 0; op < OPERANDS.length; op++) {
+            switch (generico(op)) {
+                case ADD, SUB, MUL, DIV, EQU, NEQ, AND, OR, LET, GRT, LTE, GTE, CALL, STO,
+                     JLT, JNLT, JGT, JNGT, JEQ, JNE -> OPERANDS[op] = 2;
+                case NEG, NOT, TO, STO_DIRETO, WRI, FJP, TJP -> OPERANDS[op] = 1;
+                default -> OPERANDS[op] = 0;
+            }
+        }
+    }
+
+    // Pilha de operandos: etiqueta de tipo, valor numérico e referência (só para strings) por posição
+    private byte[] stackTags;
+    private double[] stackNums;
+    private Object[] stackRefs;
+    private int sp = 0;
+
+    // Memória com a mesma representação da pilha; alocada na carga do programa
+    private byte[] memTags;
+    private double[] memNums;
+    private Object[] memRefs;
+
+    private ProgramaCarregado loaded;
+    private ProgramaPCode program;
     private boolean debugMode;
     private int waitTime;
     private int pc = 0;
+    private long executedInstructions;
+    private Path profileOutput;
+    // Perfil pelo código-fonte: relatório em texto e pilhas colapsadas
+    private Path lineProfile;
+    private Path flameGraph;
+    private PerfilFonte sourceProfiler;
+    private boolean jit;
+    private boolean registers;
+    private boolean verify = true;
+    // Resultado da verificação do programa carregado; null quando ela está desligada
+    private VerificadorPCode.Resultado verification;
+
+    // Instrumentação: contadores, anel de eventos e resumo da execução
+    private boolean trace;
+    private Path metricsOutput;
+    private RastreadorVM tracer;
+    private String endState;
+    private String error;
+    private boolean jfr;
+
+    private CanalES io;
+    private PrintStream errors = System.err;
+
+    // Execução em camadas: contadores de saltos de volta por cabeçalho de laço
+    private boolean tiered;
+    private int tierThreshold1 = 1000;
+    private int tierThreshold2 = 10000;
+    private Path tierReport;
+    private final List<TierDecision> tierDecisions = new ArrayList<>();
 
-    public PCodeMachine(int memSize, boolean debug, int waitTime) {
-        this.memory = new Object[memSize];
+    /**
+     * Promoção (ou volta) de um laço para uma camada: 1 é o código com
+     * superinstruções, 2 o laço compilado para bytecode. A latência é o tempo
+     * gasto na promoção e o instante é medido a partir do início da execução.
+     */
+    record TierDecision(int header, int end, int tier, long backEdges,
+                        long latencyNanos, long elapsedNanos, String reason) {
+    }
+
+    public PCodeMachine(boolean debug, int waitTime) {
         this.debugMode = debug;
         this.waitTime = waitTime;
     }
 
+    /** Contexto sem debug para o programa. */
+    public PCodeMachine(ProgramaCarregado program, CanalES io) {
+        this(false, 0);
+        load(program);
+        this.io = io;
+    }
+
     public static void main(String[] args) throws Exception {
         String inputFile = null;
-        boolean debug = true;
-        int waitTime = 500;
-        int memSize = 250;
+        boolean debug = false;
+        int waitTime = 0;
+        int memSize = DEFAULT_MEM_LIMIT;
+        String superArg = null;
+        String profileFile = null;
+        boolean jit = false;
+        Boolean tiered = null;
+        String thresholds = null;
+        String tierReport = null;
+        boolean trace = false;
+        String metricsFile = null;
+        String inputsFile = null;
+        boolean registers = false;
+        String registerListing = null;
+        boolean verify = true;
+        String lineProfile = null;
+        String flameGraph = null;
 
         for (String arg : args) {
             if (arg.startsWith("-Input=") || arg.startsWith("-i=")) {
@@ -33,264 +128,1051 @@ public class PCodeMachine {
                 waitTime = Integer.parseInt(arg.split("=")[1]);
             } else if (arg.startsWith("-MemSize=") || arg.startsWith("-m=")) {
                 memSize = Integer.parseInt(arg.split("=")[1]);
+            } else if (arg.startsWith("-Super=") || arg.startsWith("-s=")) {
+                superArg = arg.split("=")[1];
+            } else if (arg.startsWith("-Profile=") || arg.startsWith("-p=")) {
+                profileFile = arg.split("=")[1];
+            } else if (arg.equals("-jit")) {
+                jit = true;
+            } else if (arg.startsWith("-Jit=") || arg.startsWith("-j=")) {
+                jit = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-Tiered=") || arg.startsWith("-t=")) {
+                tiered = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-TierThresholds=")) {
+                thresholds = arg.split("=")[1];
+            } else if (arg.startsWith("-TierReport=")) {
+                tierReport = arg.split("=")[1];
+            } else if (arg.startsWith("-Registers=") || arg.startsWith("-r=")) {
+                registers = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-RegisterListing=")) {
+                registerListing = arg.split("=")[1];
+            } else if (arg.startsWith("-Verify=") || arg.startsWith("-v=")) {
+                verify = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-LineProfile=")) {
+                lineProfile = arg.split("=")[1];
+            } else if (arg.startsWith("-FlameGraph=")) {
+                flameGraph = arg.split("=")[1];
+            } else if (arg.startsWith("-Trace=")) {
+                trace = Boolean.parseBoolean(arg.split("=")[1]);
+            } else if (arg.startsWith("-Metrics=")) {
+                metricsFile = arg.split("=")[1];
+            } else if (arg.startsWith("-Entradas=") || arg.startsWith("-e=")) {
+                inputsFile = arg.split("=")[1];
             }
         }
 
         if (inputFile == null) {
-            System.err.println("Uso: java -jar pcode.jar -Input=arquivo.pcode [-Debug=true|false] [-WaitTime=ms] [-MemSize=cells]");
+            System.err.println("Uso: java -jar pcode.jar -Input=arquivo.pcode|arquivo.pbin [-Debug=true|false] [-WaitTime=ms] [-MemSize=limite] [-Super=padrao|nenhuma|perfil.txt] [-Profile=perfil.txt] [-LineProfile=relatorio.txt] [-FlameGraph=pilhas.folded] [-Jit=true|false] [-Registers=true|false] [-RegisterListing=arquivo.txt] [-Verify=true|false] [-Tiered=true|false] [-TierThresholds=t1,t2] [-TierReport=arquivo.tsv] [-Trace=true|false] [-Metrics=arquivo.json] [-Entradas=arquivo.txt]");
             return;
         }
 
-        PCodeMachine machine = new PCodeMachine(memSize, debug, waitTime);
-        machine.loadInstructions(inputFile);
-        machine.resolveLabels();
+        PCodeMachine machine = new PCodeMachine(debug, waitTime);
+        if (profileFile != null) {
+            machine.setProfileOutput(Paths.get(profileFile));
+        }
+        if (lineProfile != null) {
+            machine.setLineProfile(Paths.get(lineProfile));
+        }
+        if (flameGraph != null) {
+            machine.setFlameGraph(Paths.get(flameGraph));
+        }
+        machine.setJit(jit);
+        machine.setRegisters(registers);
+        machine.setVerify(verify);
+        if (inputsFile != null) {
+            machine.setIo(CanalES.comEntradas(Paths.get(inputsFile)));
+        }
+        machine.setTrace(trace || metricsFile != null);
+        if (metricsFile != null) {
+            machine.setMetricsOutput(Paths.get(metricsFile));
+        }
+        if (thresholds != null) {
+            String[] t = thresholds.split(",");
+            machine.setTierThresholds(Integer.parseInt(t[0].trim()), Integer.parseInt(t[1].trim()));
+        }
+        if (tierReport != null) {
+            machine.setTierReport(Paths.get(tierReport));
+        }
+        machine.setTiered(tiered != null ? tiered : thresholds != null || tierReport != null);
+        ProgramaCarregado program = ProgramaCarregado.carregar(Paths.get(inputFile), memSize, superinstructions(superArg));
+        machine.load(program);
+        if (registerListing != null) {
+            writeRegisterListing(program, Paths.get(registerListing));
+        }
         machine.run();
     }
 
-    private void loadInstructions(String filename) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                instructions.add(line.trim());
-            }
+    /** Grava a tradução para registradores, uma instrução por linha, ou o motivo de não haver tradução. */
+    private static void writeRegisterListing(ProgramaCarregado program, Path file) throws IOException {
+        ProgramaRegistros.Traducao traducao = program.getRegistros();
+        Files.write(file, traducao.traduzido() ? traducao.programa().listar()
+                : List.of("; não traduzido: " + traducao.motivo()));
+    }
+
+    /** Superinstruções do argumento -Super: padrao, nenhuma ou um arquivo de perfil. */
+    static Set<Superinstrucoes.Tipo> superinstructions(String arg) throws IOException {
+        if (arg == null || arg.equals("padrao")) {
+            return Superinstrucoes.padrao();
         }
+        return arg.equals("nenhuma") ? EnumSet.noneOf(Superinstrucoes.Tipo.class) : Superinstrucoes.lerPerfil(Paths.get(arg));
     }
 
-    private void resolveLabels() {
-        for (int i = 0; i < instructions.size(); i++) {
-            String line = instructions.get(i);
-            if (line.endsWith(":")) {
-                String label = line.substring(0, line.length() - 1);
-                labels.put(label, i);
-            }
+    /** Quantidade de instruções despachadas na última execução. */
+    long getExecutedInstructions() {
+        return executedInstructions;
+    }
+
+    /**
+     * Coleta a frequência de n-gramas durante a execução e grava o perfil no
+     * arquivo ao final. A execução de perfil não usa superinstruções.
+     */
+    void setProfileOutput(Path profileOutput) {
+        this.profileOutput = profileOutput;
+    }
+
+    /**
+     * Perfil pelo código-fonte (PerfilFonte): instruções e tempo por linha e
+     * por laço, gravados neste arquivo ao final. Como o perfil de n-gramas, a
+     * execução usa o interpretador, sem superinstruções nem camadas.
+     */
+    void setLineProfile(Path lineProfile) {
+        this.lineProfile = lineProfile;
+    }
+
+    /** Grava o mesmo perfil em pilhas colapsadas, para gerar um flame graph. */
+    void setFlameGraph(Path flameGraph) {
+        this.flameGraph = flameGraph;
+    }
+
+    /**
+     * Executa o programa compilado para bytecode da JVM quando ele é elegível;
+     * caso contrário, e nos modos debug e de perfil, usa o interpretador.
+     */
+    void setJit(boolean jit) {
+        this.jit = jit;
+    }
+
+    /**
+     * Executa o programa traduzido para a forma de registradores
+     * (ProgramaRegistros) na MaquinaRegistros; programas que não podem ser
+     * traduzidos, e os modos debug, de perfil e com instrumentação, usam o
+     * interpretador de pilha. Tem precedência sobre o JIT e as camadas.
+     */
+    void setRegisters(boolean registers) {
+        this.registers = registers;
+    }
+
+    /**
+     * Verifica o programa na carga (VerificadorPCode): um programa rejeitado
+     * não executa, e um aprovado roda no caminho rápido, sem conferir a altura
+     * da pilha. Desligada, o programa executa sem verificação, com todas as
+     * conferências em tempo de execução. Precisa vir antes do load.
+     */
+    void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Execução em camadas: todo o código começa nas instruções originais e um
+     * laço passa para as superinstruções ao atingir o primeiro limite de saltos
+     * de volta e para bytecode da JVM ao atingir o segundo, sem sair do laço.
+     * Os modos debug e de perfil e o JIT do programa inteiro não usam camadas.
+     */
+    void setTiered(boolean tiered) {
+        this.tiered = tiered;
+    }
+
+    void setTierThresholds(int tier1, int tier2) {
+        if (tier1 < 1 || tier2 < tier1) {
+            throw new IllegalArgumentException("Limites inválidos para as camadas: " + tier1 + "," + tier2);
         }
+        this.tierThreshold1 = tier1;
+        this.tierThreshold2 = tier2;
     }
 
-    private void run() {
-        Scanner scanner = new Scanner(System.in);
+    /** Grava as decisões de camada da execução no arquivo, em colunas separadas por tabulação. */
+    void setTierReport(Path tierReport) {
+        this.tierReport = tierReport;
+    }
 
-        while (pc < instructions.size()) {
-            String line = instructions.get(pc);
+    /** Decisões de camada da última execução, na ordem em que foram tomadas. */
+    List<TierDecision> getTierDecisions() {
+        return Collections.unmodifiableList(tierDecisions);
+    }
+
+    /**
+     * Liga a instrumentação: contagem por opcode, anel com as últimas
+     * instruções (mostrado no stderr quando a execução falha) e resumo em JSON
+     * ao final. Desligada, o laço de despacho não paga nada por ela. Com a
+     * instrumentação ligada o JIT e as camadas não são usados.
+     */
+    void setTrace(boolean trace) {
+        this.trace = trace;
+    }
+
+    /** Arquivo do resumo da execução; sem ele o resumo vai para o stderr. */
+    void setMetricsOutput(Path metricsOutput) {
+        this.metricsOutput = metricsOutput;
+    }
+
+    /**
+     * Canal de entrada e saída de rd/wri; sem ele, cada execução usa o
+     * console. A saída é descarregada ao final de cada execução.
+     */
+    void setIo(CanalES io) {
+        this.io = io;
+    }
 
-            if (debugMode) {
-                System.out.println("PC: " + pc + " | Inst: " + line);
-                System.out.println("Stack: " + stack);
-                try {
-                    Thread.sleep(waitTime);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+    /** Destino das mensagens de erro da execução; por padrão, o System.err. */
+    void setErrors(PrintStream errors) {
+        this.errors = errors;
+    }
+
+    /** Instrumentação da última execução, ou null se ela estava desligada. */
+    RastreadorVM getTracer() {
+        return tracer;
+    }
+
+    /** Estado final da última execução: "stp", "fim" ou "erro". */
+    String getEndState() {
+        return endState;
+    }
+
+    /** Mensagem do erro da última execução, ou null se ela terminou normalmente. */
+    String getError() {
+        return error;
+    }
+
+    /**
+     * Carrega o programa compartilhado e aloca a memória dele; a pilha tem a
+     * altura calculada pela verificação ou, sem ela, a do cabeçalho. O modo debug
+     * e a execução de perfil ignoram a fusão e enxergam sempre as instruções
+     * originais.
+     */
+    void load(ProgramaCarregado program) {
+        this.loaded = program;
+        this.program = program.getPrograma();
+        int memSize = program.getTamanhoMemoria();
+        memTags = new byte[memSize];
+        memNums = new double[memSize];
+        memRefs = new Object[memSize];
+        verification = verify ? program.getVerificacao() : null;
+        if (verification != null && verification.aprovado() && !verification.rapido()) {
+            // Aprovado sem conferir os operandos: fica no caminho que confere a pilha
+            verification = null;
+        }
+        int height = verification != null && verification.aprovado() ? verification.altura() : program.getAlturaPilha();
+        int stackSize = height >= 0 ? Math.max(height, 1) : 64;
+        stackTags = new byte[stackSize];
+        stackNums = new double[stackSize];
+        stackRefs = new Object[stackSize];
+        sp = 0;
+    }
+
+    void run() throws IOException {
+        long[] profile = profileOutput != null ? new long[program.tamanho()] : null;
+        sourceProfiler = lineProfile != null || flameGraph != null ? new PerfilFonte(program) : null;
+        tracer = trace ? new RastreadorVM() : null;
+        endState = "fim";
+        error = null;
+        jfr = RastreadorVM.jfrAtivo();
+        RastreadorVM.Execucao event = jfr ? RastreadorVM.iniciarExecucao() : null;
+        CanalES io = this.io != null ? this.io : CanalES.console();
+        try {
+            run(profile, io);
+        } finally {
+            io.descarregar();
+            if (event != null) {
+                RastreadorVM.concluirExecucao(event, executedInstructions, endState);
+            }
+            if (profile != null) {
+                Superinstrucoes.gravarPerfil(program, profile, profileOutput);
+            }
+            if (sourceProfiler != null) {
+                sourceProfiler.concluir();
+                if (lineProfile != null) {
+                    sourceProfiler.gravarRelatorio(lineProfile);
+                }
+                if (flameGraph != null) {
+                    sourceProfiler.gravarPilhas(flameGraph);
                 }
             }
+            if (tierReport != null) {
+                writeTierReport();
+            }
+            if (tracer != null) {
+                writeMetrics(tracer.resumo(endState, pc));
+            }
+        }
+    }
 
-            if (line.endsWith(":")) {
-                pc++;
-                continue;
+    private void writeMetrics(String summary) throws IOException {
+        if (metricsOutput != null) {
+            Files.writeString(metricsOutput, summary + System.lineSeparator());
+        } else {
+            System.err.println(summary);
+        }
+    }
+
+    private void writeTierReport() throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tierReport))) {
+            out.println("cabecalho\tfim\ttier\tsaltos\tlatencia_us\tinstante_ms\tdetalhe");
+            for (TierDecision d : tierDecisions) {
+                out.printf(Locale.ROOT, "%d\t%d\t%d\t%d\t%.1f\t%.3f\t%s%n", d.header(), d.end(), d.tier(),
+                        d.backEdges(), d.latencyNanos() / 1e3, d.elapsedNanos() / 1e6, d.reason());
             }
+        }
+    }
+
+    private void run(long[] profile, CanalES io) {
+        final RastreadorVM tracer = this.tracer;
+        final PerfilFonte lines = this.sourceProfiler;
+        // Os perfis contam as instruções originais, uma a uma
+        final boolean counting = profile != null || lines != null;
+        if (verification != null && !verification.aprovado()) {
+            fail(io, "Programa rejeitado pelo verificador: " + verification.erro(), tracer);
+            return;
+        }
+        if (registers && !counting && tracer == null && !debugMode && runRegisters(io)) {
+            return;
+        }
+        if (jit && !counting && tracer == null && !debugMode && runCompiled(io)) {
+            return;
+        }
+        final int[] base = program.codigo;
+        final int[] args = program.args;
+        final Object[] constants = program.constantes;
+        final byte[] constTags = program.tiposConst;
+        final double[] constNums = program.numConst;
+        final int size = base.length;
 
-            String[] parts = line.split(" ");
-            String instr = parts[0];
+        // Superinstruções: o código fundido é despachado e "base" guarda as instruções originais
+        final Superinstrucoes fused = !counting && !debugMode ? loaded.getFundido() : null;
+        // Com camadas, o código começa sem fusão e cada laço quente recebe a sua parte
+        final boolean tiering = tiered && !counting && tracer == null && !debugMode;
+        final int[] code = tiering ? base.clone() : fused != null ? fused.codigo : base;
+        final int[] sa = fused != null ? fused.a : null;
+        final int[] sb = fused != null ? fused.b : null;
+        final int[] sc = fused != null ? fused.c : null;
+        final int[] sd = fused != null ? fused.d : null;
 
-            try {
-                switch (instr) {
-                    case "lda":
-                        stack.push(Integer.parseInt(parts[1].replace("#", "")));
+        final int[] backEdges = tiering ? new int[size] : null;
+        final CompiladorJit.Resultado[] compiledLoops = tiering ? new CompiladorJit.Resultado[size] : null;
+        tierDecisions.clear();
+        final long start = System.nanoTime();
+        // Um único teste por instrução cobre perfil, instrumentação e debug
+        final boolean instrumented = counting || tracer != null || debugMode;
+        // Um programa aprovado pelo verificador roda com a pilha na altura máxima
+        // calculada por ele e sem conferir a altura; os demais conferem antes de cada instrução
+        final boolean checked = verification == null;
+        byte[] tags = stackTags;
+        double[] nums = stackNums;
+        Object[] refs = stackRefs;
+        int pc = this.pc;
+        int sp = this.sp;
+        long steps = 0;
+        try {
+            while (pc < size) {
+                int op = code[pc];
+                steps++;
+                if (instrumented) {
+                    this.pc = pc;
+                    this.sp = sp;
+                    instrument(op, profile, lines, tracer, io);
+                }
+                if (checked && sp == tags.length) {
+                    // Nenhuma instrução empilha mais de um valor
+                    growStack();
+                    tags = stackTags;
+                    nums = stackNums;
+                    refs = stackRefs;
+                }
+
+                if (op >= Superinstrucoes.LOD_LOD_ARIT) {
+                    // Caminho rápido das superinstruções; se o caso não for tratado,
+                    // a instrução original desta posição é executada normalmente
+                    switch (op) {
+                        case Superinstrucoes.LOD_LOD_ARIT: {
+                            int x = sa[pc], y = sb[pc];
+                            if (isNumber(memTags[x]) && isNumber(memTags[y])) {
+                                tags[sp] = T_REAL;
+                                nums[sp++] = arithmetic(sc[pc], memNums[x], memNums[y]);
+                                pc += 3;
+                                continue;
+                            }
+                            break;
+                        }
+                        case Superinstrucoes.LOD_LDC_ARIT: {
+                            int x = sa[pc];
+                            if (isNumber(memTags[x])) {
+                                tags[sp] = T_REAL;
+                                nums[sp++] = arithmetic(sc[pc], memNums[x], constNums[sb[pc]]);
+                                pc += 3;
+                                continue;
+                            }
+                            break;
+                        }
+                        case Superinstrucoes.LOD_LOD_ARIT_STO: {
+                            int x = sa[pc], y = sb[pc];
+                            if (isNumber(memTags[x]) && isNumber(memTags[y])) {
+                                storeReal(sd[pc], arithmetic(sc[pc], memNums[x], memNums[y]));
+                                pc += 4;
+                                continue;
+                            }
+                            break;
+                        }
+                        case Superinstrucoes.LOD_LDC_ARIT_STO: {
+                            int x = sa[pc];
+                            if (isNumber(memTags[x])) {
+                                storeReal(sd[pc], arithmetic(sc[pc], memNums[x], constNums[sb[pc]]));
+                                pc += 4;
+                                continue;
+                            }
+                            break;
+                        }
+                        case Superinstrucoes.LOD_LOD_CMP_FJP: {
+                            int x = sa[pc], y = sb[pc];
+                            if (isNumber(memTags[x]) && isNumber(memTags[y])) {
+                                pc = compare(sc[pc], memNums[x], memNums[y]) ? pc + 4 : sd[pc];
+                                continue;
+                            }
+                            break;
+                        }
+                        case Superinstrucoes.LOD_LDC_CMP_FJP: {
+                            int x = sa[pc];
+                            if (isNumber(memTags[x])) {
+                                pc = compare(sc[pc], memNums[x], constNums[sb[pc]]) ? pc + 4 : sd[pc];
+                                continue;
+                            }
+                            break;
+                        }
+                        case Superinstrucoes.LOD_LOD_JCMP: {
+                            int x = sa[pc], y = sb[pc];
+                            if (isNumber(memTags[x]) && isNumber(memTags[y])) {
+                                pc = jumpTaken(sc[pc], memNums[x], memNums[y]) ? sd[pc] : pc + 3;
+                                continue;
+                            }
+                            break;
+                        }
+                        case Superinstrucoes.LOD_LDC_JCMP: {
+                            int x = sa[pc];
+                            if (isNumber(memTags[x])) {
+                                pc = jumpTaken(sc[pc], memNums[x], constNums[sb[pc]]) ? sd[pc] : pc + 3;
+                                continue;
+                            }
+                            break;
+                        }
+                        case Superinstrucoes.LDC_STO: {
+                            int k = sa[pc], dst = sb[pc];
+                            memTags[dst] = constTags[k];
+                            memNums[dst] = constNums[k];
+                            memRefs[dst] = constTags[k] == T_TEXTO ? constants[k] : null;
+                            pc += 2;
+                            continue;
+                        }
+                        case Superinstrucoes.LOD_STO: {
+                            int src = sa[pc], dst = sb[pc];
+                            memTags[dst] = memTags[src];
+                            memNums[dst] = memNums[src];
+                            memRefs[dst] = memRefs[src];
+                            pc += 2;
+                            continue;
+                        }
+                    }
+                    op = base[pc];
+                }
+                if (checked && sp < OPERANDS[op]) {
+                    throw new EmptyStackException();
+                }
+
+                switch (op) {
+                    case LDA:
+                        tags[sp] = T_INT;
+                        nums[sp++] = args[pc];
+                        break;
+
+                    case LDC: {
+                        int k = args[pc];
+                        tags[sp] = constTags[k];
+                        nums[sp] = constNums[k];
+                        refs[sp++] = constTags[k] == T_TEXTO ? constants[k] : null;
+                        break;
+                    }
+
+                    case LOD: {
+                        int addr = args[pc];
+                        tags[sp] = memTags[addr];
+                        nums[sp] = memNums[addr];
+                        refs[sp++] = memTags[addr] == T_TEXTO ? memRefs[addr] : null;
                         break;
+                    }
 
-                    case "ldc":
-                        String valueStr = line.substring(instr.length()).trim();
-                        stack.push(parseValue(valueStr));
+                    case STO: {
+                        sp--;
+                        if (tags[sp] != T_INT) {
+                            throw new RuntimeException("Endereço inválido: " + valueAt(sp));
+                        }
+                        int address = (int) nums[sp];
+                        if (address >= memTags.length) {
+                            growMemory(address);
+                        }
+                        sp--;
+                        memTags[address] = tags[sp];
+                        memNums[address] = nums[sp];
+                        memRefs[address] = refs[sp];
+                        refs[sp] = null;
                         break;
+                    }
 
-                    case "lod":
-                        int addrLoad = Integer.parseInt(parts[1].replace("#", ""));
-                        stack.push(memory[addrLoad]);
+                    case STO_DIRETO: {
+                        int address = args[pc];
+                        sp--;
+                        memTags[address] = tags[sp];
+                        memNums[address] = nums[sp];
+                        memRefs[address] = refs[sp];
+                        refs[sp] = null;
                         break;
+                    }
 
-                    case "sto":
-                        checkStackSize(2, instr);
-                        int address = (int) stack.pop();
-                        Object value = stack.pop();
-                        memory[address] = value;
+                    case NEG: {
+                        double a = toNumber(sp - 1);
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = a * -1;
                         break;
+                    }
 
-                    case "add":
-                    case "sub":
-                    case "mul":
-                    case "div": {
-                        checkStackSize(2, instr);
-                        double b = toNumber(stack.pop());
-                        double a = toNumber(stack.pop());
-                        switch (instr) {
-                            case "add": stack.push(a + b); break;
-                            case "sub": stack.push(a - b); break;
-                            case "mul": stack.push(a * b); break;
-                            case "div": stack.push(a / b); break;
+                    case NOT: {
+                        int top = sp - 1;
+                        if (tags[top] == T_NULO) {
+                            throw nullEquals();
                         }
+                        // Mesmo resultado de "ldc false; equ": só o inteiro 0 vira verdadeiro
+                        boolean falso = tags[top] == T_INT && nums[top] == 0;
+                        refs[top] = null;
+                        tags[top] = T_INT;
+                        nums[top] = falso ? 1 : 0;
+                        break;
+                    }
+
+                    case ADD: {
+                        double b = toNumber(--sp);
+                        double a = toNumber(sp - 1);
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = a + b;
+                        break;
+                    }
+
+                    case SUB: {
+                        double b = toNumber(--sp);
+                        double a = toNumber(sp - 1);
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = a - b;
+                        break;
+                    }
+
+                    case MUL: {
+                        double b = toNumber(--sp);
+                        double a = toNumber(sp - 1);
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = a * b;
                         break;
                     }
 
-                    case "wri":
-                        checkStackSize(1, instr);
-                        Object val = stack.pop();
-                        if (val instanceof Integer && (((Integer) val) == 0 || ((Integer) val) == 1)) {
-                            System.out.println(((Integer) val) == 1 ? "true" : "false");
+                    case DIV: {
+                        double b = toNumber(--sp);
+                        double a = toNumber(sp - 1);
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = a / b;
+                        break;
+                    }
+
+                    case WRI: {
+                        RastreadorVM.EntradaSaida ioEvent = jfr ? RastreadorVM.iniciarEntradaSaida() : null;
+                        sp--;
+                        if (tags[sp] == T_INT && (nums[sp] == 0 || nums[sp] == 1)) {
+                            io.escrever(nums[sp] == 1 ? "true" : "false");
                         } else {
-                            System.out.println(val);
+                            io.escrever(String.valueOf(valueAt(sp)));
+                        }
+                        refs[sp] = null;
+                        if (ioEvent != null) {
+                            RastreadorVM.concluirEntradaSaida(ioEvent, "wri", pc);
                         }
                         break;
+                    }
 
-                    case "rd":
-                        System.out.print("Input: ");
-                        String input = scanner.nextLine();
-                        stack.push(parseValue(input));
+                    case RD: {
+                        RastreadorVM.EntradaSaida ioEvent = jfr ? RastreadorVM.iniciarEntradaSaida() : null;
+                        Object value = ProgramaPCode.parseValue(io.ler("Input: "));
+                        tags[sp] = tipoDe(value);
+                        nums[sp] = value instanceof Number ? ((Number) value).doubleValue() : 0;
+                        refs[sp++] = tipoDe(value) == T_TEXTO ? value : null;
+                        if (ioEvent != null) {
+                            RastreadorVM.concluirEntradaSaida(ioEvent, "rd", pc);
+                        }
                         break;
+                    }
 
-                    case "equ":
-                    case "neq": {
-                        checkStackSize(2, instr);
-                        Object right = stack.pop();
-                        Object left = stack.pop();
-                        stack.push(instr.equals("equ") ? (left.equals(right) ? 1 : 0) : (!left.equals(right) ? 1 : 0));
+                    case EQU:
+                    case NEQ: {
+                        int right = --sp;
+                        int left = sp - 1;
+                        boolean equal = equalsAt(left, right);
+                        refs[left] = null;
+                        refs[right] = null;
+                        tags[left] = T_INT;
+                        nums[left] = (op == EQU) == equal ? 1 : 0;
                         break;
                     }
 
-                    case "and":
-                    case "or": {
-                        checkStackSize(2, instr);
-                        int right = toBoolean(stack.pop());
-                        int left = toBoolean(stack.pop());
-                        stack.push(instr.equals("and") ? (left != 0 && right != 0 ? 1 : 0) : (left != 0 || right != 0 ? 1 : 0));
+                    case AND:
+                    case OR: {
+                        int right = toBoolean(--sp);
+                        int left = toBoolean(sp - 1);
+                        tags[sp - 1] = T_INT;
+                        nums[sp - 1] = op == AND ? (left != 0 && right != 0 ? 1 : 0) : (left != 0 || right != 0 ? 1 : 0);
                         break;
                     }
 
-                    case "let":
-                    case "grt":
-                    case "lte":
-                    case "gte": {
-                        checkStackSize(2, instr);
-                        double right = toNumber(stack.pop());
-                        double left = toNumber(stack.pop());
-                        switch (instr) {
-                            case "let": stack.push(left < right ? 1 : 0); break;
-                            case "grt": stack.push(left > right ? 1 : 0); break;
-                            case "lte": stack.push(left <= right ? 1 : 0); break;
-                            case "gte": stack.push(left >= right ? 1 : 0); break;
+                    case LET:
+                    case GRT:
+                    case LTE:
+                    case GTE: {
+                        double right = toNumber(--sp);
+                        double left = toNumber(sp - 1);
+                        boolean result;
+                        switch (op) {
+                            case LET: result = left < right; break;
+                            case GRT: result = left > right; break;
+                            case LTE: result = left <= right; break;
+                            default: result = left >= right; break;
                         }
+                        tags[sp - 1] = T_INT;
+                        nums[sp - 1] = result ? 1 : 0;
                         break;
                     }
 
-                    case "fjp":
-                    case "tjp": {
-                        checkStackSize(1, instr);
-                        int cond = toBoolean(stack.pop());
-                        String label = parts[1];
-                        if (!labels.containsKey(label)) {
-                            throw new RuntimeException("Label não encontrado: " + label);
+                    case FJP:
+                        if (toBoolean(--sp) == 0) {
+                            pc = args[pc];
+                            continue;
                         }
-                        boolean jump = (instr.equals("fjp") && cond == 0) || (instr.equals("tjp") && cond != 0);
-                        if (jump) {
-                            pc = labels.get(label);
+                        break;
+
+                    case TJP:
+                        if (toBoolean(--sp) != 0) {
+                            pc = args[pc];
                             continue;
                         }
                         break;
-                    }
 
-                    case "pip":
-                        pc = labels.get(parts[1]);
+                    case PIP: {
+                        int target = args[pc];
+                        if (backEdges != null && target <= pc) {
+                            CompiladorJit.Resultado loop = compiledLoops[target];
+                            if (loop != null) {
+                                int resume = loop.executarLaco(io, memTags, memNums, memRefs);
+                                if (resume == CompiladorJit.PARADA) {
+                                    endState = "stp";
+                                    return;
+                                }
+                                if (resume == target) {
+                                    // Tipo da memória diferente do previsto: volta à camada 1
+                                    compiledLoops[target] = null;
+                                    backEdges[target] = tierThreshold1;
+                                    tierDecisions.add(new TierDecision(target, pc, 1, backEdges[target], 0,
+                                            System.nanoTime() - start, "desotimizado: tipo da memória mudou"));
+                                }
+                                pc = resume;
+                                continue;
+                            }
+                            int count = ++backEdges[target];
+                            if (count == tierThreshold1) {
+                                promoteFused(code, fused, target, pc, start);
+                            }
+                            if (count == tierThreshold2) {
+                                compiledLoops[target] = promoteCompiled(target, pc, start);
+                            }
+                        }
+                        pc = target;
                         continue;
+                    }
 
-                    case "stp":
+                    case STP:
+                        endState = "stp";
                         return;
 
-                    case "to":
-                        checkStackSize(1, instr);
-                        String targetType = parts[1];
-                        Object valToConvert = stack.pop();
-                        stack.push(convertType(valToConvert, targetType));
-                        break;
-                    case "call":
-                        if (parts[1].equals("POW_FUNCTION")) {
-                            checkStackSize(2, instr);
-                            double exponent = toNumber(stack.pop());
-                            double base = toNumber(stack.pop());
-                            stack.push(Math.pow(base, exponent));
-                        } else {
-                            throw new RuntimeException("Função desconhecida: " + parts[1]);
+                    case TO:
+                        convertType(sp - 1, args[pc]);
+                        break;
+
+                    case CALL: {
+                        double exponent = toNumber(--sp);
+                        double powBase = toNumber(sp - 1);
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = Math.pow(powBase, exponent);
+                        break;
+                    }
+
+                    // Especializadas: o compilador provou os tipos, que não são conferidos
+                    case ADDN:
+                        sp--;
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = nums[sp - 1] + nums[sp];
+                        break;
+
+                    case SUBN:
+                        sp--;
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = nums[sp - 1] - nums[sp];
+                        break;
+
+                    case MULN:
+                        sp--;
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = nums[sp - 1] * nums[sp];
+                        break;
+
+                    case DIVN:
+                        sp--;
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = nums[sp - 1] / nums[sp];
+                        break;
+
+                    case NEGN:
+                        tags[sp - 1] = T_REAL;
+                        nums[sp - 1] = nums[sp - 1] * -1;
+                        break;
+
+                    case LETN:
+                        sp--;
+                        tags[sp - 1] = T_INT;
+                        nums[sp - 1] = nums[sp - 1] < nums[sp] ? 1 : 0;
+                        break;
+
+                    case GRTN:
+                        sp--;
+                        tags[sp - 1] = T_INT;
+                        nums[sp - 1] = nums[sp - 1] > nums[sp] ? 1 : 0;
+                        break;
+
+                    case EQUI:
+                    case NEQI:
+                        sp--;
+                        tags[sp - 1] = T_INT;
+                        nums[sp - 1] = (op == EQUI) == (nums[sp - 1] == nums[sp]) ? 1 : 0;
+                        break;
+
+                    case NOTB:
+                        tags[sp - 1] = T_INT;
+                        nums[sp - 1] = nums[sp - 1] == 0 ? 1 : 0;
+                        break;
+
+                    case FJPB:
+                        if (nums[--sp] == 0) {
+                            pc = args[pc];
+                            continue;
+                        }
+                        break;
+
+                    case TJPB:
+                        if (nums[--sp] != 0) {
+                            pc = args[pc];
+                            continue;
+                        }
+                        break;
+
+                    // Comparação e salto fundidos: as conferências de let/grt/equ, sem empilhar o resultado
+                    case JLT:
+                    case JNLT:
+                    case JGT:
+                    case JNGT: {
+                        double right = toNumber(--sp);
+                        double left = toNumber(--sp);
+                        if (jumpTaken(op, left, right)) {
+                            pc = args[pc];
+                            continue;
+                        }
+                        break;
+                    }
+
+                    case JEQ:
+                    case JNE: {
+                        int right = --sp;
+                        int left = --sp;
+                        boolean equal = equalsAt(left, right);
+                        refs[left] = null;
+                        refs[right] = null;
+                        if ((op == JEQ) == equal) {
+                            pc = args[pc];
+                            continue;
                         }
                         break;
+                    }
+
                     default:
-                        System.err.println("Instrução não reconhecida: " + instr);
+                        fail(io, String.valueOf(constants[args[pc]]), tracer);
                         return;
                 }
+                pc++;
+            }
+        } catch (CompiladorJit.Falha e) {
+            fail(io, "Erro ao executar instrução '" + program.textoErro(e.pc) + "': " + e.getMessage(), tracer);
+        } catch (EmptyStackException e) {
+            fail(io, "Erro: Pilha vazia ao executar instrução: " + program.texto(pc), tracer);
+        } catch (Exception e) {
+            fail(io, "Erro ao executar instrução '" + program.textoErro(pc) + "': " + e.getMessage(), tracer);
+        } finally {
+            this.pc = pc;
+            this.sp = sp;
+            executedInstructions = steps;
+        }
+    }
 
-            } catch (EmptyStackException e) {
-                System.err.println("Erro: Pilha vazia ao executar instrução: " + line);
-                return;
+    /** Perfis, instrumentação e debug antes da instrução em "pc". */
+    private void instrument(int op, long[] profile, PerfilFonte lines, RastreadorVM tracer, CanalES io) {
+        if (profile != null) {
+            profile[pc]++;
+        }
+        if (lines != null) {
+            lines.registrar(pc);
+        }
+        if (tracer != null) {
+            tracer.registrar(pc, op, sp);
+        }
+        if (debugMode) {
+            step(io);
+        }
+    }
 
-            } catch (Exception e) {
-                System.err.println("Erro ao executar instrução '" + line + "': " + e.getMessage());
-                return;
+    /** Mostra o erro no stderr depois da saída já produzida pelo programa. */
+    private void fail(CanalES io, String message, RastreadorVM tracer) {
+        io.descarregar();
+        errors.println(message);
+        endState = "erro";
+        error = message;
+        if (tracer != null) {
+            tracer.despejar(errors, program);
+        }
+    }
+
+    /** Modo debug: mostra a instrução e a pilha e, se houver tempo de espera, pausa. */
+    private void step(CanalES io) {
+        io.escrever("PC: " + pc + " | Inst: " + program.texto(pc));
+        io.escrever("Stack: " + describeStack());
+        io.descarregar();
+        if (waitTime > 0) {
+            try {
+                Thread.sleep(waitTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }
+    }
 
-            pc++;
+    /**
+     * Camada 1: copia para o código ativo as superinstruções do laço
+     * [header, end]. Nenhuma fusão atravessa o salto de volta nem começa antes
+     * do cabeçalho, que é destino de salto.
+     */
+    private void promoteFused(int[] code, Superinstrucoes fused, int header, int end, long start) {
+        long t0 = System.nanoTime();
+        String reason = "superinstruções";
+        if (fused != null) {
+            System.arraycopy(fused.codigo, header, code, header, end - header + 1);
+        } else {
+            reason = "sem superinstruções ativas";
         }
+        long t1 = System.nanoTime();
+        tierDecisions.add(new TierDecision(header, end, 1, tierThreshold1, t1 - t0, t1 - start, reason));
+    }
+
+    /**
+     * Camada 2: compila o laço [header, end] com os tipos atuais da memória.
+     * Devolve null se o laço não for elegível; ele continua na camada 1.
+     */
+    private CompiladorJit.Resultado promoteCompiled(int header, int end, long start) {
+        long t0 = System.nanoTime();
+        CompiladorJit.Resultado loop = CompiladorJit.compilarLaco(program, memTags, header, end);
+        long t1 = System.nanoTime();
+        String reason = loop.elegivel() ? "bytecode" : "não compilado: " + loop.motivo();
+        tierDecisions.add(new TierDecision(header, end, loop.elegivel() ? 2 : 1, tierThreshold2,
+                t1 - t0, t1 - start, reason));
+        return loop.elegivel() ? loop : null;
     }
 
-    private double toNumber(Object obj) {
-        if (obj instanceof Number) {
-            return ((Number) obj).doubleValue();
+    /** Executa pelo CompiladorJit; devolve false se o programa não for elegível. */
+    private boolean runCompiled(CanalES io) {
+        CompiladorJit.Resultado compilado = loaded.getCompilado();
+        if (!compilado.elegivel()) {
+            errors.println("JIT: " + compilado.motivo() + "; usando o interpretador.");
+            return false;
         }
-        throw new RuntimeException("Valor não numérico: " + obj);
+        executedInstructions = 0;
+        try {
+            compilado.executar(io);
+        } catch (CompiladorJit.Falha e) {
+            fail(io, "Erro ao executar instrução '" + program.textoErro(e.pc) + "': " + e.getMessage(), null);
+        }
+        return true;
     }
 
-    private int toBoolean(Object obj) {
-        if (obj instanceof Number) {
-            return ((Number) obj).intValue() != 0 ? 1 : 0;
+    /** Executa na MaquinaRegistros; devolve false se o programa não puder ser traduzido. */
+    private boolean runRegisters(CanalES io) {
+        ProgramaRegistros.Traducao traducao = loaded.getRegistros();
+        if (!traducao.traduzido()) {
+            errors.println("Registradores: " + traducao.motivo() + "; usando a máquina de pilha.");
+            return false;
+        }
+        MaquinaRegistros machine = new MaquinaRegistros(traducao.programa());
+        machine.setErros(errors);
+        try {
+            machine.executar(io);
+        } finally {
+            executedInstructions = machine.getExecutadas();
+            endState = machine.getEstado();
+            error = machine.getErro();
         }
-        throw new RuntimeException("Valor não booleano: " + obj);
+        return true;
     }
 
-    private Object parseValue(String val) {
-        val = val.trim();
+    private static boolean isNumber(byte tag) {
+        return tag == T_INT || tag == T_REAL;
+    }
 
-        if ((val.startsWith("\"") && val.endsWith("\"")) || (val.startsWith("“") && val.endsWith("”"))) {
-            // Remove aspas e retorna como string
-            return val.substring(1, val.length() - 1);
+    private static double arithmetic(int op, double a, double b) {
+        switch (op) {
+            case ADD: return a + b;
+            case SUB: return a - b;
+            case MUL: return a * b;
+            default: return a / b;
         }
+    }
 
-        if (val.equalsIgnoreCase("true")) return 1;
-        if (val.equalsIgnoreCase("false")) return 0;
+    private static boolean compare(int op, double left, double right) {
+        return op == LET ? left < right : left > right;
+    }
 
-        try {
-            if (val.contains(".")) return Double.parseDouble(val);
-            return Integer.parseInt(val);
-        } catch (NumberFormatException e) {
-            // Fallback: assume string sem aspas
-            return val;
+    /** Se o salto comparado (jlt, jnlt, jgt ou jngt) é tomado. */
+    private static boolean jumpTaken(int op, double left, double right) {
+        switch (op) {
+            case JLT: return left < right;
+            case JNLT: return !(left < right);
+            case JGT: return left > right;
+            default: return !(left > right);
+        }
+    }
+
+    private void storeReal(int address, double value) {
+        memTags[address] = T_REAL;
+        memNums[address] = value;
+        memRefs[address] = null;
+    }
+
+    /** Memória de programa sem cabeçalho: cresce em segmentos inteiros, até o limite da carga. */
+    private void growMemory(int address) {
+        int limit = loaded.getLimiteMemoria();
+        if (address >= limit) {
+            throw new RuntimeException("Endereço fora da memória: " + address + " (limite de " + limit + " células)");
         }
+        int capacity = Math.min((address / ProgramaCarregado.SEGMENTO + 1) * ProgramaCarregado.SEGMENTO, limit);
+        memTags = Arrays.copyOf(memTags, capacity);
+        memNums = Arrays.copyOf(memNums, capacity);
+        memRefs = Arrays.copyOf(memRefs, capacity);
+    }
+
+    private void growStack() {
+        int capacity = stackTags.length * 2;
+        stackTags = Arrays.copyOf(stackTags, capacity);
+        stackNums = Arrays.copyOf(stackNums, capacity);
+        stackRefs = Arrays.copyOf(stackRefs, capacity);
     }
 
+    /** Valor da posição da pilha como objeto Java; só usado fora do caminho numérico. */
+    private Object valueAt(int slot) {
+        switch (stackTags[slot]) {
+            case T_INT: return (int) stackNums[slot];
+            case T_REAL: return stackNums[slot];
+            case T_TEXTO: return stackRefs[slot];
+            default: return null;
+        }
+    }
 
-    private Object convertType(Object value, String targetType) {
+    private boolean equalsAt(int left, int right) {
+        byte tag = stackTags[left];
+        if (tag == T_NULO) {
+            throw nullEquals();
+        }
+        if (tag != stackTags[right]) {
+            return false;
+        }
+        switch (tag) {
+            case T_INT: return stackNums[left] == stackNums[right];
+            // Mesma semântica de Double.equals
+            case T_REAL: return Double.doubleToLongBits(stackNums[left]) == Double.doubleToLongBits(stackNums[right]);
+            default: return stackRefs[left].equals(stackRefs[right]);
+        }
+    }
+
+    /** Mesmo erro que Object.equals daria com o operando esquerdo nulo. */
+    static NullPointerException nullEquals() {
+        return new NullPointerException("Cannot invoke \"Object.equals(Object)\" because \"left\" is null");
+    }
+
+    private String describeStack() {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (int i = 0; i < sp; i++) {
+            joiner.add(String.valueOf(valueAt(i)));
+        }
+        return joiner.toString();
+    }
+
+    private double toNumber(int slot) {
+        byte tag = stackTags[slot];
+        if (tag == T_INT || tag == T_REAL) {
+            return stackNums[slot];
+        }
+        Object value = valueAt(slot);
+        stackRefs[slot] = null;
+        throw new RuntimeException("Valor não numérico: " + value);
+    }
+
+    private int toBoolean(int slot) {
+        byte tag = stackTags[slot];
+        if (tag == T_INT || tag == T_REAL) {
+            return (int) stackNums[slot] != 0 ? 1 : 0;
+        }
+        Object value = valueAt(slot);
+        stackRefs[slot] = null;
+        throw new RuntimeException("Valor não booleano: " + value);
+    }
+
+    /** Converte no próprio lugar o valor da posição indicada da pilha. */
+    private void convertType(int slot, int targetType) {
+        byte tag = stackTags[slot];
         switch (targetType) {
-            case "int":
-                if (value instanceof Double) return ((Double) value).intValue();
-                if (value instanceof Integer) return value;
+            case TO_INT:
+                if (tag == T_REAL) {
+                    stackTags[slot] = T_INT;
+                    stackNums[slot] = (int) stackNums[slot];
+                    return;
+                }
+                if (tag == T_INT) return;
                 break;
-            case "float":
-                if (value instanceof Integer) return ((Integer) value).doubleValue();
-                if (value instanceof Double) return value;
+            case TO_FLOAT:
+                if (tag == T_INT || tag == T_REAL) {
+                    stackTags[slot] = T_REAL;
+                    return;
+                }
                 break;
-            case "bool":
-                if (value instanceof Number) return ((Number) value).intValue() != 0 ? 1 : 0;
+            case TO_BOOL:
+                if (tag == T_INT || tag == T_REAL) {
+                    stackNums[slot] = (int) stackNums[slot] != 0 ? 1 : 0;
+                    stackTags[slot] = T_INT;
+                    return;
+                }
                 break;
         }
-        throw new RuntimeException("Não é possível converter " + value + " para " + targetType);
-    }
-
-    private void checkStackSize(int required, String instr) {
-        if (stack.size() < required) {
-            throw new EmptyStackException();
-        }
+        throw new RuntimeException("Não é possível converter " + valueAt(slot) + " para " + TIPOS[targetType]);
     }
 }
@@ -0,0 +1,157 @@
+package com.uepb;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Perfil da execução pelo código-fonte, com o mapa de fonte que o GeradorPCode
+ * grava no P-Code (diretivas ".fonte"). Conta as instruções executadas em cada
+ * posição e mede o tempo por trecho: uma sequência de instruções da mesma
+ * linha do fonte só lê o relógio quando a linha muda, e o tempo do trecho
+ * fica com a instrução em que ele começou. Sem o mapa, cada instrução é o seu
+ * próprio trecho e o relatório é por instrução.
+ *
+ * Os laços são os saltos para trás do P-Code ([cabeçalho, salto]); um while
+ * aparece com a linha do seu cabeçalho. O relatório em texto traz as linhas e
+ * os laços, e o arquivo de pilhas colapsadas (uma linha "programa;laço;linha
+ * nanossegundos" por pilha) é o formato lido pelo flamegraph.pl e pelo
+ * speedscope.
+ */
+final class PerfilFonte {
+    private final ProgramaPCode programa;
+    private final int[] chaves;
+    private final long[] contagens;
+    private final long[] tempos;
+    private int inicioTrecho = -1;
+    private long marca;
+
+    /** Laço do P-Code: do cabeçalho até o salto de volta. */
+    private record Laco(int cabecalho, int fim) {
+    }
+
+    PerfilFonte(ProgramaPCode programa) {
+        this.programa = programa;
+        int n = programa.tamanho();
+        this.contagens = new long[n];
+        this.tempos = new long[n];
+        this.chaves = new int[n];
+        for (int pc = 0; pc < n; pc++) {
+            chaves[pc] = programa.temMapaFonte() ? programa.linhaFonte(pc) : -1 - pc;
+        }
+    }
+
+    void registrar(int pc) {
+        contagens[pc]++;
+        if (inicioTrecho < 0 || chaves[pc] != chaves[inicioTrecho]) {
+            long agora = System.nanoTime();
+            if (inicioTrecho >= 0) {
+                tempos[inicioTrecho] += agora - marca;
+            }
+            inicioTrecho = pc;
+            marca = agora;
+        }
+    }
+
+    /** Fecha o trecho em execução quando o programa termina. */
+    void concluir() {
+        if (inicioTrecho >= 0) {
+            tempos[inicioTrecho] += System.nanoTime() - marca;
+            inicioTrecho = -1;
+        }
+    }
+
+    void gravarRelatorio(Path arquivo) throws IOException {
+        long totalInstrucoes = Arrays.stream(contagens).sum();
+        long totalTempo = Arrays.stream(tempos).sum();
+        Map<Integer, long[]> porChave = new LinkedHashMap<>();
+        for (int pc = 0; pc < contagens.length; pc++) {
+            if (contagens[pc] != 0) {
+                long[] soma = porChave.computeIfAbsent(chaves[pc], c -> new long[2]);
+                soma[0] += contagens[pc];
+                soma[1] += tempos[pc];
+            }
+        }
+        List<Map.Entry<Integer, long[]>> ordenadas = new ArrayList<>(porChave.entrySet());
+        ordenadas.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(arquivo))) {
+            out.printf(Locale.ROOT, "Perfil por %s: %d instruções, %.3f ms%n",
+                    programa.temMapaFonte() ? "linha do código-fonte" : "instrução (sem mapa de fonte)",
+                    totalInstrucoes, totalTempo / 1e6);
+            out.println();
+            out.printf("%-32s %14s %7s %12s %7s%n", "posição", "instruções", "%", "tempo_ms", "%");
+            for (Map.Entry<Integer, long[]> e : ordenadas) {
+                long[] soma = e.getValue();
+                out.printf(Locale.ROOT, "%-32s %14d %6.2f%% %12.3f %6.2f%%%n", nomeChave(e.getKey()),
+                        soma[0], percentual(soma[0], totalInstrucoes), soma[1] / 1e6, percentual(soma[1], totalTempo));
+            }
+
+            List<Laco> lacos = lacos();
+            if (!lacos.isEmpty()) {
+                out.println();
+                out.printf("%-32s %10s %14s %12s %7s%n", "laço", "voltas", "instruções", "tempo_ms", "%");
+                for (Laco laco : lacos) {
+                    long instrucoes = 0;
+                    long tempo = 0;
+                    for (int pc = laco.cabecalho(); pc <= laco.fim(); pc++) {
+                        instrucoes += contagens[pc];
+                        tempo += tempos[pc];
+                    }
+                    out.printf(Locale.ROOT, "%-32s %10d %14d %12.3f %6.2f%%%n", nomeLaco(laco),
+                            contagens[laco.fim()], instrucoes, tempo / 1e6, percentual(tempo, totalTempo));
+                }
+            }
+        }
+    }
+
+    /** Pilhas colapsadas: o programa, os laços que contêm o trecho, de fora para dentro, e a linha. */
+    void gravarPilhas(Path arquivo) throws IOException {
+        List<Laco> lacos = lacos();
+        Map<String, Long> pilhas = new LinkedHashMap<>();
+        for (int pc = 0; pc < tempos.length; pc++) {
+            if (tempos[pc] == 0) {
+                continue;
+            }
+            StringBuilder pilha = new StringBuilder("programa");
+            for (Laco laco : lacos) {
+                if (laco.cabecalho() <= pc && pc <= laco.fim()) {
+                    pilha.append(';').append(nomeLaco(laco));
+                }
+            }
+            pilha.append(';').append(nomeChave(chaves[pc]).replace(';', ','));
+            pilhas.merge(pilha.toString(), tempos[pc], Long::sum);
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(arquivo))) {
+            pilhas.forEach((pilha, tempo) -> out.println(pilha + " " + tempo));
+        }
+    }
+
+    /** Laços em ordem de cabeçalho, o que põe um laço externo antes dos internos. */
+    private List<Laco> lacos() {
+        Map<Integer, Integer> fins = new TreeMap<>();
+        for (int pc = 0; pc < programa.tamanho(); pc++) {
+            if (ProgramaPCode.salta(programa.codigo[pc]) && programa.args[pc] <= pc) {
+                fins.merge(programa.args[pc], pc, Math::max);
+            }
+        }
+        List<Laco> lacos = new ArrayList<>();
+        fins.forEach((cabecalho, fim) -> lacos.add(new Laco(cabecalho, fim)));
+        return lacos;
+    }
+
+    private String nomeChave(int chave) {
+        return chave >= 0 ? "linha " + chave : "@" + (-1 - chave) + " " + programa.texto(-1 - chave);
+    }
+
+    private String nomeLaco(Laco laco) {
+        return programa.temMapaFonte() ? "laço da linha " + programa.linhaFonte(laco.cabecalho())
+                : "laço @" + laco.cabecalho() + "-" + laco.fim();
+    }
+
+    private static double percentual(long parte, long total) {
+        return total == 0 ? 0 : 100.0 * parte / total;
+    }
+}
@@ -0,0 +1,144 @@
+package com.uepb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Programa pronto para executar, compartilhado entre execuções: o P-Code
+ * decodificado, a fusão das superinstruções e, quando pedidos, a verificação,
+ * o código compilado pelo JIT e a tradução para registradores. Nada aqui muda depois
+ * da carga, exceto essas traduções preguiçosas, feitas uma única vez; várias instâncias do PCodeMachine podem
+ * executá-lo ao mesmo tempo, cada uma com a sua pilha, memória e E/S.
+ *
+ * A fusão e o JIT dependem da quantidade de células de memória, que por isso
+ * faz parte do programa carregado. Com o cabeçalho emitido pelo compilador, a
+ * memória tem exatamente as células indicadas. Sem ele, começa com os
+ * segmentos que cobrem os endereços fixos do código (lda, lod e sto #n) e
+ * cresce um segmento por vez quando um "sto" grava além deles, até o limite.
+ */
+public final class ProgramaCarregado {
+    /** Células de cada segmento da memória dos programas sem cabeçalho. */
+    static final int SEGMENTO = 256;
+
+    private final ProgramaPCode programa;
+    private final int tamanhoMemoria;
+    private final int limiteMemoria;
+    private final Superinstrucoes fundido;
+    private volatile VerificadorPCode.Resultado verificacao;
+    private volatile CompiladorJit.Resultado compilado;
+    private volatile ProgramaRegistros.Traducao registros;
+
+    /** O limite de memória só vale para programas sem cabeçalho. */
+    public ProgramaCarregado(ProgramaPCode programa, int limiteMemoria, Set<Superinstrucoes.Tipo> superinstrucoes) {
+        this(programa, limiteMemoria, superinstrucoes.isEmpty() ? null
+                : Superinstrucoes.fundir(programa, superinstrucoes, tamanhoInicial(programa, limiteMemoria)));
+    }
+
+    /** Programa com a fusão já feita, ou null para executar sem superinstruções. */
+    ProgramaCarregado(ProgramaPCode programa, int limiteMemoria, Superinstrucoes fundido) {
+        if (limiteMemoria < 1) {
+            throw new IllegalArgumentException("Tamanho de memória inválido: " + limiteMemoria);
+        }
+        this.programa = programa;
+        this.tamanhoMemoria = tamanhoInicial(programa, limiteMemoria);
+        this.limiteMemoria = programa.temCabecalho() ? programa.memoria : limiteMemoria;
+        this.fundido = fundido;
+    }
+
+    /** Lê um arquivo .pcode em texto (UTF-8, como o Main grava) ou no formato binário. */
+    public static ProgramaCarregado carregar(Path arquivo, int limiteMemoria,
+                                             Set<Superinstrucoes.Tipo> superinstrucoes) throws IOException {
+        ProgramaPCode programa = PCodeBinario.ehBinario(arquivo)
+                ? PCodeBinario.ler(arquivo)
+                : ProgramaPCode.decodificar(new String(Files.readAllBytes(arquivo), StandardCharsets.UTF_8).lines()
+                        .map(String::trim).toList());
+        return new ProgramaCarregado(programa, limiteMemoria, superinstrucoes);
+    }
+
+    private static int tamanhoInicial(ProgramaPCode programa, int limite) {
+        if (programa.temCabecalho()) {
+            return programa.memoria;
+        }
+        long fixos = 0;
+        for (int pc = 0; pc < programa.tamanho(); pc++) {
+            int op = programa.codigo[pc];
+            if (op == ProgramaPCode.LDA || op == ProgramaPCode.LOD || op == ProgramaPCode.STO_DIRETO) {
+                fixos = Math.max(fixos, programa.args[pc] + 1L);
+            }
+        }
+        long segmentos = Math.max(1, (fixos + SEGMENTO - 1) / SEGMENTO);
+        return (int) Math.min(segmentos * SEGMENTO, limite);
+    }
+
+    public ProgramaPCode getPrograma() {
+        return programa;
+    }
+
+    /** Células de memória alocadas no início da execução. */
+    public int getTamanhoMemoria() {
+        return tamanhoMemoria;
+    }
+
+    /** Até quantas células a memória pode crescer; igual ao tamanho quando há cabeçalho. */
+    public int getLimiteMemoria() {
+        return limiteMemoria;
+    }
+
+    /** Altura máxima da pilha de operandos indicada no cabeçalho, ou -1; a verificação calcula a exata. */
+    public int getAlturaPilha() {
+        return programa.pilha;
+    }
+
+    /** Fusão das superinstruções; null quando nenhuma está ativa. */
+    Superinstrucoes getFundido() {
+        return fundido;
+    }
+
+    /** Resultado do VerificadorPCode, calculado na primeira chamada. */
+    VerificadorPCode.Resultado getVerificacao() {
+        VerificadorPCode.Resultado resultado = verificacao;
+        if (resultado == null) {
+            synchronized (this) {
+                resultado = verificacao;
+                if (resultado == null) {
+                    resultado = VerificadorPCode.verificar(programa, tamanhoMemoria, limiteMemoria);
+                    verificacao = resultado;
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /** Programa inteiro compilado para bytecode da JVM, na primeira chamada; o resultado diz se ele é elegível. */
+    CompiladorJit.Resultado getCompilado() {
+        CompiladorJit.Resultado resultado = compilado;
+        if (resultado == null) {
+            synchronized (this) {
+                resultado = compilado;
+                if (resultado == null) {
+                    resultado = CompiladorJit.compilar(programa, tamanhoMemoria);
+                    compilado = resultado;
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /** Tradução para a forma de registradores, na primeira chamada; o resultado diz se ela foi possível. */
+    ProgramaRegistros.Traducao getRegistros() {
+        ProgramaRegistros.Traducao resultado = registros;
+        if (resultado == null) {
+            synchronized (this) {
+                resultado = registros;
+                if (resultado == null) {
+                    resultado = ProgramaRegistros.traduzir(programa, tamanhoMemoria);
+                    registros = resultado;
+                }
+            }
+        }
+        return resultado;
+    }
+}
@@ -0,0 +1,465 @@
+package com.uepb;
+
+import java.util.*;
+
+/**
+ * Programa P-Code já decodificado: opcodes inteiros, operandos pré-processados
+ * (endereços, índices de constantes e destinos absolutos de salto) e sem labels.
+ *
+ * O texto pode trazer o cabeçalho emitido pelo compilador, com as diretivas
+ * ".memoria n" (células de memória usadas) e ".pilha n" (altura máxima da
+ * pilha de operandos). Elas não são instruções e valem em qualquer posição,
+ * já que a compilação em streaming só as conhece no fim.
+ *
+ * Com o mapa de fonte, a diretiva ".fonte linha coluna" indica a posição no
+ * código-fonte das instruções seguintes, até a próxima.
+ */
+public final class ProgramaPCode {
+    // --- Opcodes ---
+    public static final int LDA = 0;
+    public static final int LDC = 1;
+    public static final int LOD = 2;
+    public static final int STO = 3;
+    public static final int ADD = 4;
+    public static final int SUB = 5;
+    public static final int MUL = 6;
+    public static final int DIV = 7;
+    public static final int WRI = 8;
+    public static final int RD = 9;
+    public static final int EQU = 10;
+    public static final int NEQ = 11;
+    public static final int AND = 12;
+    public static final int OR = 13;
+    public static final int LET = 14;
+    public static final int GRT = 15;
+    public static final int LTE = 16;
+    public static final int GTE = 17;
+    public static final int FJP = 18;
+    public static final int TJP = 19;
+    public static final int PIP = 20;
+    public static final int STP = 21;
+    public static final int TO = 22;
+    public static final int CALL = 23;
+    /** Instrução que não pôde ser decodificada; o operando aponta para a mensagem de erro. */
+    public static final int INVALIDA = 24;
+    // Instruções fundidas produzidas pelo otimizador peephole
+    public static final int NEG = 25;
+    public static final int NOT = 26;
+    /** "sto #n": desempilha o valor e grava direto no endereço n. */
+    public static final int STO_DIRETO = 27;
+    // Instruções especializadas pelo GeradorPCode, que provou os tipos dos
+    // operandos: aritmética e comparações com números, igualdade entre inteiros
+    // (ou lógicos) e saltos sobre um lógico. A máquina não confere os tipos.
+    public static final int ADDN = 28;
+    public static final int SUBN = 29;
+    public static final int MULN = 30;
+    public static final int DIVN = 31;
+    public static final int NEGN = 32;
+    public static final int LETN = 33;
+    public static final int GRTN = 34;
+    public static final int EQUI = 35;
+    public static final int NEQI = 36;
+    public static final int NOTB = 37;
+    public static final int FJPB = 38;
+    public static final int TJPB = 39;
+    // Comparação e salto fundidos pelo otimizador peephole: "jlt L" é "let; tjp L"
+    // e "jnlt L" é "let; fjp L". Igualdade e diferença são complementares, então
+    // "equ; fjp L" é "jne L" e "neq; fjp L" é "jeq L".
+    public static final int JLT = 40;
+    public static final int JNLT = 41;
+    public static final int JGT = 42;
+    public static final int JNGT = 43;
+    public static final int JEQ = 44;
+    public static final int JNE = 45;
+
+    public static final String[] NOMES = {
+            "lda", "ldc", "lod", "sto", "add", "sub", "mul", "div", "wri", "rd",
+            "equ", "neq", "and", "or", "let", "grt", "lte", "gte", "fjp", "tjp",
+            "pip", "stp", "to", "call", "invalida", "neg", "not", "sto",
+            "addn", "subn", "muln", "divn", "negn", "letn", "grtn", "equi", "neqi", "notb",
+            "fjpb", "tjpb", "jlt", "jnlt", "jgt", "jngt", "jeq", "jne"
+    };
+
+    // Instrução genérica de cada especializada, a partir de ADDN
+    private static final int[] GENERICAS = {
+            ADD, SUB, MUL, DIV, NEG, LET, GRT, EQU, NEQ, NOT, FJP, TJP
+    };
+
+    // Operandos de "to"
+    public static final int TO_INT = 0;
+    public static final int TO_FLOAT = 1;
+    public static final int TO_BOOL = 2;
+
+    // Operandos de "call"
+    public static final int POW_FUNCTION = 0;
+
+    // Etiquetas de tipo das células da pilha e da memória
+    public static final byte T_NULO = 0;
+    public static final byte T_INT = 1;
+    public static final byte T_REAL = 2;
+    public static final byte T_TEXTO = 3;
+
+    private static final Map<String, Integer> OPCODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < NOMES.length; i++) {
+            OPCODES.putIfAbsent(NOMES[i], i);
+        }
+        OPCODES.remove("invalida");
+    }
+
+    final int[] codigo;
+    final int[] args;
+    final Object[] constantes;
+    final byte[] tiposConst;
+    final double[] numConst;
+    private final String[] texto;
+    // Cabeçalho: células de memória e altura máxima da pilha, ou -1 quando ausentes
+    final int memoria;
+    final int pilha;
+    // Mapa de fonte: linha e coluna de cada instrução (0 quando desconhecidas), ou null sem o mapa
+    final int[] linhasFonte;
+    final int[] colunasFonte;
+
+    ProgramaPCode(int[] codigo, int[] args, Object[] constantes, String[] texto) {
+        this(codigo, args, constantes, texto, -1, -1);
+    }
+
+    ProgramaPCode(int[] codigo, int[] args, Object[] constantes, String[] texto, int memoria, int pilha) {
+        this(codigo, args, constantes, texto, memoria, pilha, null, null);
+    }
+
+    ProgramaPCode(int[] codigo, int[] args, Object[] constantes, String[] texto, int memoria, int pilha,
+                  int[] linhasFonte, int[] colunasFonte) {
+        this.memoria = memoria;
+        this.pilha = pilha;
+        this.linhasFonte = linhasFonte;
+        this.colunasFonte = colunasFonte;
+        this.codigo = codigo;
+        this.args = args;
+        this.constantes = constantes;
+        this.texto = texto;
+        this.tiposConst = new byte[constantes.length];
+        this.numConst = new double[constantes.length];
+        for (int i = 0; i < constantes.length; i++) {
+            Object c = constantes[i];
+            tiposConst[i] = tipoDe(c);
+            if (c instanceof Number) {
+                numConst[i] = ((Number) c).doubleValue();
+            }
+        }
+    }
+
+    /**
+     * Instrução sem a especialização de tipos (addn vira add, fjpb vira fjp);
+     * as demais não mudam. Usada por quem só precisa do efeito da instrução.
+     */
+    static int generico(int op) {
+        return op >= ADDN && op <= TJPB ? GENERICAS[op - ADDN] : op;
+    }
+
+    /** Opcode do nome da instrução no texto do P-Code, ou null se ele não existe. */
+    static Integer opcode(String nome) {
+        return OPCODES.get(nome);
+    }
+
+    /** Instrução cujo operando é um destino de salto. */
+    static boolean salta(int op) {
+        op = generico(op);
+        return op == FJP || op == TJP || op == PIP || (op >= JLT && op <= JNE);
+    }
+
+    static byte tipoDe(Object valor) {
+        if (valor == null) return T_NULO;
+        if (valor instanceof Integer) return T_INT;
+        if (valor instanceof Double) return T_REAL;
+        return T_TEXTO;
+    }
+
+    public int tamanho() {
+        return codigo.length;
+    }
+
+    /** O programa traz o cabeçalho com o tamanho da memória. */
+    public boolean temCabecalho() {
+        return memoria >= 0;
+    }
+
+    /** O programa traz o mapa de instruções para o código-fonte. */
+    public boolean temMapaFonte() {
+        return linhasFonte != null;
+    }
+
+    /** Linha do código-fonte da instrução, ou 0 se desconhecida. */
+    public int linhaFonte(int pc) {
+        return linhasFonte != null ? linhasFonte[pc] : 0;
+    }
+
+    /** Coluna do código-fonte da instrução, a partir de 1, ou 0 se desconhecida. */
+    public int colunaFonte(int pc) {
+        return colunasFonte != null ? colunasFonte[pc] : 0;
+    }
+
+    /**
+     * Altura máxima da pilha de operandos em qualquer execução, calculada
+     * pelo fluxo de controle a partir da primeira instrução; -1 quando a altura
+     * não é a mesma em todos os caminhos que chegam a uma instrução ou quando a
+     * pilha esvaziaria, casos em que a máquina precisa de uma pilha que cresce.
+     */
+    public int alturaMaxima() {
+        int n = codigo.length;
+        int[] altura = new int[n + 1];
+        Arrays.fill(altura, -1);
+        Deque<Integer> pendentes = new ArrayDeque<>();
+        altura[0] = 0;
+        pendentes.push(0);
+        int maxima = 0;
+        while (!pendentes.isEmpty()) {
+            int pc = pendentes.pop();
+            if (pc == n) {
+                continue;
+            }
+            int op = generico(codigo[pc]);
+            int h = altura[pc];
+            int desempilha;
+            int empilha;
+            switch (op) {
+                case LDA, LDC, LOD, RD -> { desempilha = 0; empilha = 1; }
+                case ADD, SUB, MUL, DIV, EQU, NEQ, AND, OR, LET, GRT, LTE, GTE, CALL -> { desempilha = 2; empilha = 1; }
+                case NEG, NOT, TO -> { desempilha = 1; empilha = 1; }
+                case STO -> { desempilha = 2; empilha = 0; }
+                case STO_DIRETO, WRI, FJP, TJP -> { desempilha = 1; empilha = 0; }
+                case JLT, JNLT, JGT, JNGT, JEQ, JNE -> { desempilha = 2; empilha = 0; }
+                case PIP -> { desempilha = 0; empilha = 0; }
+                default -> { continue; }
+            }
+            if (h < desempilha) {
+                return -1;
+            }
+            int depois = h - desempilha + empilha;
+            maxima = Math.max(maxima, depois);
+            if (op != PIP && !entrar(altura, pendentes, pc + 1, depois)) {
+                return -1;
+            }
+            if (salta(op) && !entrar(altura, pendentes, args[pc], depois)) {
+                return -1;
+            }
+        }
+        return maxima;
+    }
+
+    /** Registra a altura na entrada do destino; falso se ela já era outra. */
+    private static boolean entrar(int[] altura, Deque<Integer> pendentes, int destino, int h) {
+        if (destino < 0 || destino >= altura.length) {
+            return true;
+        }
+        if (altura[destino] < 0) {
+            altura[destino] = h;
+            pendentes.push(destino);
+        }
+        return altura[destino] == h;
+    }
+
+    /**
+     * Texto da instrução, usado em mensagens de erro e no modo debug. Programas
+     * carregados do formato binário não têm o texto original e são desmontados.
+     */
+    public String texto(int pc) {
+        return texto != null ? texto[pc] : desmontar(pc);
+    }
+
+    /**
+     * Texto da instrução nas mensagens de erro da execução. Uma instrução do
+     * peephole só falha na instrução que substitui e aparece como ela, com a
+     * mesma mensagem do código sem a fusão: o salto comparado como a
+     * comparação, neg como o mul de "ldc -1; mul" e not como o equ de
+     * "ldc false; equ".
+     */
+    public String textoErro(int pc) {
+        return switch (codigo[pc]) {
+            case NEG -> NOMES[MUL];
+            case NOT -> NOMES[EQU];
+            case JLT, JNLT -> NOMES[LET];
+            case JGT, JNGT -> NOMES[GRT];
+            case JEQ, JNE -> NOMES[EQU];
+            default -> texto(pc);
+        };
+    }
+
+    private String desmontar(int pc) {
+        int arg = args[pc];
+        switch (generico(codigo[pc])) {
+            case LDA: case LOD: case STO_DIRETO: return NOMES[codigo[pc]] + " #" + arg;
+            case LDC: {
+                Object c = constantes[arg];
+                return "ldc " + (c instanceof String ? "\"" + c + "\"" : c);
+            }
+            case FJP: case TJP: case PIP: case JLT: case JNLT: case JGT: case JNGT: case JEQ: case JNE:
+                return NOMES[codigo[pc]] + " @" + arg;
+            case TO: return "to " + (arg == TO_INT ? "int" : arg == TO_FLOAT ? "float" : "bool");
+            case CALL: return "call POW_FUNCTION";
+            default: return NOMES[codigo[pc]];
+        }
+    }
+
+    public static ProgramaPCode decodificar(List<String> linhas) {
+        // Primeira passada: posição de cada label já descontando as linhas de label
+        Map<String, Integer> labels = new HashMap<>();
+        int tamanho = 0;
+        int memoria = -1;
+        int pilha = -1;
+        boolean comFonte = false;
+        for (String linha : linhas) {
+            String l = linha.trim();
+            if (ehDiretiva(l)) {
+                String nome = l.split(" ")[0];
+                int[] valores = valoresDiretiva(l);
+                switch (nome) {
+                    case ".memoria" -> memoria = valor(l, valores, 1);
+                    case ".pilha" -> pilha = valor(l, valores, 1);
+                    case ".fonte" -> {
+                        valor(l, valores, 2);
+                        comFonte = true;
+                    }
+                    default -> throw new RuntimeException("Diretiva desconhecida: " + nome);
+                }
+            } else if (l.endsWith(":")) {
+                labels.put(l.substring(0, l.length() - 1), tamanho);
+            } else {
+                tamanho++;
+            }
+        }
+
+        int[] codigo = new int[tamanho];
+        int[] args = new int[tamanho];
+        String[] texto = new String[tamanho];
+        List<Object> constantes = new ArrayList<>();
+        Map<Object, Integer> indices = new HashMap<>();
+        int[] linhasFonte = comFonte ? new int[tamanho] : null;
+        int[] colunasFonte = comFonte ? new int[tamanho] : null;
+        int linhaAtual = 0;
+        int colunaAtual = 0;
+
+        int pc = 0;
+        for (String linha : linhas) {
+            String l = linha.trim();
+            if (l.startsWith(".fonte ")) {
+                int[] valores = valoresDiretiva(l);
+                linhaAtual = valores[0];
+                colunaAtual = valores[1];
+                continue;
+            }
+            if (l.endsWith(":") || ehDiretiva(l)) {
+                continue;
+            }
+            if (comFonte) {
+                linhasFonte[pc] = linhaAtual;
+                colunasFonte[pc] = colunaAtual;
+            }
+            texto[pc] = l;
+            try {
+                decodificarInstrucao(l, pc, codigo, args, labels, constantes, indices);
+            } catch (Exception e) {
+                codigo[pc] = INVALIDA;
+                args[pc] = constante("Erro ao executar instrução '" + l + "': " + e.getMessage(), constantes, indices);
+            }
+            pc++;
+        }
+        return new ProgramaPCode(codigo, args, constantes.toArray(), texto, memoria, pilha,
+                linhasFonte, colunasFonte);
+    }
+
+    /** Linha de diretiva (".memoria n", ".pilha n", ".fonte l c"), que não é instrução nem label. */
+    static boolean ehDiretiva(String linha) {
+        return linha.startsWith(".");
+    }
+
+    /** Números depois do nome da diretiva; -1 no lugar do que não for um inteiro não negativo. */
+    private static int[] valoresDiretiva(String linha) {
+        String[] partes = linha.split(" ");
+        int[] valores = new int[partes.length - 1];
+        for (int i = 1; i < partes.length; i++) {
+            try {
+                valores[i - 1] = Integer.parseInt(partes[i]);
+            } catch (NumberFormatException e) {
+                valores[i - 1] = -1;
+            }
+        }
+        return valores;
+    }
+
+    /** Primeiro valor da diretiva, conferindo que ela tem exatamente "quantidade" valores válidos. */
+    private static int valor(String linha, int[] valores, int quantidade) {
+        if (valores.length != quantidade || Arrays.stream(valores).anyMatch(v -> v < 0)) {
+            throw new RuntimeException("Diretiva inválida: " + linha);
+        }
+        return valores[0];
+    }
+
+    private static void decodificarInstrucao(String linha, int pc, int[] codigo, int[] args,
+                                             Map<String, Integer> labels, List<Object> constantes,
+                                             Map<Object, Integer> indices) {
+        String[] parts = linha.split(" ");
+        Integer op = OPCODES.get(parts[0]);
+        if (op == null) {
+            codigo[pc] = INVALIDA;
+            args[pc] = constante("Instrução não reconhecida: " + parts[0], constantes, indices);
+            return;
+        }
+        if (op == STO && parts.length > 1) {
+            op = STO_DIRETO;
+        }
+        codigo[pc] = op;
+        switch (generico(op)) {
+            case LDA, LOD, STO_DIRETO -> args[pc] = Integer.parseInt(parts[1].replace("#", ""));
+            case LDC -> args[pc] = constante(parseValue(linha.substring(parts[0].length())), constantes, indices);
+            case FJP, TJP, PIP, JLT, JNLT, JGT, JNGT, JEQ, JNE -> {
+                Integer destino = labels.get(parts[1]);
+                if (destino == null) {
+                    throw new RuntimeException("Label não encontrado: " + parts[1]);
+                }
+                args[pc] = destino;
+            }
+            case TO -> args[pc] = switch (parts[1]) {
+                case "int" -> TO_INT;
+                case "float" -> TO_FLOAT;
+                case "bool" -> TO_BOOL;
+                default -> throw new RuntimeException("Tipo desconhecido: " + parts[1]);
+            };
+            case CALL -> {
+                if (!parts[1].equals("POW_FUNCTION")) {
+                    throw new RuntimeException("Função desconhecida: " + parts[1]);
+                }
+                args[pc] = POW_FUNCTION;
+            }
+            default -> { }
+        }
+    }
+
+    private static int constante(Object valor, List<Object> constantes, Map<Object, Integer> indices) {
+        return indices.computeIfAbsent(valor, v -> {
+            constantes.add(v);
+            return constantes.size() - 1;
+        });
+    }
+
+    static Object parseValue(String val) {
+        val = val.trim();
+
+        if ((val.startsWith("\"") && val.endsWith("\"")) || (val.startsWith("“") && val.endsWith("”"))) {
+            // Remove aspas e retorna como string
+            return val.substring(1, val.length() - 1);
+        }
+
+        if (val.equalsIgnoreCase("true")) return 1;
+        if (val.equalsIgnoreCase("false")) return 0;
+
+        try {
+            if (val.contains(".")) return Double.parseDouble(val);
+            return Integer.parseInt(val);
+        } catch (NumberFormatException e) {
+            // Fallback: assume string sem aspas
+            return val;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package com.uepb;
+
+import java.util.*;
+
+import static com.uepb.ProgramaPCode.*;
+
+/**
+ * Forma intermediária de três endereços, executada pela MaquinaRegistros:
+ * cada instrução lê até dois registradores e grava um, em vez de passar os
+ * valores pela pilha. "a = b + c" vira uma única instrução, onde o P-Code usa
+ * lda, lod, lod, add e sto.
+ *
+ * Os registradores são, nessa ordem, as células da memória (o registrador n é
+ * o endereço n), os temporários (um por altura da pilha do P-Code) e as
+ * constantes, carregadas uma vez no início de cada execução.
+ *
+ * A tradução parte do P-Code já decodificado, o que vale também para arquivos
+ * .pcode e .pbin antigos. Ela guarda a pilha de forma simbólica dentro de cada
+ * bloco básico: lod, ldc e lda não geram instruções, e o operando só é copiado
+ * para o temporário da sua altura quando o bloco termina ou quando a célula
+ * lida vai ser sobrescrita. Como no CompiladorJit, a altura da pilha precisa
+ * ser conhecida em todas as instruções alcançáveis e todo "sto" precisa do
+ * endereço de um "lda"; do contrário o programa não é traduzido.
+ */
+final class ProgramaRegistros {
+    // --- Opcodes: destino d, operandos a e b; nos saltos, b é o destino ---
+    static final int R_MOV = 0;
+    static final int R_ADD = 1;
+    static final int R_SUB = 2;
+    static final int R_MUL = 3;
+    static final int R_DIV = 4;
+    static final int R_POW = 5;
+    static final int R_NEG = 6;
+    static final int R_NOT = 7;
+    static final int R_EQU = 8;
+    static final int R_NEQ = 9;
+    static final int R_AND = 10;
+    static final int R_OR = 11;
+    static final int R_LET = 12;
+    static final int R_GRT = 13;
+    static final int R_LTE = 14;
+    static final int R_GTE = 15;
+    /** "to": b é o tipo de destino (TO_INT, TO_FLOAT ou TO_BOOL). */
+    static final int R_TO = 16;
+    static final int R_WRI = 17;
+    static final int R_RD = 18;
+    static final int R_JMP = 19;
+    static final int R_JF = 20;
+    static final int R_JT = 21;
+    static final int R_STP = 22;
+    /** Instrução P-Code inválida: a é o registrador com a mensagem de erro. */
+    static final int R_FALHA = 23;
+
+    static final String[] NOMES = {
+            "mov", "add", "sub", "mul", "div", "pow", "neg", "not", "equ", "neq", "and", "or",
+            "let", "grt", "lte", "gte", "to", "wri", "rd", "jmp", "jf", "jt", "stp", "falha"
+    };
+
+    final int[] codigo;
+    final int[] d;
+    final int[] a;
+    final int[] b;
+    /** Instrução P-Code que originou cada instrução, para as mensagens de erro. */
+    final int[] origem;
+    final int memoria;
+    final int temporarios;
+    // Valores iniciais dos registradores de constantes, a partir de primeiraConstante
+    final byte[] tiposConst;
+    final double[] numConst;
+    final Object[] constantes;
+    final ProgramaPCode pcode;
+
+    private ProgramaRegistros(int[] codigo, int[] d, int[] a, int[] b, int[] origem, int memoria,
+                              int temporarios, List<Object> constantes, ProgramaPCode pcode) {
+        this.codigo = codigo;
+        this.d = d;
+        this.a = a;
+        this.b = b;
+        this.origem = origem;
+        this.memoria = memoria;
+        this.temporarios = temporarios;
+        this.constantes = constantes.toArray();
+        this.tiposConst = new byte[this.constantes.length];
+        this.numConst = new double[this.constantes.length];
+        for (int i = 0; i < this.constantes.length; i++) {
+            tiposConst[i] = tipoDe(this.constantes[i]);
+            if (this.constantes[i] instanceof Number n) {
+                numConst[i] = n.doubleValue();
+            }
+        }
+        this.pcode = pcode;
+    }
+
+    /** Resultado da tradução; programa é null quando o P-Code não pôde ser traduzido. */
+    record Traducao(ProgramaRegistros programa, String motivo) {
+        boolean traduzido() {
+            return programa != null;
+        }
+    }
+
+    private static final class Intraduzivel extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Intraduzivel(String motivo) {
+            super(motivo);
+        }
+    }
+
+    public int tamanho() {
+        return codigo.length;
+    }
+
+    int primeiraConstante() {
+        return memoria + temporarios;
+    }
+
+    int registros() {
+        return memoria + temporarios + constantes.length;
+    }
+
+    static Traducao traduzir(ProgramaPCode programa, int memSize) {
+        try {
+            return new Traducao(new Tradutor(programa, memSize).traduzir(), null);
+        } catch (Intraduzivel e) {
+            return new Traducao(null, e.getMessage());
+        }
+    }
+
+    // --- Listagem ---
+
+    String texto(int i) {
+        int op = codigo[i];
+        return switch (op) {
+            case R_MOV, R_NEG, R_NOT -> NOMES[op] + " " + registro(d[i]) + ", " + registro(a[i]);
+            case R_TO -> "to " + registro(d[i]) + ", " + registro(a[i]) + ", "
+                    + (b[i] == TO_INT ? "int" : b[i] == TO_FLOAT ? "float" : "bool");
+            case R_WRI, R_FALHA -> NOMES[op] + " " + registro(a[i]);
+            case R_RD -> "rd " + registro(d[i]);
+            case R_JMP -> "jmp @" + b[i];
+            case R_JF, R_JT -> NOMES[op] + " " + registro(a[i]) + ", @" + b[i];
+            case R_STP -> "stp";
+            default -> NOMES[op] + " " + registro(d[i]) + ", " + registro(a[i]) + ", " + registro(b[i]);
+        };
+    }
+
+    /** "#n" para células da memória, "tn" para temporários e o próprio valor para constantes. */
+    private String registro(int r) {
+        if (r < memoria) {
+            return "#" + r;
+        }
+        if (r < primeiraConstante()) {
+            return "t" + (r - memoria);
+        }
+        Object c = constantes[r - primeiraConstante()];
+        return c instanceof String ? "\"" + c + "\"" : String.valueOf(c);
+    }
+
+    /** Uma instrução por linha: índice, instrução e, à direita, o P-Code de origem. */
+    List<String> listar() {
+        List<String> linhas = new ArrayList<>();
+        for (int i = 0; i < codigo.length; i++) {
+            linhas.add(String.format(Locale.ROOT, "%5d  %-32s ; %s", i, texto(i), pcode.texto(origem[i])));
+        }
+        return linhas;
+    }
+
+    // --- Tradução ---
+
+    /**
+     * Operando simbólico na pilha: registrador (célula, temporário ou
+     * constante) ou endereço vindo de "lda", que só vira valor se for usado
+     * como tal.
+     */
+    private record Operando(int registro, int endereco) {
+        static Operando endereco(int endereco) {
+            return new Operando(-1, endereco);
+        }
+
+        static Operando de(int registro) {
+            return new Operando(registro, -1);
+        }
+
+        boolean ehEndereco() {
+            return endereco >= 0;
+        }
+    }
+
+    private static final class Tradutor {
+        private final ProgramaPCode p;
+        private final int n;
+        private final int memSize;
+
+        // Análise: altura antes de cada instrução (-1 = inalcançável) e endereço de "lda" por posição, ou -1
+        private int[] altura;
+        private int[][] enderecos;
+        private boolean[] inicioBloco;
+        private int maxAltura;
+
+        // Código gerado; os saltos guardam o pc P-Code até a correção no final
+        private int tamanho;
+        private int[] codigo = new int[16];
+        private int[] d = new int[16];
+        private int[] a = new int[16];
+        private int[] b = new int[16];
+        private int[] origem = new int[16];
+        private final List<Object> constantes = new ArrayList<>();
+        private final Map<Object, Integer> indices = new HashMap<>();
+
+        private final List<Operando> pilha = new ArrayList<>();
+        // Instrução P-Code sendo traduzida
+        private int origemAtual;
+        // Instrução que gravou o temporário do topo, enquanto ele ainda pode receber o destino de um "sto"
+        private int produtora = -1;
+
+        Tradutor(ProgramaPCode p, int memSize) {
+            this.p = p;
+            this.n = p.tamanho();
+            this.memSize = memSize;
+        }
+
+        ProgramaRegistros traduzir() {
+            analisar();
+            int[] inicio = new int[n + 1];
+            for (int pc = 0; pc < n; pc++) {
+                inicio[pc] = tamanho;
+                if (altura[pc] < 0) {
+                    continue;
+                }
+                if (inicioBloco[pc]) {
+                    entrarBloco(pc);
+                }
+                traduzir(pc);
+                if (pc + 1 < n && inicioBloco[pc + 1] && altura[pc + 1] >= 0 && continua(pc)) {
+                    materializar(pc + 1, -1);
+                }
+            }
+            inicio[n] = tamanho;
+            for (int i = 0; i < tamanho; i++) {
+                if (codigo[i] == R_JMP || codigo[i] == R_JF || codigo[i] == R_JT) {
+                    b[i] = inicio[b[i]];
+                }
+            }
+            // Sem temporário algum, o registrador 0 da lista de constantes começaria na memória
+            int temporarios = Math.max(maxAltura, 1);
+            for (int i = 0; i < tamanho; i++) {
+                d[i] = realocar(d[i], temporarios);
+                a[i] = realocar(a[i], temporarios);
+                if (codigo[i] != R_JMP && codigo[i] != R_JF && codigo[i] != R_JT && codigo[i] != R_TO) {
+                    b[i] = realocar(b[i], temporarios);
+                }
+            }
+            return new ProgramaRegistros(Arrays.copyOf(codigo, tamanho), Arrays.copyOf(d, tamanho),
+                    Arrays.copyOf(a, tamanho), Arrays.copyOf(b, tamanho), Arrays.copyOf(origem, tamanho),
+                    memSize, temporarios, constantes, p);
+        }
+
+        /** A instrução passa para a seguinte sem salto; os saltos condicionais já materializam os dois sucessores. */
+        private boolean continua(int pc) {
+            int op = generico(p.codigo[pc]);
+            return !salta(op) && op != STP && op != INVALIDA;
+        }
+
+        // Durante a tradução, temporários são -2 - altura e constantes, MAX_VALUE - índice
+        private static int temporario(int altura) {
+            return -2 - altura;
+        }
+
+        private int constante(Object valor) {
+            int k = indices.computeIfAbsent(valor, v -> {
+                constantes.add(v);
+                return constantes.size() - 1;
+            });
+            return Integer.MAX_VALUE - k;
+        }
+
+        private int realocar(int r, int temporarios) {
+            if (r <= -2) {
+                return memSize + (-2 - r);
+            }
+            if (r > Integer.MAX_VALUE - constantes.size()) {
+                return memSize + temporarios + (Integer.MAX_VALUE - r);
+            }
+            return r;
+        }
+
+        // --- Análise da pilha, como no CompiladorJit ---
+
+        private void analisar() {
+            altura = new int[n + 1];
+            Arrays.fill(altura, -1);
+            enderecos = new int[n + 1][];
+            inicioBloco = new boolean[n + 1];
+            inicioBloco[0] = true;
+            for (int pc = 0; pc < n; pc++) {
+                if (salta(p.codigo[pc])) {
+                    if (p.args[pc] < 0 || p.args[pc] > n) {
+                        throw new Intraduzivel("salto para fora do programa");
+                    }
+                    inicioBloco[p.args[pc]] = true;
+                    inicioBloco[pc + 1] = true;
+                }
+            }
+            Deque<Integer> pendentes = new ArrayDeque<>();
+            entrar(0, new int[0], pendentes);
+            while (!pendentes.isEmpty()) {
+                int pc = pendentes.pop();
+                int op = generico(p.codigo[pc]);
+                int[] e = enderecos[pc];
+                int s = e.length;
+                switch (op) {
+                    case LDA -> entrar(pc + 1, empilhar(e, p.args[pc]), pendentes);
+                    case LDC, LOD, RD -> entrar(pc + 1, empilhar(e, -1), pendentes);
+                    case STO -> entrar(pc + 1, desempilhar(pc, e, 2), pendentes);
+                    case STO_DIRETO, WRI -> entrar(pc + 1, desempilhar(pc, e, 1), pendentes);
+                    case ADD, SUB, MUL, DIV, CALL, EQU, NEQ, AND, OR, LET, GRT, LTE, GTE ->
+                            entrar(pc + 1, empilhar(desempilhar(pc, e, 2), -1), pendentes);
+                    case NEG, NOT, TO ->
+                            entrar(pc + 1, empilhar(desempilhar(pc, e, 1), -1), pendentes);
+                    case FJP, TJP, JLT, JNLT, JGT, JNGT, JEQ, JNE -> {
+                        int[] e2 = desempilhar(pc, e, op == FJP || op == TJP ? 1 : 2);
+                        entrar(p.args[pc], e2, pendentes);
+                        entrar(pc + 1, e2, pendentes);
+                    }
+                    case PIP -> entrar(p.args[pc], e, pendentes);
+                    case STP, INVALIDA -> { }
+                    default -> throw new Intraduzivel("instrução não suportada '" + p.texto(pc) + "'");
+                }
+                maxAltura = Math.max(maxAltura, s + 1);
+            }
+        }
+
+        private void entrar(int pc, int[] e, Deque<Integer> pendentes) {
+            if (altura[pc] < 0) {
+                altura[pc] = e.length;
+                enderecos[pc] = e.clone();
+                if (pc < n) {
+                    pendentes.push(pc);
+                }
+                return;
+            }
+            if (altura[pc] != e.length) {
+                throw new Intraduzivel("altura da pilha diferente nos caminhos que chegam a '"
+                        + (pc < n ? p.texto(pc) : "fim do programa") + "'");
+            }
+            boolean mudou = false;
+            for (int i = 0; i < e.length; i++) {
+                if (enderecos[pc][i] != e[i] && enderecos[pc][i] != -1) {
+                    enderecos[pc][i] = -1;
+                    mudou = true;
+                }
+            }
+            if (mudou && pc < n) {
+                pendentes.push(pc);
+            }
+        }
+
+        private int[] desempilhar(int pc, int[] e, int posicoes) {
+            if (e.length < posicoes) {
+                throw new Intraduzivel("pilha vazia em '" + p.texto(pc) + "'");
+            }
+            return Arrays.copyOf(e, e.length - posicoes);
+        }
+
+        private static int[] empilhar(int[] e, int endereco) {
+            int[] e2 = Arrays.copyOf(e, e.length + 1);
+            e2[e.length] = endereco;
+            return e2;
+        }
+
+        // --- Geração ---
+
+        /** No início de um bloco, cada posição da pilha está no seu temporário ou é um endereço conhecido. */
+        private void entrarBloco(int pc) {
+            pilha.clear();
+            for (int i = 0; i < altura[pc]; i++) {
+                int e = enderecos[pc][i];
+                pilha.add(e >= 0 ? Operando.endereco(e) : Operando.de(temporario(i)));
+            }
+            produtora = -1;
+        }
+
+        /**
+         * Copia para os temporários as posições da pilha que os blocos
+         * seguintes esperam encontrar neles. "outro" é o segundo sucessor, ou -1.
+         */
+        private void materializar(int sucessor, int outro) {
+            for (int i = 0; i < pilha.size(); i++) {
+                Operando o = pilha.get(i);
+                if (o.ehEndereco() && enderecos[sucessor][i] >= 0 && (outro < 0 || enderecos[outro][i] >= 0)) {
+                    continue;
+                }
+                if (o.registro() != temporario(i)) {
+                    emitir(R_MOV, temporario(i), valor(o), 0);
+                    pilha.set(i, Operando.de(temporario(i)));
+                }
+            }
+            produtora = -1;
+        }
+
+        private int valor(Operando o) {
+            return o.ehEndereco() ? constante(o.endereco()) : o.registro();
+        }
+
+        private Operando desempilhar() {
+            return pilha.remove(pilha.size() - 1);
+        }
+
+        private int emitir(int op, int dst, int x, int y) {
+            if (tamanho == codigo.length) {
+                int capacidade = tamanho * 2;
+                codigo = Arrays.copyOf(codigo, capacidade);
+                d = Arrays.copyOf(d, capacidade);
+                a = Arrays.copyOf(a, capacidade);
+                b = Arrays.copyOf(b, capacidade);
+                origem = Arrays.copyOf(origem, capacidade);
+            }
+            codigo[tamanho] = op;
+            d[tamanho] = dst;
+            a[tamanho] = x;
+            b[tamanho] = y;
+            origem[tamanho] = origemAtual;
+            return tamanho++;
+        }
+
+        /** Empilha o resultado de uma instrução gravado no temporário da sua altura. */
+        private void resultado(int op, int x, int y) {
+            int t = temporario(pilha.size());
+            produtora = emitir(op, t, x, y);
+            pilha.add(Operando.de(t));
+        }
+
+        private int celula(int pc, int endereco) {
+            if (endereco < 0 || endereco >= memSize) {
+                throw new Intraduzivel("endereço fora da memória em '" + p.texto(pc) + "'");
+            }
+            return endereco;
+        }
+
+        private void traduzir(int pc) {
+            origemAtual = pc;
+            int op = generico(p.codigo[pc]);
+            int arg = p.args[pc];
+            switch (op) {
+                case LDA -> pilha.add(Operando.endereco(arg));
+                case LDC -> pilha.add(Operando.de(constante(p.constantes[arg])));
+                case LOD -> pilha.add(Operando.de(celula(pc, arg)));
+                case STO -> {
+                    Operando e = desempilhar();
+                    Operando v = desempilhar();
+                    if (!e.ehEndereco()) {
+                        throw new Intraduzivel("'sto' com endereço calculado em tempo de execução");
+                    }
+                    gravar(celula(pc, e.endereco()), v);
+                }
+                case STO_DIRETO -> gravar(celula(pc, arg), desempilhar());
+                case ADD, SUB, MUL, DIV, CALL, EQU, NEQ, AND, OR, LET, GRT, LTE, GTE -> {
+                    int y = valor(desempilhar());
+                    int x = valor(desempilhar());
+                    resultado(binaria(op), x, y);
+                }
+                case NEG -> resultado(R_NEG, valor(desempilhar()), 0);
+                case NOT -> resultado(R_NOT, valor(desempilhar()), 0);
+                case TO -> {
+                    int x = valor(desempilhar());
+                    int t = temporario(pilha.size());
+                    produtora = emitir(R_TO, t, x, arg);
+                    pilha.add(Operando.de(t));
+                }
+                case WRI -> {
+                    emitir(R_WRI, 0, valor(desempilhar()), 0);
+                    produtora = -1;
+                }
+                case RD -> resultado(R_RD, 0, 0);
+                case FJP, TJP -> {
+                    int c = valor(desempilhar());
+                    materializar(arg, pc + 1 <= n && altura[pc + 1] >= 0 ? pc + 1 : -1);
+                    emitir(op == FJP ? R_JF : R_JT, 0, c, arg);
+                }
+                case JLT, JNLT, JGT, JNGT, JEQ, JNE -> {
+                    // A comparação vai para um temporário e o salto testa o resultado
+                    int y = valor(desempilhar());
+                    int x = valor(desempilhar());
+                    resultado(op == JLT || op == JNLT ? R_LET : op == JGT || op == JNGT ? R_GRT : R_EQU, x, y);
+                    int c = valor(desempilhar());
+                    materializar(arg, pc + 1 <= n && altura[pc + 1] >= 0 ? pc + 1 : -1);
+                    emitir(op == JLT || op == JGT || op == JEQ ? R_JT : R_JF, 0, c, arg);
+                }
+                case PIP -> {
+                    materializar(arg, -1);
+                    emitir(R_JMP, 0, 0, arg);
+                }
+                case STP -> emitir(R_STP, 0, 0, 0);
+                case INVALIDA -> emitir(R_FALHA, 0, constante(p.constantes[arg]), 0);
+                default -> throw new Intraduzivel("instrução não suportada '" + p.texto(pc) + "'");
+            }
+        }
+
+        private static int binaria(int op) {
+            return switch (op) {
+                case ADD -> R_ADD;
+                case SUB -> R_SUB;
+                case MUL -> R_MUL;
+                case DIV -> R_DIV;
+                case CALL -> R_POW;
+                case EQU -> R_EQU;
+                case NEQ -> R_NEQ;
+                case AND -> R_AND;
+                case OR -> R_OR;
+                case LET -> R_LET;
+                case GRT -> R_GRT;
+                case LTE -> R_LTE;
+                default -> R_GTE;
+            };
+        }
+
+        /**
+         * Grava o valor na célula. Leituras pendentes da célula na pilha são
+         * copiadas antes para os seus temporários. Se o valor acabou de ser
+         * calculado, a instrução que o calculou passa a gravar direto na célula.
+         */
+        private void gravar(int celula, Operando v) {
+            boolean pendente = false;
+            for (int i = 0; i < pilha.size(); i++) {
+                if (pilha.get(i).registro() == celula) {
+                    emitir(R_MOV, temporario(i), celula, 0);
+                    pilha.set(i, Operando.de(temporario(i)));
+                    pendente = true;
+                }
+            }
+            if (!pendente && produtora == tamanho - 1 && produtora >= 0 && v.registro() == d[produtora]) {
+                d[produtora] = celula;
+            } else {
+                emitir(R_MOV, celula, valor(v), 0);
+            }
+            produtora = -1;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.uepb;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import java.util.*;
+
+/**
+ * Dobramento e propagação de constantes sobre a árvore sintática, executado
+ * antes do GeradorPCode. Cada expressão cujo valor é conhecido em tempo de
+ * compilação recebe esse valor (com a mesma representação usada pelo
+ * PCodeMachine: Integer, Double ou String, com booleanos como 0/1), e os
+ * valores de variáveis são propagados pelo código em linha reta.
+ *
+ * Uma expressão só é dobrada quando a máquina a avaliaria sem erro; caso
+ * contrário ela fica para a execução, que reporta o erro como antes.
+ */
+public class PropagadorConstantes extends CompiladoresBaseVisitor<Object> {
+    /** Marca de valor desconhecido em tempo de compilação. */
+    private static final Object DESCONHECIDO = new Object();
+
+    private ParseTreeProperty<Object> constantes = new ParseTreeProperty<>();
+    // Valores conhecidos, indexados pelo endereço de memória da variável
+    private Map<Integer, Object> ambiente = new HashMap<>();
+    private ResolvedorEscopos escopos;
+
+    public PropagadorConstantes() {
+    }
+
+    /** Propagação comando a comando (analisarComando), com a resolução de nomes já feita. */
+    public PropagadorConstantes(ResolvedorEscopos escopos) {
+        this.escopos = escopos;
+    }
+
+    /**
+     * Analisa um comando de nível superior; os valores conhecidos continuam
+     * valendo para os comandos seguintes e as constantes do comando anterior
+     * são descartadas.
+     */
+    public void analisarComando(CompiladoresParser.StatementContext ctx) {
+        constantes = new ParseTreeProperty<>();
+        visit(ctx);
+    }
+
+    /** Resolução de nomes usada na análise; o GeradorPCode usa a mesma. */
+    public ResolvedorEscopos getEscopos() {
+        return escopos;
+    }
+
+    /** Valor constante da expressão, ou null se ela não for constante. */
+    public Object constante(ParseTree expr) {
+        return constantes.get(expr);
+    }
+
+    /** Valor lógico constante da condição, com a regra do fjp/tjp, ou null se não for conhecido. */
+    public Boolean valorLogico(ParseTree expr) {
+        Object valor = constantes.get(expr);
+        return valor == null ? null : valorLogicoDe(valor);
+    }
+
+    private Object registrar(ParseTree ctx, Object valor) {
+        if (valor != DESCONHECIDO) {
+            constantes.put(ctx, valor);
+        }
+        return valor;
+    }
+
+    // --- Comandos ---
+
+    @Override
+    public Object visitProgram(CompiladoresParser.ProgramContext ctx) {
+        escopos = new ResolvedorEscopos();
+        escopos.visit(ctx);
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Object visitVarDeclaration(CompiladoresParser.VarDeclarationContext ctx) {
+        // "var x;" só grava na memória quando declara uma variável nova em um bloco
+        if (ctx.expr() != null) {
+            atribuir(escopos.endereco(ctx.ID()), visit(ctx.expr()));
+        } else if (escopos.reinicia(ctx)) {
+            ambiente.remove(escopos.endereco(ctx.ID()));
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitAssignment(CompiladoresParser.AssignmentContext ctx) {
+        atribuir(escopos.endereco(ctx.ID()), visit(ctx.expr()));
+        return null;
+    }
+
+    @Override
+    public Object visitInputStatement(CompiladoresParser.InputStatementContext ctx) {
+        ambiente.remove(escopos.endereco(ctx.ID()));
+        return null;
+    }
+
+    @Override
+    public Object visitPrintStatement(CompiladoresParser.PrintStatementContext ctx) {
+        visit(ctx.expr());
+        return null;
+    }
+
+    @Override
+    public Object visitIfStatement(CompiladoresParser.IfStatementContext ctx) {
+        visit(ctx.expr());
+        Boolean cond = valorLogico(ctx.expr());
+        if (cond != null) {
+            // Só o ramo vivo é analisado; o outro não será gerado
+            if (cond) {
+                visit(ctx.statement(0));
+            } else if (ctx.statement().size() > 1) {
+                visit(ctx.statement(1));
+            }
+            return null;
+        }
+
+        Map<Integer, Object> antes = ambiente;
+        ambiente = new HashMap<>(antes);
+        visit(ctx.statement(0));
+        Map<Integer, Object> ramoEntao = ambiente;
+
+        ambiente = new HashMap<>(antes);
+        if (ctx.statement().size() > 1) {
+            visit(ctx.statement(1));
+        }
+        // Depois do if só continuam conhecidos os valores iguais nos dois caminhos
+        ambiente.entrySet().removeIf(e -> !Objects.equals(ramoEntao.get(e.getKey()), e.getValue()));
+        return null;
+    }
+
+    @Override
+    public Object visitWhileStatement(CompiladoresParser.WhileStatementContext ctx) {
+        Map<Integer, Object> antes = new HashMap<>(ambiente);
+        Set<Integer> alteradas = new HashSet<>();
+        coletarAtribuicoes(ctx.statement(), alteradas);
+        ambiente.keySet().removeAll(alteradas);
+
+        visit(ctx.expr());
+        if (Boolean.FALSE.equals(valorLogico(ctx.expr()))) {
+            // O corpo nunca executa
+            ambiente = antes;
+            return null;
+        }
+
+        Map<Integer, Object> depois = new HashMap<>(ambiente);
+        visit(ctx.statement());
+        ambiente = depois;
+        return null;
+    }
+
+    private void atribuir(int endereco, Object valor) {
+        if (valor == DESCONHECIDO) {
+            ambiente.remove(endereco);
+        } else {
+            ambiente.put(endereco, valor);
+        }
+    }
+
+    private void coletarAtribuicoes(ParseTree tree, Set<Integer> alteradas) {
+        if (tree instanceof CompiladoresParser.AssignmentContext a) {
+            alteradas.add(escopos.endereco(a.ID()));
+        } else if (tree instanceof CompiladoresParser.VarDeclarationContext v
+                && (v.expr() != null || escopos.reinicia(v))) {
+            alteradas.add(escopos.endereco(v.ID()));
+        } else if (tree instanceof CompiladoresParser.InputStatementContext in) {
+            alteradas.add(escopos.endereco(in.ID()));
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            coletarAtribuicoes(tree.getChild(i), alteradas);
+        }
+    }
+
+    // --- Expressões ---
+
+    @Override
+    public Object visitLogicalOrExpr(CompiladoresParser.LogicalOrExprContext ctx) {
+        Boolean esquerda = valorLogicoDe(visit(ctx.expr(0)));
+        if (Boolean.TRUE.equals(esquerda)) {
+            // Curto-circuito: o operando da direita não é avaliado
+            return registrar(ctx, 1);
+        }
+        Boolean direita = valorLogicoDe(visit(ctx.expr(1)));
+        if (esquerda == null || direita == null) {
+            return DESCONHECIDO;
+        }
+        return registrar(ctx, direita ? 1 : 0);
+    }
+
+    @Override
+    public Object visitLogicalAndExpr(CompiladoresParser.LogicalAndExprContext ctx) {
+        Boolean esquerda = valorLogicoDe(visit(ctx.expr(0)));
+        if (Boolean.FALSE.equals(esquerda)) {
+            return registrar(ctx, 0);
+        }
+        Boolean direita = valorLogicoDe(visit(ctx.expr(1)));
+        if (esquerda == null || direita == null) {
+            return DESCONHECIDO;
+        }
+        return registrar(ctx, direita ? 1 : 0);
+    }
+
+    @Override
+    public Object visitEqualityExpr(CompiladoresParser.EqualityExprContext ctx) {
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        if (left == DESCONHECIDO || right == DESCONHECIDO || left == null) {
+            return DESCONHECIDO;
+        }
+        boolean iguais = left.equals(right);
+        return registrar(ctx, (ctx.op.getType() == CompiladoresParser.EQ) == iguais ? 1 : 0);
+    }
+
+    @Override
+    public Object visitRelationalExpr(CompiladoresParser.RelationalExprContext ctx) {
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        if (!(left instanceof Number l) || !(right instanceof Number r)) {
+            return DESCONHECIDO;
+        }
+        boolean resultado = ctx.op.getType() == CompiladoresParser.LT
+                ? l.doubleValue() < r.doubleValue()
+                : l.doubleValue() > r.doubleValue();
+        return registrar(ctx, resultado ? 1 : 0);
+    }
+
+    @Override
+    public Object visitAdditiveExpr(CompiladoresParser.AdditiveExprContext ctx) {
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        if (!(left instanceof Number a) || !(right instanceof Number b)) {
+            return DESCONHECIDO;
+        }
+        return registrar(ctx, ctx.op.getType() == CompiladoresParser.PLUS
+                ? a.doubleValue() + b.doubleValue()
+                : a.doubleValue() - b.doubleValue());
+    }
+
+    @Override
+    public Object visitMultiplicativeExpr(CompiladoresParser.MultiplicativeExprContext ctx) {
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        if (!(left instanceof Number a) || !(right instanceof Number b)) {
+            return DESCONHECIDO;
+        }
+        return registrar(ctx, ctx.op.getType() == CompiladoresParser.MULT
+                ? a.doubleValue() * b.doubleValue()
+                : a.doubleValue() / b.doubleValue());
+    }
+
+    @Override
+    public Object visitPowerExpr(CompiladoresParser.PowerExprContext ctx) {
+        Object base = visit(ctx.expr(0));
+        Object expoente = visit(ctx.expr(1));
+        if (!(base instanceof Number b) || !(expoente instanceof Number e)) {
+            return DESCONHECIDO;
+        }
+        return registrar(ctx, Math.pow(b.doubleValue(), e.doubleValue()));
+    }
+
+    @Override
+    public Object visitUnaryExpr(CompiladoresParser.UnaryExprContext ctx) {
+        Object valor = visit(ctx.expr());
+        if (valor == DESCONHECIDO) {
+            return DESCONHECIDO;
+        }
+        if (ctx.op.getType() == CompiladoresParser.MINUS) {
+            valor = valor instanceof Number n ? (Object) (n.doubleValue() * -1) : DESCONHECIDO;
+        } else if (ctx.op.getType() == CompiladoresParser.NOT) {
+            valor = valor == null ? DESCONHECIDO : (Object) (Integer.valueOf(0).equals(valor) ? 1 : 0);
+        }
+        return registrar(ctx, valor);
+    }
+
+    @Override
+    public Object visitNumberExpr(CompiladoresParser.NumberExprContext ctx) {
+        return registrar(ctx, ProgramaPCode.parseValue(ctx.NUMBER().getText()));
+    }
+
+    @Override
+    public Object visitStringExpr(CompiladoresParser.StringExprContext ctx) {
+        return registrar(ctx, ProgramaPCode.parseValue(ctx.STRING().getText()));
+    }
+
+    @Override
+    public Object visitBooleanExpr(CompiladoresParser.BooleanExprContext ctx) {
+        return registrar(ctx, ProgramaPCode.parseValue(ctx.getText()));
+    }
+
+    @Override
+    public Object visitIdExpr(CompiladoresParser.IdExprContext ctx) {
+        return registrar(ctx, ambiente.getOrDefault(escopos.endereco(ctx.ID()), DESCONHECIDO));
+    }
+
+    @Override
+    public Object visitParenExpr(CompiladoresParser.ParenExprContext ctx) {
+        return registrar(ctx, visit(ctx.expr()));
+    }
+
+    /** Mesma regra de toBoolean da máquina; null quando a máquina daria erro. */
+    static Boolean valorLogicoDe(Object valor) {
+        if (valor instanceof Integer i) {
+            return i != 0;
+        }
+        if (valor instanceof Double d) {
+            return d.intValue() != 0;
+        }
+        return null;
+    }
+
+    /**
+     * Instrução "ldc" que reproduz o valor na máquina, ou null se o valor não
+     * tiver representação textual fiel (NaN e infinitos).
+     */
+    static String instrucaoLdc(Object valor) {
+        if (valor instanceof String s) {
+            return "ldc \"" + s + "\"";
+        }
+        if (valor instanceof Double d && (d.isNaN() || d.isInfinite())) {
+            return null;
+        }
+        return "ldc " + valor;
+    }
+}
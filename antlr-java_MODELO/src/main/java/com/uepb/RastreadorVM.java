@@ -0,0 +1,151 @@
+package com.uepb;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * Instrumentação do PCodeMachine: contadores por opcode despachado, um anel
+ * com os últimos eventos (pc, opcode, altura da pilha) para mostrar quando a
+ * execução falha, e o resumo da execução em JSON de uma linha.
+ *
+ * Os eventos JFR (início e fim da execução, rd e wri) só são gravados quando
+ * há uma gravação JFR ativa com os eventos "com.uepb.*" habilitados. Sem o
+ * JFR iniciado, as classes de evento nem chegam a ser carregadas.
+ */
+final class RastreadorVM {
+    /** Quantidade de eventos guardados no anel; potência de 2. */
+    static final int TAMANHO_ANEL = 64;
+
+    // Opcodes do ProgramaPCode e das superinstruções
+    private static final int OPCODES = 128;
+
+    private final long[] contagens = new long[OPCODES];
+    private final int[] anelPc = new int[TAMANHO_ANEL];
+    private final int[] anelOp = new int[TAMANHO_ANEL];
+    private final int[] anelAltura = new int[TAMANHO_ANEL];
+    private long eventos;
+    private int alturaMaxima;
+    private final long inicio = System.nanoTime();
+
+    void registrar(int pc, int op, int altura) {
+        contagens[op]++;
+        int i = (int) eventos & (TAMANHO_ANEL - 1);
+        anelPc[i] = pc;
+        anelOp[i] = op;
+        anelAltura[i] = altura;
+        eventos++;
+        if (altura > alturaMaxima) {
+            alturaMaxima = altura;
+        }
+    }
+
+    /** Mostra os eventos do anel, do mais antigo ao mais recente. */
+    void despejar(PrintStream out, ProgramaPCode programa) {
+        int quantidade = (int) Math.min(eventos, TAMANHO_ANEL);
+        out.println("Últimas " + quantidade + " instruções (pc, instrução, altura da pilha):");
+        for (long e = eventos - quantidade; e < eventos; e++) {
+            int i = (int) e & (TAMANHO_ANEL - 1);
+            out.printf("  %5d  %-24s %d%n", anelPc[i], descrever(anelOp[i], anelPc[i], programa), anelAltura[i]);
+        }
+    }
+
+    /**
+     * Resumo da execução em JSON: estado final ("stp", "fim" ou "erro"), pc
+     * final, instruções despachadas, altura máxima da pilha, tempo e contagem
+     * por opcode.
+     */
+    String resumo(String estado, int pc) {
+        StringJoiner opcodes = new StringJoiner(",", "{", "}");
+        for (int op = 0; op < OPCODES; op++) {
+            if (contagens[op] != 0) {
+                opcodes.add("\"" + nome(op) + "\":" + contagens[op]);
+            }
+        }
+        return String.format(Locale.ROOT,
+                "{\"estado\":\"%s\",\"pc\":%d,\"instrucoes\":%d,\"pilha_max\":%d,\"tempo_ms\":%.3f,\"opcodes\":%s}",
+                estado, pc, eventos, alturaMaxima, (System.nanoTime() - inicio) / 1e6, opcodes);
+    }
+
+    private static String descrever(int op, int pc, ProgramaPCode programa) {
+        return op < ProgramaPCode.NOMES.length ? programa.texto(pc) : nome(op);
+    }
+
+    /** Nome do opcode; "sto" com endereço aparece como "sto#" e as superinstruções pelo tipo. */
+    static String nome(int op) {
+        if (op < ProgramaPCode.NOMES.length) {
+            return Superinstrucoes.nome(op);
+        }
+        for (Superinstrucoes.Tipo tipo : Superinstrucoes.Tipo.values()) {
+            if (tipo.opcode == op) {
+                return tipo.name().toLowerCase(Locale.ROOT);
+            }
+        }
+        return "op" + op;
+    }
+
+    // --- Eventos JFR ---
+
+    static boolean jfrAtivo() {
+        return FlightRecorder.isInitialized();
+    }
+
+    static Execucao iniciarExecucao() {
+        Execucao evento = new Execucao();
+        evento.begin();
+        return evento;
+    }
+
+    static void concluirExecucao(Execucao evento, long instrucoes, String estado) {
+        if (evento.shouldCommit()) {
+            evento.instrucoes = instrucoes;
+            evento.estado = estado;
+            evento.commit();
+        }
+    }
+
+    static EntradaSaida iniciarEntradaSaida() {
+        EntradaSaida evento = new EntradaSaida();
+        evento.begin();
+        return evento;
+    }
+
+    static void concluirEntradaSaida(EntradaSaida evento, String instrucao, int pc) {
+        if (evento.shouldCommit()) {
+            evento.instrucao = instrucao;
+            evento.pc = pc;
+            evento.commit();
+        }
+    }
+
+    @Name("com.uepb.Execucao")
+    @Label("Execução P-Code")
+    @Category("P-Code")
+    @Description("Execução de um programa no PCodeMachine, do início até stp, fim do código ou erro")
+    static final class Execucao extends Event {
+        @Label("Instruções")
+        long instrucoes;
+
+        @Label("Estado final")
+        String estado;
+    }
+
+    @Name("com.uepb.EntradaSaida")
+    @Label("E/S P-Code")
+    @Category("P-Code")
+    @Description("Instrução rd ou wri, com o tempo gasto na leitura ou escrita")
+    static final class EntradaSaida extends Event {
+        @Label("Instrução")
+        String instrucao;
+
+        @Label("PC")
+        int pc;
+    }
+}
@@ -0,0 +1,12 @@
+package com.uepb;
+
+/**
+ * Regra de reescrita do otimizador peephole. A regra recebe uma janela
+ * posicionada em uma linha do P-Code e, se reconhecer o padrão a partir dali,
+ * altera o código através da própria janela.
+ */
+public interface RegraPeephole {
+
+    /** Retorna true se a regra alterou o código. */
+    boolean aplicar(OtimizadorPeephole.Janela janela);
+}
@@ -0,0 +1,289 @@
+package com.uepb;
+
+import static com.uepb.OtimizadorPeephole.Janela.*;
+
+/**
+ * Regras padrão do otimizador peephole. A ordem das constantes é a ordem em que
+ * são tentadas em cada posição.
+ */
+public enum RegrasPeephole implements RegraPeephole {
+
+    /** ldc -1; mul  =>  neg  (e ldc -1; muln  =>  negn) */
+    NEG {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            if ("ldc -1".equals(j.get(0)) && ("mul".equals(j.get(1)) || "muln".equals(j.get(1)))) {
+                j.substituir(0, 2, "mul".equals(j.get(1)) ? "neg" : "negn");
+                return true;
+            }
+            return false;
+        }
+    },
+
+    /** ldc false; equ  =>  not  (e ldc false; equi  =>  notb) */
+    NOT {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            if ("ldc false".equals(j.get(0)) && ("equ".equals(j.get(1)) || "equi".equals(j.get(1)))) {
+                j.substituir(0, 2, "equ".equals(j.get(1)) ? "not" : "notb");
+                return true;
+            }
+            return false;
+        }
+    },
+
+    /** comparação; not; fjp L  =>  comparação; tjp L (e vice-versa), pois a comparação produz sempre 0 ou 1 */
+    NOT_SALTO {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            if (ehComparacao(j.get(0)) && ("not".equals(j.get(1)) || "notb".equals(j.get(1)))) {
+                String invertido = saltoInverso(op(j.get(2)));
+                if (invertido != null) {
+                    j.substituir(1, 2, invertido + " " + operando(j.get(2)));
+                    return true;
+                }
+            }
+            return false;
+        }
+    },
+
+    /**
+     * comparação; fjp/tjp L  =>  salto comparado (let; fjp L  =>  jnlt L, equ; fjp L  =>  jne L...).
+     * O neq genérico fica de fora: um jeq/jne que falha é mostrado como o equ que ele substitui.
+     */
+    COMPARACAO_SALTO {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            String salto = op(j.get(1));
+            if (j.get(0) == null || saltoInverso(salto) == null) {
+                return false;
+            }
+            boolean seVerdadeiro = salto.startsWith("tjp");
+            String fundido = switch (j.get(0)) {
+                case "let", "letn" -> seVerdadeiro ? "jlt" : "jnlt";
+                case "grt", "grtn" -> seVerdadeiro ? "jgt" : "jngt";
+                case "equ", "equi" -> seVerdadeiro ? "jeq" : "jne";
+                case "neqi" -> seVerdadeiro ? "jne" : "jeq";
+                default -> null;
+            };
+            if (fundido == null) {
+                return false;
+            }
+            j.substituir(0, 2, fundido + " " + operando(j.get(1)));
+            return true;
+        }
+    },
+
+    /** lda #n; sto  =>  sto #n */
+    STO_DIRETO {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            if (op(j.get(0)).equals("lda") && "sto".equals(j.get(1))) {
+                j.substituir(0, 2, "sto " + operando(j.get(0)));
+                return true;
+            }
+            return false;
+        }
+    },
+
+    /** to float; to float; call POW_FUNCTION  =>  call POW_FUNCTION, que já converte os operandos */
+    POW {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            if ("to float".equals(j.get(0)) && "call POW_FUNCTION".equals(j.get(1))) {
+                j.substituir(0, 1);
+                return true;
+            }
+            return false;
+        }
+    },
+
+    /** ldc c; fjp/tjp L  =>  pip L ou nada, conforme o valor lógico da constante */
+    SALTO_CONSTANTE {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            Boolean valor = valorLogico(j.get(0));
+            String op = op(j.get(1));
+            if (valor == null || saltoInverso(op) == null) {
+                return false;
+            }
+            if (op.startsWith("tjp") == valor) {
+                j.substituir(0, 2, "pip " + operando(j.get(1)));
+            } else {
+                j.substituir(0, 2);
+            }
+            return true;
+        }
+    },
+
+    /**
+     * ldc c; pip L, com "L: fjp/tjp M": o teste em L é resolvido em tempo de
+     * compilação e o salto vai direto para M ou para a instrução seguinte ao teste.
+     */
+    CONSTANTE_ATE_SALTO {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            Boolean valor = valorLogico(j.get(0));
+            if (valor == null || !op(j.get(1)).equals("pip")) {
+                return false;
+            }
+            Integer alvo = j.posicaoDoLabel(operando(j.get(1)));
+            if (alvo == null) {
+                return false;
+            }
+            int teste = j.pularLabels(alvo);
+            String op = op(j.get(teste));
+            if (saltoInverso(op) == null) {
+                return false;
+            }
+            String destino = op.startsWith("tjp") == valor ? operando(j.get(teste)) : j.labelEm(teste + 1);
+            j.substituir(0, 2, "pip " + destino);
+            return true;
+        }
+    },
+
+    /** Salto para um label cuja primeira instrução é "pip M" passa a saltar direto para M. */
+    ENCADEAMENTO {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            String linha = j.get(0);
+            if (linha == null || !ehSalto(linha)) {
+                return false;
+            }
+            String label = operando(linha);
+            Integer alvo = j.posicaoDoLabel(label);
+            if (alvo == null) {
+                return false;
+            }
+            String destino = j.get(j.pularLabels(alvo));
+            if (destino == null || !op(destino).equals("pip")) {
+                return false;
+            }
+            String novo = operando(destino);
+            // Laço "L: pip L" não tem para onde ser encadeado
+            if (novo.equals(label) || j.labelNaSequencia(novo, alvo)) {
+                return false;
+            }
+            j.substituir(0, 1, op(linha) + " " + novo);
+            return true;
+        }
+    },
+
+    /**
+     * fjpb A; pip B; A:  =>  tjpb B; A:  (e o simétrico com tjpb e com os saltos comparados).
+     * O fjp/tjp genérico fica de fora: ele falha com um valor não lógico, e o
+     * erro mostraria o salto invertido.
+     */
+    INVERSAO {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            String op = op(j.get(0));
+            String invertido = op.endsWith("b") ? saltoInverso(op) : comparadoInverso(op);
+            if (invertido == null || !op(j.get(1)).equals("pip")) {
+                return false;
+            }
+            if (!j.labelNaSequencia(operando(j.get(0)), 2)) {
+                return false;
+            }
+            j.substituir(0, 2, invertido + " " + operando(j.get(1)));
+            return true;
+        }
+    },
+
+    /** pip L seguido imediatamente por L: é removido. */
+    SALTO_PROXIMO {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            if (op(j.get(0)).equals("pip") && j.labelNaSequencia(operando(j.get(0)), 1)) {
+                j.substituir(0, 1);
+                return true;
+            }
+            return false;
+        }
+    },
+
+    /** Instruções depois de pip/stp e antes do próximo label nunca executam. */
+    INALCANCAVEL {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            String op = op(j.get(0));
+            if (!(op.equals("pip") || op.equals("stp"))) {
+                return false;
+            }
+            int fim = 1;
+            while (j.get(fim) != null && !ehLabel(j.get(fim))) {
+                fim++;
+            }
+            if (fim == 1) {
+                return false;
+            }
+            j.substituir(1, fim - 1);
+            return true;
+        }
+    },
+
+    /** Labels sem nenhum salto apontando para eles são removidos. */
+    LABEL_NAO_USADO {
+        @Override
+        public boolean aplicar(OtimizadorPeephole.Janela j) {
+            String linha = j.get(0);
+            if (ehLabel(linha) && j.referencias(nomeLabel(linha)) == 0) {
+                j.substituir(0, 1);
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static boolean ehComparacao(String linha) {
+        if (linha == null) {
+            return false;
+        }
+        switch (linha) {
+            case "equ": case "neq": case "let": case "grt": case "lte": case "gte": case "not":
+            case "equi": case "neqi": case "letn": case "grtn": case "notb":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Salto condicional com o teste invertido, mantendo a especialização; null se não for um. */
+    private static String saltoInverso(String op) {
+        switch (op) {
+            case "fjp": return "tjp";
+            case "tjp": return "fjp";
+            case "fjpb": return "tjpb";
+            case "tjpb": return "fjpb";
+            default: return null;
+        }
+    }
+
+    /** Salto comparado com a condição negada (jlt e jnlt, jeq e jne...); null se não for um. */
+    private static String comparadoInverso(String op) {
+        switch (op) {
+            case "jlt": return "jnlt";
+            case "jnlt": return "jlt";
+            case "jgt": return "jngt";
+            case "jngt": return "jgt";
+            case "jeq": return "jne";
+            case "jne": return "jeq";
+            default: return null;
+        }
+    }
+
+    /** Valor lógico de um "ldc" numérico ou booleano, com a mesma regra do fjp/tjp da máquina. */
+    private static Boolean valorLogico(String linha) {
+        if (!op(linha).equals("ldc")) {
+            return null;
+        }
+        Object valor = ProgramaPCode.parseValue(operando(linha));
+        if (valor instanceof Integer) {
+            return (Integer) valor != 0;
+        }
+        if (valor instanceof Double) {
+            return ((Double) valor).intValue() != 0;
+        }
+        return null;
+    }
+}
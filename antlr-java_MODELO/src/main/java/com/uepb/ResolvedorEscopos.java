@@ -0,0 +1,255 @@
+package com.uepb;
+
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Resolução de nomes com escopo léxico, executada antes da geração de código.
+ * Cada bloco abre um escopo; uma declaração "var" dentro dele esconde a
+ * variável de mesmo nome dos escopos externos até o fim do bloco. Identificadores
+ * usados sem declaração continuam valendo como variáveis globais.
+ *
+ * Cada ocorrência de identificador recebe um par (profundidade, posição) e um
+ * endereço de memória. Os escopos aninhados são empilhados a partir do fim da
+ * área global e, quando um bloco termina, seus endereços voltam a ser usados
+ * pelas declarações seguintes; a memória necessária é a do maior número de
+ * variáveis vivas ao mesmo tempo.
+ *
+ * No modo incremental, usado pela compilação em streaming, os comandos de
+ * nível superior são resolvidos um a um, sem a árvore do programa inteiro.
+ */
+public class ResolvedorEscopos extends CompiladoresBaseVisitor<Void> {
+    private final Scope scope = new Scope(new LinkedList<>());
+    private ParseTreeProperty<Scope.Binding> bindings = new ParseTreeProperty<>();
+    // Tabela de símbolos do escopo que declara cada identificador; continua acessível depois do bloco
+    private ParseTreeProperty<SymbolTable> tabelas = new ParseTreeProperty<>();
+    // Deslocamento, a partir do fim da área global, das variáveis de escopos aninhados
+    private ParseTreeProperty<Integer> deslocamentos = new ParseTreeProperty<>();
+    private ParseTreeProperty<Boolean> reinicios = new ParseTreeProperty<>();
+    // Deslocamento inicial de cada escopo aninhado, indexado pela profundidade
+    private final List<Integer> bases = new ArrayList<>(List.of(0));
+    private int pico = 0;
+    private int variaveis = 0;
+    private boolean usaNulo = false;
+
+    // Modo incremental: endereço de cada global, área dos escopos aninhados
+    // (compartilhada pelos comandos) e primeiro endereço ainda não usado
+    private final boolean incremental;
+    private final List<Integer> enderecosGlobais = new ArrayList<>();
+    private int baseAninhada;
+    private int tamanhoAninhada;
+    private int livre;
+    private int nulo = -1;
+
+    // Temporários do gerador, empilhados depois de todos os outros endereços
+    private int temporarios;
+    private int picoTemporarios;
+    private int baseTemporarios;
+    private int tamanhoTemporarios;
+
+    public ResolvedorEscopos() {
+        this(false);
+    }
+
+    private ResolvedorEscopos(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /** Resolvedor para compilar o programa comando a comando, com resolverComando. */
+    public static ResolvedorEscopos incremental() {
+        ResolvedorEscopos r = new ResolvedorEscopos(true);
+        r.scope.startScope();
+        return r;
+    }
+
+    /**
+     * Resolve um comando de nível superior no modo incremental; as
+     * informações do comando anterior são descartadas.
+     *
+     * Sem saber quantas globais ainda virão, a área dos escopos aninhados não
+     * pode ficar depois delas. Ela é reaproveitada de um comando para o outro
+     * e, quando um comando precisa de mais espaço, cresce no lugar se estiver
+     * no topo ou é recriada acima de tudo. As globais sempre recebem endereços
+     * nunca escritos, já que uma global lida antes de atribuída vale nulo.
+     */
+    public void resolverComando(CompiladoresParser.StatementContext ctx) {
+        bindings = new ParseTreeProperty<>();
+        tabelas = new ParseTreeProperty<>();
+        deslocamentos = new ParseTreeProperty<>();
+        reinicios = new ParseTreeProperty<>();
+        int globais = scope.getGlobalScope().size();
+        pico = 0;
+        visit(ctx);
+        if (pico > tamanhoAninhada) {
+            if (baseAninhada + tamanhoAninhada != livre) {
+                baseAninhada = livre;
+                tamanhoAninhada = 0;
+            }
+            livre += pico - tamanhoAninhada;
+            tamanhoAninhada = pico;
+        }
+        for (int slot = globais; slot < scope.getGlobalScope().size(); slot++) {
+            enderecosGlobais.add(livre++);
+        }
+        if (usaNulo && nulo < 0) {
+            nulo = livre++;
+        }
+    }
+
+    public Scope.Binding binding(TerminalNode id) {
+        return bindings.get(id);
+    }
+
+    /** Tabela de símbolos em que a variável do identificador está declarada. */
+    public SymbolTable tabela(TerminalNode id) {
+        return tabelas.get(id);
+    }
+
+    /** Endereço de memória da variável a que o identificador se refere. */
+    public int endereco(TerminalNode id) {
+        Scope.Binding b = bindings.get(id);
+        if (incremental) {
+            return b.depth() == 0 ? enderecosGlobais.get(b.slot()) : baseAninhada + deslocamentos.get(id);
+        }
+        return b.depth() == 0 ? b.slot() : scope.getGlobalScope().size() + deslocamentos.get(id);
+    }
+
+    /**
+     * Indica se a declaração sem valor inicial precisa limpar o endereço, que
+     * pode conter o valor de uma variável de um bloco já encerrado ou da
+     * execução anterior do mesmo bloco.
+     */
+    public boolean reinicia(CompiladoresParser.VarDeclarationContext ctx) {
+        return reinicios.get(ctx) != null;
+    }
+
+    /** Endereço reservado que nunca é escrito; usado para limpar variáveis. */
+    public int enderecoNulo() {
+        if (incremental) {
+            return nulo;
+        }
+        return scope.getGlobalScope().size() + pico;
+    }
+
+    /**
+     * Reserva um endereço para um valor temporário do gerador, como uma
+     * subexpressão calculada antes de um laço. Os temporários formam uma
+     * pilha: liberarTemporarios(marca) devolve os reservados depois da marca
+     * obtida com marcaTemporarios(). Sem a resolução do programa inteiro, a
+     * área cresce no topo da memória como a dos escopos aninhados.
+     */
+    public int reservarTemporario() {
+        if (!incremental) {
+            picoTemporarios = Math.max(picoTemporarios, temporarios + 1);
+            return scope.getGlobalScope().size() + pico + (usaNulo ? 1 : 0) + temporarios++;
+        }
+        if (temporarios == tamanhoTemporarios) {
+            if (baseTemporarios + tamanhoTemporarios != livre) {
+                // Os temporários ainda em uso ficam na área antiga; os índices deles são pulados na nova
+                baseTemporarios = livre;
+                livre += temporarios;
+                tamanhoTemporarios = temporarios;
+            }
+            livre++;
+            tamanhoTemporarios++;
+        }
+        return baseTemporarios + temporarios++;
+    }
+
+    public int marcaTemporarios() {
+        return temporarios;
+    }
+
+    public void liberarTemporarios(int marca) {
+        temporarios = marca;
+    }
+
+    /** Quantidade de endereços de memória usados pelo programa. */
+    public int getTamanhoMemoria() {
+        if (incremental) {
+            return livre;
+        }
+        return scope.getGlobalScope().size() + pico + (usaNulo ? 1 : 0) + picoTemporarios;
+    }
+
+    /** Quantidade de variáveis distintas declaradas (ou usadas sem declaração). */
+    public int getVariaveis() {
+        return variaveis;
+    }
+
+    @Override
+    public Void visitProgram(CompiladoresParser.ProgramContext ctx) {
+        scope.startScope();
+        return visitChildren(ctx);
+    }
+
+    @Override
+    public Void visitBlock(CompiladoresParser.BlockContext ctx) {
+        int depth = scope.depth();
+        int base = depth == 0 ? 0 : bases.get(depth) + scope.getCurrentScope().size();
+        scope.startScope();
+        bases.add(base);
+        visitChildren(ctx);
+        bases.remove(bases.size() - 1);
+        scope.dropScope();
+        return null;
+    }
+
+    @Override
+    public Void visitVarDeclaration(CompiladoresParser.VarDeclarationContext ctx) {
+        if (ctx.expr() != null) {
+            visit(ctx.expr());
+        }
+        String nome = ctx.ID().getText();
+        boolean nova = scope.getCurrentScope().check(nome) == null;
+        scope.getCurrentScope().insert(nome, ctx.expr() != null ? ctx.expr().getText() : null);
+        if (nova) {
+            variaveis++;
+            if (ctx.expr() == null && scope.depth() > 0) {
+                reinicios.put(ctx, true);
+                usaNulo = true;
+            }
+        }
+        resolver(ctx.ID());
+        return null;
+    }
+
+    @Override
+    public Void visitAssignment(CompiladoresParser.AssignmentContext ctx) {
+        visit(ctx.expr());
+        resolver(ctx.ID());
+        return null;
+    }
+
+    @Override
+    public Void visitInputStatement(CompiladoresParser.InputStatementContext ctx) {
+        resolver(ctx.ID());
+        return null;
+    }
+
+    @Override
+    public Void visitIdExpr(CompiladoresParser.IdExprContext ctx) {
+        resolver(ctx.ID());
+        return null;
+    }
+
+    private void resolver(TerminalNode id) {
+        String nome = id.getText();
+        Scope.Binding b = scope.resolve(nome).orElseGet(() -> {
+            // Uso sem declaração: variável global implícita
+            variaveis++;
+            return new Scope.Binding(0, scope.getGlobalScope().insert(nome, null).slot());
+        });
+        bindings.put(id, b);
+        tabelas.put(id, scope.getScope(b.depth()));
+        if (b.depth() > 0) {
+            int deslocamento = bases.get(b.depth()) + b.slot();
+            deslocamentos.put(id, deslocamento);
+            pico = Math.max(pico, deslocamento + 1);
+        }
+    }
+}
@@ -6,6 +6,9 @@ import com.uepb.SymbolTable.TableInput;
 
 public class Scope {
 
+    /** Resolução de um identificador: profundidade do escopo (0 = global) e posição dentro dele. */
+    public record Binding(int depth, int slot){};
+
     private final LinkedList<SymbolTable> scopes;
 
     public Scope(LinkedList<SymbolTable> scopes) {
@@ -24,10 +27,40 @@ public class Scope {
         return scopes.peek();
     }
 
+    public SymbolTable getGlobalScope(){
+        return scopes.peekLast();
+    }
+
+    /** Tabela do escopo na profundidade indicada (0 = global). */
+    public SymbolTable getScope(int depth){
+        return scopes.get(depth() - depth);
+    }
+
+    /** Profundidade do escopo atual; o escopo global tem profundidade 0. */
+    public int depth(){
+        return scopes.size() - 1;
+    }
+
     public Optional<TableInput> findFirstOccurrenceOf(String symbolName) {
-        return scopes.stream()
-                .filter(st -> st.check(symbolName) != null)
-                .findFirst()
-                .map(st -> st.check(symbolName));
+        for (SymbolTable st : scopes) {
+            TableInput entrada = st.check(symbolName);
+            if (entrada != null) {
+                return Optional.of(entrada);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /** Resolve o identificador no escopo mais interno que o declara. */
+    public Optional<Binding> resolve(String symbolName) {
+        int depth = depth();
+        for (SymbolTable st : scopes) {
+            TableInput entrada = st.check(symbolName);
+            if (entrada != null) {
+                return Optional.of(new Binding(depth, entrada.slot()));
+            }
+            depth--;
+        }
+        return Optional.empty();
     }
 }
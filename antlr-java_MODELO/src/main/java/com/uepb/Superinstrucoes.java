@@ -0,0 +1,265 @@
+package com.uepb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.uepb.ProgramaPCode.*;
+
+/**
+ * Superinstruções do PCodeMachine: sequências curtas e frequentes que são
+ * fundidas em um único despacho no momento da carga.
+ *
+ * A fusão não renumera o programa. A posição inicial da sequência recebe o
+ * opcode fundido e as demais ficam como estão, de modo que destinos de salto
+ * continuam válidos e a máquina pode voltar à instrução original sempre que a
+ * superinstrução não puder tratar o caso (por exemplo, um operando não numérico).
+ * Sequências com destino de salto no meio nunca são fundidas.
+ */
+public final class Superinstrucoes {
+    // Opcodes fundidos; começam depois de todos os opcodes do ProgramaPCode
+    public static final int LOD_LOD_ARIT = 64;
+    public static final int LOD_LDC_ARIT = 65;
+    public static final int LOD_LOD_ARIT_STO = 66;
+    public static final int LOD_LDC_ARIT_STO = 67;
+    public static final int LOD_LOD_CMP_FJP = 68;
+    public static final int LOD_LDC_CMP_FJP = 69;
+    public static final int LDC_STO = 70;
+    public static final int LOD_STO = 71;
+    public static final int LOD_LOD_JCMP = 72;
+    public static final int LOD_LDC_JCMP = 73;
+
+    // Também casam as instruções especializadas pelo tipo dos operandos
+    private static final String ARITMETICAS = "add|sub|mul|div|addn|subn|muln|divn";
+    private static final String COMPARACOES = "let|grt|letn|grtn";
+    private static final String SALTOS_COMPARADOS = "jlt|jnlt|jgt|jngt";
+
+    /** Catálogo de superinstruções, da mais longa para a mais curta. */
+    public enum Tipo {
+        LOD_LOD_ARIT_STO(Superinstrucoes.LOD_LOD_ARIT_STO, "lod", "lod", ARITMETICAS, "sto#"),
+        LOD_LDC_ARIT_STO(Superinstrucoes.LOD_LDC_ARIT_STO, "lod", "ldc", ARITMETICAS, "sto#"),
+        LOD_LOD_CMP_FJP(Superinstrucoes.LOD_LOD_CMP_FJP, "lod", "lod", COMPARACOES, "fjp|fjpb"),
+        LOD_LDC_CMP_FJP(Superinstrucoes.LOD_LDC_CMP_FJP, "lod", "ldc", COMPARACOES, "fjp|fjpb"),
+        LOD_LOD_JCMP(Superinstrucoes.LOD_LOD_JCMP, "lod", "lod", SALTOS_COMPARADOS),
+        LOD_LDC_JCMP(Superinstrucoes.LOD_LDC_JCMP, "lod", "ldc", SALTOS_COMPARADOS),
+        LOD_LOD_ARIT(Superinstrucoes.LOD_LOD_ARIT, "lod", "lod", ARITMETICAS),
+        LOD_LDC_ARIT(Superinstrucoes.LOD_LDC_ARIT, "lod", "ldc", ARITMETICAS),
+        LDC_STO(Superinstrucoes.LDC_STO, "ldc", "sto#"),
+        LOD_STO(Superinstrucoes.LOD_STO, "lod", "sto#");
+
+        final int opcode;
+        private final String[][] padrao;
+
+        Tipo(int opcode, String... padrao) {
+            this.opcode = opcode;
+            this.padrao = new String[padrao.length][];
+            for (int i = 0; i < padrao.length; i++) {
+                this.padrao[i] = padrao[i].split("\\|");
+            }
+        }
+
+        int tamanho() {
+            return padrao.length;
+        }
+
+        /** Verifica se uma sequência de nomes (como gravada no perfil) é coberta por esta superinstrução. */
+        boolean cobre(String[] nomes) {
+            if (nomes.length != padrao.length) {
+                return false;
+            }
+            for (int i = 0; i < nomes.length; i++) {
+                if (!Arrays.asList(padrao[i]).contains(nomes[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Tamanho máximo dos n-gramas gravados no perfil. */
+    private static final int MAX_NGRAMA = 4;
+
+    final int[] codigo;
+    // Operandos das superinstruções, indexados pela posição inicial da sequência
+    final int[] a;
+    final int[] b;
+    final int[] c;
+    final int[] d;
+    private final int fundidas;
+
+    private Superinstrucoes(int[] codigo, int[] a, int[] b, int[] c, int[] d, int fundidas) {
+        this.codigo = codigo;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.fundidas = fundidas;
+    }
+
+    /** Quantidade de posições que receberam um opcode fundido. */
+    public int getFundidas() {
+        return fundidas;
+    }
+
+    public static Superinstrucoes fundir(ProgramaPCode programa, Set<Tipo> ativas, int memSize) {
+        int n = programa.tamanho();
+        int[] codigo = programa.codigo.clone();
+        int[] a = new int[n];
+        int[] b = new int[n];
+        int[] c = new int[n];
+        int[] d = new int[n];
+        boolean[] destinos = destinosDeSalto(programa);
+        int fundidas = 0;
+
+        for (int pc = 0; pc < n; pc++) {
+            for (Tipo tipo : Tipo.values()) {
+                if (ativas.contains(tipo) && casa(programa, tipo, pc, destinos, memSize)) {
+                    preencher(programa, tipo, pc, a, b, c, d);
+                    codigo[pc] = tipo.opcode;
+                    fundidas++;
+                    break;
+                }
+            }
+        }
+        return new Superinstrucoes(codigo, a, b, c, d, fundidas);
+    }
+
+    private static boolean casa(ProgramaPCode p, Tipo tipo, int pc, boolean[] destinos, int memSize) {
+        if (pc + tipo.tamanho() > p.tamanho()) {
+            return false;
+        }
+        for (int i = 0; i < tipo.tamanho(); i++) {
+            int pos = pc + i;
+            if (i > 0 && destinos[pos]) {
+                return false;
+            }
+            if (!Arrays.asList(tipo.padrao[i]).contains(nome(p.codigo[pos]))) {
+                return false;
+            }
+            int op = p.codigo[pos];
+            // Endereços fora da memória ficam para o caminho normal, que reporta o erro
+            if ((op == LOD || op == STO_DIRETO) && (p.args[pos] < 0 || p.args[pos] >= memSize)) {
+                return false;
+            }
+            // Nas sequências aritméticas e de comparação a constante precisa ser numérica
+            if (op == LDC && tipo != Tipo.LDC_STO) {
+                byte t = p.tiposConst[p.args[pos]];
+                if (t != T_INT && t != T_REAL) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void preencher(ProgramaPCode p, Tipo tipo, int pc, int[] a, int[] b, int[] c, int[] d) {
+        int[] args = p.args;
+        switch (tipo) {
+            case LOD_LOD_ARIT, LOD_LDC_ARIT, LOD_LOD_CMP_FJP, LOD_LDC_CMP_FJP,
+                 LOD_LOD_ARIT_STO, LOD_LDC_ARIT_STO -> {
+                a[pc] = args[pc];
+                b[pc] = args[pc + 1];
+                c[pc] = generico(p.codigo[pc + 2]);
+                if (tipo.tamanho() == 4) {
+                    d[pc] = args[pc + 3];
+                }
+            }
+            case LOD_LOD_JCMP, LOD_LDC_JCMP -> {
+                a[pc] = args[pc];
+                b[pc] = args[pc + 1];
+                c[pc] = p.codigo[pc + 2];
+                d[pc] = args[pc + 2];
+            }
+            case LDC_STO, LOD_STO -> {
+                a[pc] = args[pc];
+                b[pc] = args[pc + 1];
+            }
+        }
+    }
+
+    private static boolean[] destinosDeSalto(ProgramaPCode p) {
+        boolean[] destinos = new boolean[p.tamanho() + 1];
+        for (int i = 0; i < p.tamanho(); i++) {
+            if (salta(p.codigo[i])) {
+                destinos[p.args[i]] = true;
+            }
+        }
+        return destinos;
+    }
+
+    /** Nome do opcode como aparece no perfil; "sto #n" é distinguido do "sto" da pilha. */
+    static String nome(int op) {
+        return op == STO_DIRETO ? "sto#" : NOMES[op];
+    }
+
+    private static boolean desviaFluxo(int op) {
+        return salta(op) || op == STP;
+    }
+
+    // --- Perfil de n-gramas ---
+
+    /**
+     * Grava a frequência dinâmica de cada sequência de 2 a 4 instruções
+     * consecutivas: cada sequência recebe o número de vezes que sua primeira
+     * instrução executou. Só entram sequências que poderiam ser fundidas, isto
+     * é, sem destino de salto no meio e sem desvio antes da última instrução.
+     * Formato: uma linha "contagem&lt;TAB&gt;op op ..." por n-grama, do mais frequente
+     * para o menos frequente.
+     */
+    public static void gravarPerfil(ProgramaPCode programa, long[] execucoes, Path arquivo) throws IOException {
+        boolean[] destinos = destinosDeSalto(programa);
+        Map<String, Long> frequencias = new HashMap<>();
+        for (int pc = 0; pc < programa.tamanho(); pc++) {
+            if (execucoes[pc] == 0) {
+                continue;
+            }
+            StringBuilder chave = new StringBuilder(nome(programa.codigo[pc]));
+            for (int n = 2; n <= MAX_NGRAMA && pc + n - 1 < programa.tamanho(); n++) {
+                int pos = pc + n - 1;
+                if (destinos[pos] || desviaFluxo(programa.codigo[pos - 1])) {
+                    break;
+                }
+                chave.append(' ').append(nome(programa.codigo[pos]));
+                frequencias.merge(chave.toString(), execucoes[pc], Long::sum);
+            }
+        }
+
+        List<Map.Entry<String, Long>> ordenadas = new ArrayList<>(frequencias.entrySet());
+        ordenadas.sort(Map.Entry.<String, Long>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(arquivo))) {
+            for (Map.Entry<String, Long> e : ordenadas) {
+                out.println(e.getValue() + "\t" + e.getKey());
+            }
+        }
+    }
+
+    /** Superinstruções do catálogo que cobrem algum n-grama presente no perfil. */
+    public static EnumSet<Tipo> lerPerfil(Path arquivo) throws IOException {
+        EnumSet<Tipo> ativas = EnumSet.noneOf(Tipo.class);
+        try (BufferedReader reader = Files.newBufferedReader(arquivo)) {
+            String linha;
+            while ((linha = reader.readLine()) != null) {
+                int tab = linha.indexOf('\t');
+                if (tab < 0 || Long.parseLong(linha.substring(0, tab)) == 0) {
+                    continue;
+                }
+                String[] nomes = linha.substring(tab + 1).trim().split(" ");
+                for (Tipo tipo : Tipo.values()) {
+                    if (tipo.cobre(nomes)) {
+                        ativas.add(tipo);
+                    }
+                }
+            }
+        }
+        return ativas;
+    }
+
+    /** Conjunto embutido usado quando nenhum perfil é informado. */
+    public static EnumSet<Tipo> padrao() {
+        return EnumSet.allOf(Tipo.class);
+    }
+}
@@ -4,7 +4,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class SymbolTable {
-    public record TableInput(String symbolName, String valor){};
+    /** Entrada da tabela; tipo reúne os tipos que a variável pode ter (máscara de InferidorTipos, 0 se não analisada). */
+    public record TableInput(String symbolName, String valor, int slot, int tipo){};
 
     private final Map<String, TableInput> tables;
 
@@ -12,11 +13,28 @@ public class SymbolTable {
         tables = new HashMap<>();
     }
 
-    public void insert(String symbolName, String valor) {
-        tables.put(symbolName, new TableInput(symbolName, valor));
+    /** Insere o símbolo; uma redeclaração no mesmo escopo mantém a posição já atribuída. */
+    public TableInput insert(String symbolName, String valor) {
+        TableInput anterior = tables.get(symbolName);
+        int slot = anterior != null ? anterior.slot() : tables.size();
+        TableInput entrada = new TableInput(symbolName, valor, slot, anterior != null ? anterior.tipo() : 0);
+        tables.put(symbolName, entrada);
+        return entrada;
+    }
+
+    /** Acrescenta tipos aos já registrados para o símbolo. */
+    public void tipar(String symbolName, int tipo) {
+        TableInput e = tables.get(symbolName);
+        if (e != null && (e.tipo() | tipo) != e.tipo()) {
+            tables.put(symbolName, new TableInput(symbolName, e.valor(), e.slot(), e.tipo() | tipo));
+        }
     }
 
     public TableInput check(String symbolName) {
         return tables.get(symbolName);
     }
+
+    public int size() {
+        return tables.size();
+    }
 }
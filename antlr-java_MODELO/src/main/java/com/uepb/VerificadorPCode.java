@@ -0,0 +1,314 @@
+package com.uepb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static com.uepb.ProgramaPCode.*;
+
+/**
+ * Verificação do programa na carga, feita uma única vez, como a do bytecode
+ * da JVM: uma interpretação abstrata sobre o fluxo de controle acompanha a
+ * altura da pilha, os tipos possíveis de cada posição da pilha e os de cada
+ * célula da memória, estes por bloco básico.
+ *
+ * O programa é rejeitado quando uma instrução alcançável não pôde ser
+ * decodificada (opcode ou label desconhecidos), desempilharia de uma pilha
+ * vazia, salta para fora do programa ou usa um endereço fora da memória,
+ * quando os caminhos que chegam a uma instrução trazem alturas diferentes e
+ * quando uma instrução especializada (addn, equi, fjpb...) pode receber um
+ * operando de outro tipo. Código inalcançável nunca executa e não é conferido.
+ *
+ * Um programa aprovado executa no caminho rápido do PCodeMachine, com a pilha
+ * alocada na altura máxima calculada aqui e sem conferir a altura dela. Em
+ * programas grandes demais para guardar a memória de cada bloco, os tipos da
+ * memória não são acompanhados: se uma instrução especializada alcançável não
+ * pôde ser conferida, o programa é aprovado sem o caminho rápido e executa
+ * conferindo a pilha, como sem o verificador.
+ */
+final class VerificadorPCode {
+    // Conjuntos de etiquetas de tipo, um bit por etiqueta, como no CompiladorJit
+    private static final int M_NULO = 1 << T_NULO;
+    private static final int M_INT = 1 << T_INT;
+    private static final int M_REAL = 1 << T_REAL;
+    private static final int M_TEXTO = 1 << T_TEXTO;
+    private static final int M_NUM = M_INT | M_REAL;
+    private static final int M_TODOS = M_NULO | M_NUM | M_TEXTO;
+
+    /** Células guardadas (blocos vezes endereços) a partir das quais a memória deixa de ser acompanhada. */
+    private static final long LIMITE_CELULAS = 1L << 22;
+
+    /** Resultado: o motivo da rejeição, ou null, a altura máxima da pilha e se o caminho rápido foi liberado. */
+    record Resultado(String erro, int altura, boolean rapido) {
+        boolean aprovado() {
+            return erro == null;
+        }
+    }
+
+    private static final class Rejeicao extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Rejeicao(String motivo) {
+            super(motivo);
+        }
+    }
+
+    /** Estado na entrada de um bloco: tipos da pilha, endereço de "lda" por posição (ou -1) e tipos da memória. */
+    private record Estado(int[] tipos, int[] enderecos, int[] memoria) {
+    }
+
+    private final ProgramaPCode p;
+    private final int n;
+    private final int memSize;
+    private final int limite;
+
+    private boolean[] lider;
+    private Estado[] entradas;
+    private boolean comMemoria;
+    private boolean semTipos;
+    private final Deque<Integer> pendentes = new ArrayDeque<>();
+    private int maxima;
+
+    private VerificadorPCode(ProgramaPCode p, int memSize, int limite) {
+        this.p = p;
+        this.n = p.tamanho();
+        this.memSize = memSize;
+        this.limite = limite;
+    }
+
+    /** Verifica o programa para uma memória de "memSize" células que pode crescer até "limite". */
+    static Resultado verificar(ProgramaPCode programa, int memSize, int limite) {
+        try {
+            return new VerificadorPCode(programa, memSize, limite).analisar();
+        } catch (Rejeicao e) {
+            return new Resultado(e.getMessage(), -1, false);
+        }
+    }
+
+    private Resultado analisar() {
+        lider = new boolean[n + 1];
+        lider[0] = true;
+        int blocos = 1;
+        for (int pc = 0; pc < n; pc++) {
+            int op = generico(p.codigo[pc]);
+            if (salta(op) || op == STP) {
+                int destino = p.args[pc];
+                if (op != STP && destino >= 0 && destino <= n && !lider[destino]) {
+                    lider[destino] = true;
+                    blocos++;
+                }
+                if (!lider[pc + 1]) {
+                    lider[pc + 1] = true;
+                    blocos++;
+                }
+            }
+        }
+        comMemoria = (long) blocos * memSize <= LIMITE_CELULAS;
+        entradas = new Estado[n + 1];
+        int[] memoria = null;
+        if (comMemoria) {
+            memoria = new int[memSize];
+            Arrays.fill(memoria, M_NULO);
+        }
+        entrar(0, new int[0], new int[0], 0, memoria);
+        while (!pendentes.isEmpty()) {
+            percorrer(pendentes.pop());
+        }
+        if (p.pilha >= 0 && p.pilha < maxima) {
+            throw new Rejeicao("o cabeçalho indica a pilha com " + p.pilha + " posições, mas ela chega a " + maxima);
+        }
+        return new Resultado(null, maxima, !semTipos);
+    }
+
+    /** Junta o estado no início do bloco "pc" e o coloca na fila se ele mudou. */
+    private void entrar(int pc, int[] tipos, int[] enderecos, int altura, int[] memoria) {
+        if (pc == n) {
+            return;
+        }
+        Estado atual = entradas[pc];
+        if (atual == null) {
+            entradas[pc] = new Estado(Arrays.copyOf(tipos, altura), Arrays.copyOf(enderecos, altura),
+                    memoria != null ? memoria.clone() : null);
+            pendentes.push(pc);
+            return;
+        }
+        if (atual.tipos().length != altura) {
+            throw new Rejeicao("altura da pilha diferente nos caminhos que chegam a " + onde(pc));
+        }
+        boolean mudou = false;
+        for (int i = 0; i < altura; i++) {
+            if ((atual.tipos()[i] | tipos[i]) != atual.tipos()[i]) {
+                atual.tipos()[i] |= tipos[i];
+                mudou = true;
+            }
+            if (atual.enderecos()[i] != enderecos[i] && atual.enderecos()[i] != -1) {
+                atual.enderecos()[i] = -1;
+                mudou = true;
+            }
+        }
+        if (memoria != null) {
+            int[] m = atual.memoria();
+            for (int i = 0; i < memSize; i++) {
+                if ((m[i] | memoria[i]) != m[i]) {
+                    m[i] |= memoria[i];
+                    mudou = true;
+                }
+            }
+        }
+        if (mudou) {
+            pendentes.push(pc);
+        }
+    }
+
+    /** Executa abstratamente o bloco que começa em "inicio", até o próximo líder ou um desvio. */
+    private void percorrer(int inicio) {
+        Estado entrada = entradas[inicio];
+        int h = entrada.tipos().length;
+        int[] t = Arrays.copyOf(entrada.tipos(), h + 4);
+        int[] e = Arrays.copyOf(entrada.enderecos(), h + 4);
+        int[] mem = entrada.memoria() != null ? entrada.memoria().clone() : null;
+        int pc = inicio;
+        while (true) {
+            if (pc == n) {
+                return;
+            }
+            int original = p.codigo[pc];
+            int op = generico(original);
+            int arg = p.args[pc];
+            if (mem == null && original != op) {
+                semTipos = true;
+            }
+            if (h + 1 >= t.length) {
+                t = Arrays.copyOf(t, t.length * 2);
+                e = Arrays.copyOf(e, e.length * 2);
+            }
+            switch (op) {
+                case LDA -> {
+                    t[h] = M_INT;
+                    e[h++] = arg;
+                }
+                case LDC -> {
+                    t[h] = 1 << p.tiposConst[arg];
+                    e[h++] = -1;
+                }
+                case LOD -> {
+                    endereco(pc, arg);
+                    t[h] = mem != null ? mem[arg] : M_TODOS;
+                    e[h++] = -1;
+                }
+                case RD -> {
+                    t[h] = M_NUM | M_TEXTO;
+                    e[h++] = -1;
+                }
+                case STO -> {
+                    exigir(pc, h, 2);
+                    int destino = e[h - 1];
+                    if (destino >= limite) {
+                        throw new Rejeicao("endereço fora da memória em " + onde(pc));
+                    }
+                    if (mem != null && destino >= 0 && destino < memSize) {
+                        mem[destino] = t[h - 2];
+                    } else if (mem != null && destino < 0) {
+                        // Endereço calculado: qualquer célula pode receber o valor
+                        for (int i = 0; i < memSize; i++) {
+                            mem[i] |= t[h - 2];
+                        }
+                    }
+                    h -= 2;
+                }
+                case STO_DIRETO -> {
+                    exigir(pc, h, 1);
+                    endereco(pc, arg);
+                    if (mem != null) {
+                        mem[arg] = t[h - 1];
+                    }
+                    h--;
+                }
+                case ADD, SUB, MUL, DIV, CALL, EQU, NEQ, AND, OR, LET, GRT, LTE, GTE -> {
+                    exigir(pc, h, 2);
+                    if (mem != null && original != op) {
+                        int exigido = original == EQUI || original == NEQI ? M_INT : M_NUM;
+                        operando(pc, t[h - 2], exigido);
+                        operando(pc, t[h - 1], exigido);
+                    }
+                    h--;
+                    t[h - 1] = op == ADD || op == SUB || op == MUL || op == DIV || op == CALL ? M_REAL : M_INT;
+                    e[h - 1] = -1;
+                }
+                case NEG, NOT, TO -> {
+                    exigir(pc, h, 1);
+                    if (mem != null && original != op) {
+                        operando(pc, t[h - 1], op == NEG ? M_NUM : M_INT);
+                    }
+                    t[h - 1] = op == NEG || (op == TO && arg == TO_FLOAT) ? M_REAL : M_INT;
+                    e[h - 1] = -1;
+                }
+                case WRI -> {
+                    exigir(pc, h, 1);
+                    h--;
+                }
+                case FJP, TJP -> {
+                    exigir(pc, h, 1);
+                    if (mem != null && original != op) {
+                        operando(pc, t[h - 1], M_INT);
+                    }
+                    h--;
+                    saltar(pc, arg, t, e, h, mem);
+                    entrar(pc + 1, t, e, h, mem);
+                    return;
+                }
+                case JLT, JNLT, JGT, JNGT, JEQ, JNE -> {
+                    exigir(pc, h, 2);
+                    h -= 2;
+                    saltar(pc, arg, t, e, h, mem);
+                    entrar(pc + 1, t, e, h, mem);
+                    return;
+                }
+                case PIP -> {
+                    saltar(pc, arg, t, e, h, mem);
+                    return;
+                }
+                case STP -> {
+                    return;
+                }
+                default -> throw new Rejeicao("instrução inválida em " + onde(pc) + ": " + p.constantes[arg]);
+            }
+            maxima = Math.max(maxima, h);
+            pc++;
+            if (lider[pc]) {
+                entrar(pc, t, e, h, mem);
+                return;
+            }
+        }
+    }
+
+    private void saltar(int pc, int destino, int[] t, int[] e, int h, int[] mem) {
+        if (destino < 0 || destino > n) {
+            throw new Rejeicao("salto para fora do programa em " + onde(pc));
+        }
+        entrar(destino, t, e, h, mem);
+    }
+
+    private void exigir(int pc, int h, int posicoes) {
+        if (h < posicoes) {
+            throw new Rejeicao("pilha vazia em " + onde(pc));
+        }
+    }
+
+    private void endereco(int pc, int endereco) {
+        if (endereco < 0 || endereco >= memSize) {
+            throw new Rejeicao("endereço fora da memória em " + onde(pc));
+        }
+    }
+
+    /** Operando de instrução especializada: todos os tipos possíveis precisam estar em "exigido". */
+    private void operando(int pc, int tipos, int exigido) {
+        if ((tipos & ~exigido) != 0) {
+            throw new Rejeicao("operando de tipo não garantido em " + onde(pc));
+        }
+    }
+
+    private String onde(int pc) {
+        return "'" + p.texto(pc) + "' (posição " + pc + ")";
+    }
+}
@@ -0,0 +1,81 @@
+package com.uepb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compila e executa programas da linguagem em memória, para os testes
+ * diferenciais: o mesmo programa compilado com e sem otimização precisa
+ * produzir a mesma saída e o mesmo erro.
+ */
+final class ExecucaoTeste {
+
+    /** Modos de execução da máquina para o P-Code já gerado. */
+    enum Modo { PILHA, SEM_SUPERINSTRUCOES, JIT, REGISTROS, CAMADAS }
+
+    /** Saída do programa e mensagem do erro que o interrompeu, ou null. */
+    record Resultado(String saida, String erro) {
+    }
+
+    private ExecucaoTeste() {
+    }
+
+    static List<String> gerar(String fonte, boolean otimizar) {
+        return Main.gerar(Main.analisar(fonte), otimizar, null, false).pcode();
+    }
+
+    static Resultado executar(String fonte, String entradas, boolean otimizar, Modo modo) {
+        List<String> pcode = gerar(fonte, otimizar);
+        ProgramaCarregado programa = new ProgramaCarregado(ProgramaPCode.decodificar(pcode),
+                PCodeMachine.DEFAULT_MEM_LIMIT, modo == Modo.SEM_SUPERINSTRUCOES
+                ? EnumSet.noneOf(Superinstrucoes.Tipo.class) : Superinstrucoes.padrao());
+        StringBuilder saida = new StringBuilder();
+        PCodeMachine maquina = new PCodeMachine(programa, CanalES.memoria(entradas, saida));
+        // Os avisos de JIT e registradores indisponíveis não fazem parte do resultado
+        maquina.setErrors(new PrintStream(OutputStream.nullOutputStream()));
+        maquina.setJit(modo == Modo.JIT);
+        maquina.setRegisters(modo == Modo.REGISTROS);
+        if (modo == Modo.CAMADAS) {
+            maquina.setTiered(true);
+            maquina.setTierThresholds(2, 4);
+        }
+        try {
+            maquina.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Resultado(saida.toString(), maquina.getError());
+    }
+
+    static Resultado assertMesmoResultado(String fonte) {
+        return assertMesmoResultado(fonte, "");
+    }
+
+    /**
+     * Executa o programa otimizado e sem otimização em todos os modos, com as
+     * entradas indicadas (uma por linha), e exige o mesmo resultado.
+     */
+    static Resultado assertMesmoResultado(String fonte, String entradas) {
+        Resultado esperado = executar(fonte, entradas, false, Modo.PILHA);
+        for (Modo modo : Modo.values()) {
+            assertEquals(esperado, executar(fonte, entradas, true, modo), "otimizado, modo " + modo);
+            assertEquals(esperado, executar(fonte, entradas, false, modo), "sem otimização, modo " + modo);
+        }
+        return esperado;
+    }
+
+    /** Saída esperada: um valor por linha. */
+    static String linhas(String... valores) {
+        StringBuilder sb = new StringBuilder();
+        for (String v : valores) {
+            sb.append(v).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
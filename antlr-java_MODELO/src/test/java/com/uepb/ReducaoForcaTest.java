@@ -0,0 +1,137 @@
+package com.uepb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.uepb.ExecucaoTeste.assertMesmoResultado;
+import static com.uepb.ExecucaoTeste.linhas;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Redução de força e invariantes de laço no GeradorPCode: x^2 vira x*x e
+ * x/2^k vira x*2^-k só com o operando numérico provado, e uma subexpressão
+ * invariante é calculada antes do laço só quando não pode falhar. A saída e
+ * as mensagens de erro são as do código sem otimização.
+ */
+class ReducaoForcaTest {
+    // "input" não prova o tipo; somado a um número, o valor passa a ser numérico e não é constante
+    private static final String NUMERO = "input(e);\nvar x = e + 0;\n";
+
+    @Test
+    void quadradoDeNumeroViraMultiplicacao() {
+        List<String> pcode = ExecucaoTeste.gerar(NUMERO + "print(x ^ 2);\nprint((x + 1) ^ 2);\n", true);
+        assertFalse(pcode.contains("call POW_FUNCTION"), String.join("\n", pcode));
+        assertEquals(2, pcode.stream().filter("muln"::equals).count(), String.join("\n", pcode));
+    }
+
+    @Test
+    void quadradoDeNumero() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado(NUMERO + "print(x ^ 2);\nprint((x + 3) ^ 2);\nprint(-x ^ 2);\n", "2.5");
+        assertEquals(linhas("6.25", "30.25", "6.25"), r.saida());
+        assertNull(r.erro());
+    }
+
+    @Test
+    void quadradoDeTexto() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado("var s = \"abc\";\nprint(s ^ 2);\n");
+        assertEquals("Erro ao executar instrução 'call POW_FUNCTION': Valor não numérico: abc", r.erro());
+    }
+
+    @Test
+    void quadradoDeEntradaDeTexto() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado("input(s);\nprint(s ^ 2);\n", "abc");
+        assertEquals("Erro ao executar instrução 'call POW_FUNCTION': Valor não numérico: abc", r.erro());
+    }
+
+    @Test
+    void quadradoDeNulo() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado("var n;\nprint(5);\nprint(n ^ 2);\n");
+        assertEquals(linhas("5"), r.saida());
+        assertEquals("Erro ao executar instrução 'call POW_FUNCTION': Valor não numérico: null", r.erro());
+    }
+
+    @Test
+    void divisaoPorPotenciaDeDoisViraMultiplicacao() {
+        List<String> pcode = ExecucaoTeste.gerar(NUMERO + "print(x / 4);\n", true);
+        assertFalse(pcode.contains("div") || pcode.contains("divn"), String.join("\n", pcode));
+        assertTrue(pcode.contains("ldc 0.25"), String.join("\n", pcode));
+    }
+
+    @Test
+    void divisaoPorPotenciaDeDois() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado(
+                NUMERO + "print(x / 4);\nprint(x / 0.5);\nprint(-x / 1024);\nprint(x / 3);\nprint(x / 0);\n", "3");
+        assertEquals(linhas("0.75", "6.0", "-0.0029296875", "1.0", "Infinity"), r.saida());
+    }
+
+    @Test
+    void divisaoDeTextoPorPotenciaDeDois() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado("var s = \"abc\";\nprint(s / 4);\n");
+        assertEquals("Erro ao executar instrução 'div': Valor não numérico: abc", r.erro());
+    }
+
+    @Test
+    void divisaoDeEntradaDeTextoPorPotenciaDeDois() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado("input(s);\nprint(s / 8);\n", "abc");
+        assertEquals("Erro ao executar instrução 'div': Valor não numérico: abc", r.erro());
+    }
+
+    @Test
+    void divisaoDeNuloPorPotenciaDeDois() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado("var n;\nprint(n / 2);\n");
+        assertEquals("Erro ao executar instrução 'div': Valor não numérico: null", r.erro());
+    }
+
+    @Test
+    void invarianteCalculadaAntesDoLaco() {
+        String fonte = NUMERO + """
+                var b = x + 1;
+                var i = 0;
+                var s = 0;
+                while (i < 5) {
+                    s = s + x * b;
+                    i = i + 1;
+                }
+                print(s);
+                """;
+        ExecucaoTeste.Resultado r = assertMesmoResultado(fonte, "3");
+        assertEquals(linhas("60.0"), r.saida());
+        // O produto é calculado uma única vez, fora do laço
+        List<String> pcode = ExecucaoTeste.gerar(fonte, true);
+        int produto = pcode.indexOf("muln");
+        int laco = pcode.indexOf(pcode.stream().filter(l -> l.endsWith(":")).findFirst().orElseThrow());
+        assertEquals(1, pcode.stream().filter("muln"::equals).count(), String.join("\n", pcode));
+        assertTrue(produto < laco, String.join("\n", pcode));
+    }
+
+    @Test
+    void invarianteQuePodeFalharFicaNoLaco() {
+        // O laço não dá nenhuma volta: calcular s * 2 antes dele falharia
+        ExecucaoTeste.Resultado r = assertMesmoResultado(
+                "var s = \"x\";\ninput(i);\nwhile (i > 0) {\n    print(s * 2);\n    i = i - 1;\n}\nprint(i);\n", "-2");
+        assertEquals(linhas("-2"), r.saida());
+        assertNull(r.erro());
+    }
+
+    @Test
+    void invarianteDeLacoAninhado() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado(NUMERO + """
+                var i = 0;
+                var t = 0;
+                while (i < 3) {
+                    var j = 0;
+                    while (j < 4) {
+                        t = t + x ^ 2 + i / 2;
+                        j = j + 1;
+                    }
+                    i = i + 1;
+                }
+                print(t);
+                """, "2");
+        assertEquals(linhas("54.0"), r.saida());
+    }
+}
@@ -0,0 +1,40 @@
+package com.uepb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.uepb.ExecucaoTeste.assertMesmoResultado;
+import static com.uepb.ExecucaoTeste.linhas;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Regras NEG e NOT do peephole: a instrução fundida falha com o texto da
+ * instrução que substitui, como no código sem otimização.
+ */
+class RegrasPeepholeTest {
+
+    @Test
+    void negacaoDeTexto() {
+        List<String> pcode = ExecucaoTeste.gerar("input(s);\nprint(-s);\n", true);
+        assertTrue(pcode.contains("neg"), String.join("\n", pcode));
+        ExecucaoTeste.Resultado r = assertMesmoResultado("input(s);\nprint(5);\nprint(-s);\n", "abc\n");
+        assertEquals(linhas("5"), r.saida());
+        assertEquals("Erro ao executar instrução 'mul': Valor não numérico: abc", r.erro());
+    }
+
+    @Test
+    void negacaoDeNulo() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado("var n;\nvar x = -n;\n");
+        assertEquals("Erro ao executar instrução 'mul': Valor não numérico: null", r.erro());
+    }
+
+    @Test
+    void notDeNulo() {
+        List<String> pcode = ExecucaoTeste.gerar("var n;\nprint(not n);\n", true);
+        assertTrue(pcode.contains("not"), String.join("\n", pcode));
+        ExecucaoTeste.Resultado r = assertMesmoResultado("var n;\nprint(not n);\n");
+        assertTrue(r.erro().startsWith("Erro ao executar instrução 'equ':"), r.erro());
+    }
+}
@@ -0,0 +1,139 @@
+package com.uepb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.uepb.ExecucaoTeste.assertMesmoResultado;
+import static com.uepb.ExecucaoTeste.linhas;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Condições compiladas como código de saltos e as regras COMPARACAO_SALTO e
+ * INVERSAO: o resultado, inclusive o curto-circuito e o texto dos erros, é o
+ * do código sem otimização.
+ */
+class SaltosComparadosTest {
+    // a = 1 (Integer), b = 1.0 (Double) e z = 0, lidos da entrada para não virarem constantes
+    private static final String VALORES = "input(a);\nvar b = a + 0;\ninput(z);\nvar n;\n";
+    private static final String ENTRADAS = "1\n0\n";
+
+    @Test
+    void igualdadeComparaComoObjectEquals() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado(VALORES + """
+                if (a == b) print("igual"); else print("diferente");
+                if (a != b) print("diferente"); else print("igual");
+                if (b == 1.0) print("igual"); else print("diferente");
+                var i = 0;
+                while (a == b and i < 3) i = i + 1;
+                print(i + 10);
+                """, ENTRADAS);
+        assertEquals(linhas("diferente", "diferente", "igual", "10.0"), r.saida());
+        assertNull(r.erro());
+    }
+
+    @Test
+    void igualdadeComSaltoComparado() {
+        List<String> pcode = ExecucaoTeste.gerar(VALORES + "if (a == b) print(\"igual\");\n", true);
+        assertTrue(pcode.contains("jne L0"), String.join("\n", pcode));
+    }
+
+    @Test
+    void curtoCircuito() {
+        // n é nulo: avaliar "n == 1" interromperia o programa
+        ExecucaoTeste.Resultado r = assertMesmoResultado(VALORES + """
+                if (z and n == 1) print("x"); else print("curto e");
+                if (a or n == 1) print("curto ou"); else print("y");
+                if (not (z and n == 1)) print("negado");
+                var i = 0;
+                while (i < 3 and not (i == b + 1)) {
+                    print(i + 10);
+                    i = i + 1;
+                }
+                print(a or n);
+                print(z and n);
+                """, ENTRADAS);
+        assertEquals(linhas("curto e", "curto ou", "negado", "10.0", "11.0", "true", "false"), r.saida());
+        assertNull(r.erro());
+    }
+
+    @Test
+    void curtoCircuitoAvaliaSegundoOperando() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado(VALORES + "if (a and n == 1) print(\"x\");\nprint(\"y\");\n", ENTRADAS);
+        assertEquals("", r.saida());
+        assertTrue(r.erro().startsWith("Erro ao executar instrução 'equ':"), r.erro());
+    }
+
+    @Test
+    void negacaoDeReal() {
+        ExecucaoTeste.Resultado r = assertMesmoResultado(VALORES + """
+                var h = b / 2;
+                var c = b - 1;
+                if (not h) print("zero"); else print("meio");
+                // not x é x == false: o real 0.0 não é igual ao falso inteiro
+                if (not c) print("zero"); else print("c");
+                while (not h) h = 0;
+                print(h);
+                """, ENTRADAS);
+        assertEquals(linhas("meio", "c", "0.5"), r.saida());
+    }
+
+    @Test
+    void erroDeComparacaoComTexto() {
+        ExecucaoTeste.Resultado menor = assertMesmoResultado("var s = \"abc\";\nif (s < 3) print(1);\n");
+        assertEquals("Erro ao executar instrução 'let': Valor não numérico: abc", menor.erro());
+        ExecucaoTeste.Resultado maior = assertMesmoResultado("input(s);\nwhile (s > 3) s = 0;\n", "abc\n");
+        assertEquals("Erro ao executar instrução 'grt': Valor não numérico: abc", maior.erro());
+    }
+
+    @Test
+    void erroDeSaltoNaCadeia() {
+        // O último operando de um or é testado pelo tjp, como no valor materializado, mesmo desviando no falso
+        ExecucaoTeste.Resultado ou = assertMesmoResultado("var s = \"\";\nvar a = 1;\nif (a < 0 or s) print(1);\n");
+        assertTrue(ou.erro().startsWith("Erro ao executar instrução 'tjp "), ou.erro());
+        assertTrue(ou.erro().endsWith("': Valor não booleano: "), ou.erro());
+        ExecucaoTeste.Resultado e = assertMesmoResultado(VALORES + "input(s);\nif (not (a and s)) print(1);\n", ENTRADAS + "abc\n");
+        assertTrue(e.erro().startsWith("Erro ao executar instrução 'fjp "), e.erro());
+        ExecucaoTeste.Resultado aninhado = assertMesmoResultado(VALORES + "while (z or (a and n)) z = 0;\n", ENTRADAS);
+        assertTrue(aninhado.erro().startsWith("Erro ao executar instrução 'fjp "), aninhado.erro());
+        assertTrue(aninhado.erro().endsWith("': Valor não booleano: null"), aninhado.erro());
+    }
+
+    @Test
+    void erroDeIgualdadeComNulo() {
+        ExecucaoTeste.Resultado igual = assertMesmoResultado(VALORES + "if (n == a) print(1);\n", ENTRADAS);
+        assertTrue(igual.erro().startsWith("Erro ao executar instrução 'equ':"), igual.erro());
+        ExecucaoTeste.Resultado diferente = assertMesmoResultado(VALORES + "while (n != a) n = a;\n", ENTRADAS);
+        assertTrue(diferente.erro().startsWith("Erro ao executar instrução 'neq':"), diferente.erro());
+        // Nulo só à direita não falha
+        ExecucaoTeste.Resultado direita = assertMesmoResultado(VALORES + "if (a == n) print(1); else print(5);\n", ENTRADAS);
+        assertEquals(linhas("5"), direita.saida());
+        assertNull(direita.erro());
+    }
+
+    @Test
+    void comparacaoSeguidaDeSalto() {
+        OtimizadorPeephole otimizador = OtimizadorPeephole.comRegras("COMPARACAO_SALTO");
+        assertEquals(List.of("jne L"), otimizador.otimizar(List.of("equ", "fjp L")));
+        assertEquals(List.of("jeq L"), otimizador.otimizar(List.of("equ", "tjp L")));
+        assertEquals(List.of("jnlt L"), otimizador.otimizar(List.of("let", "fjp L")));
+        assertEquals(List.of("jgt L"), otimizador.otimizar(List.of("grtn", "tjpb L")));
+        assertEquals(List.of("jeq L"), otimizador.otimizar(List.of("neqi", "fjpb L")));
+        // O neq genérico falharia mostrando "equ" no lugar de "neq"
+        assertEquals(List.of("neq", "fjp L"), otimizador.otimizar(List.of("neq", "fjp L")));
+    }
+
+    @Test
+    void inversaoDeSaltoComparado() {
+        OtimizadorPeephole otimizador = OtimizadorPeephole.comRegras("INVERSAO");
+        assertEquals(List.of("jeq B", "A:", "wri"), otimizador.otimizar(List.of("jne A", "pip B", "A:", "wri")));
+        assertEquals(List.of("jlt B", "A:"), otimizador.otimizar(List.of("jnlt A", "pip B", "A:")));
+        assertEquals(List.of("tjpb B", "A:"), otimizador.otimizar(List.of("fjpb A", "pip B", "A:")));
+        // O fjp genérico pode falhar, e o erro mostraria o tjp
+        assertEquals(List.of("fjp A", "pip B", "A:"), otimizador.otimizar(List.of("fjp A", "pip B", "A:")));
+        // Só quando o label do salto vem logo depois do pip
+        assertEquals(List.of("jne A", "pip B", "wri", "A:"), otimizador.otimizar(List.of("jne A", "pip B", "wri", "A:")));
+    }
+}
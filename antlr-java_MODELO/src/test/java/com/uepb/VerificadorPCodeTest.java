@@ -0,0 +1,79 @@
+package com.uepb;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Programas com memória grande demais para o verificador acompanhar os tipos
+ * de cada bloco: as instruções especializadas não são conferidas e o programa
+ * não pode ir para o caminho rápido.
+ */
+class VerificadorPCodeTest {
+
+    private static final int GRANDE = PCodeMachine.DEFAULT_MEM_LIMIT;
+
+    /** Soma de duas células com "addn", depois de alguns desvios que criam blocos. */
+    private static List<String> soma(int memoria, String segunda) {
+        List<String> linhas = new ArrayList<>(List.of(".memoria " + memoria, ".pilha 2",
+                "ldc 1", "sto #0", "ldc 2", "sto " + segunda));
+        for (int i = 0; i < 5; i++) {
+            linhas.addAll(List.of("ldc 1", "fjp L" + i, "L" + i + ":"));
+        }
+        linhas.addAll(List.of("lod #0", "lod #1", "addn", "wri", "stp"));
+        return linhas;
+    }
+
+    private static VerificadorPCode.Resultado verificar(List<String> linhas) {
+        ProgramaPCode programa = ProgramaPCode.decodificar(linhas);
+        return VerificadorPCode.verificar(programa, programa.memoria, programa.memoria);
+    }
+
+    @Test
+    void memoriaPequenaVaiParaOCaminhoRapido() {
+        VerificadorPCode.Resultado r = verificar(soma(2, "#1"));
+        assertTrue(r.aprovado(), r.erro());
+        assertTrue(r.rapido());
+    }
+
+    @Test
+    void memoriaPequenaComOperandoNulo() {
+        VerificadorPCode.Resultado r = verificar(soma(3, "#2"));
+        assertTrue(r.erro().startsWith("operando de tipo não garantido"), r.erro());
+    }
+
+    @Test
+    void memoriaGrandeFicaNoCaminhoConferido() {
+        VerificadorPCode.Resultado r = verificar(soma(GRANDE, "#2"));
+        assertTrue(r.aprovado(), r.erro());
+        assertFalse(r.rapido());
+    }
+
+    @Test
+    void memoriaGrandeSemEspecializadas() {
+        List<String> linhas = soma(GRANDE, "#1");
+        linhas.set(linhas.indexOf("addn"), "add");
+        VerificadorPCode.Resultado r = verificar(linhas);
+        assertTrue(r.aprovado(), r.erro());
+        assertTrue(r.rapido());
+    }
+
+    @Test
+    void memoriaGrandeExecuta() throws IOException {
+        ProgramaCarregado programa = new ProgramaCarregado(ProgramaPCode.decodificar(soma(GRANDE, "#1")),
+                GRANDE, EnumSet.noneOf(Superinstrucoes.Tipo.class));
+        StringBuilder saida = new StringBuilder();
+        PCodeMachine maquina = new PCodeMachine(programa, CanalES.memoria("", saida));
+        maquina.run();
+        assertNull(maquina.getError());
+        assertEquals("3.0", saida.toString().strip());
+    }
+}